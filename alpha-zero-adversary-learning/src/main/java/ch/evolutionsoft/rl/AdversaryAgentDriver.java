@@ -3,124 +3,266 @@ package ch.evolutionsoft.rl;
 import static ch.evolutionsoft.rl.AdversaryLearning.*;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * {@link AdversaryAgentDriver} is only relevant if {@link AdversaryLearningConfiguration} has alwaysUpdateNeuralNetwork = false.
  * In that case, a configured number of games and win rate decide if the alpha zero network gets updated with newest version of
  * the neural net, a {@link ComputationGraph} here.
- * 
+ *
+ * The games run concurrently on numberOfArenaThreads workers, both players alternately start. With numberOfArenaThreads > 1
+ * each neural net evaluates the boards of all games in its own {@link BatchInferenceServer}. Game results are counted in the
+ * order the games were started. With arenaSprtMargin > 0 a {@link WinRatioSprt} for player2, the new neural net,
+ * stops the remaining games as soon as it decides.
+ *
  * @author evolutionsoft
  */
 public class AdversaryAgentDriver {
 
+  private static final Logger log = LoggerFactory.getLogger(AdversaryAgentDriver.class);
+
   ComputationGraph player1Policy;
   ComputationGraph player2Policy;
-  
+
+  WinRatioSprt.Decision sprtDecision = WinRatioSprt.Decision.CONTINUE;
+
+  volatile boolean arenaStopped;
+
   public AdversaryAgentDriver(ComputationGraph player1, ComputationGraph player2) {
-    
+
     this.player1Policy = player1;
     this.player2Policy = player2;
   }
 
+  /**
+   * @param game the initial game to create the game instances from
+   * @param configuration the {@link AdversaryLearningConfiguration} to use
+   * @return player1 wins, player2 wins and draws of the played games
+   */
   public int[] playGames(Game game, AdversaryLearningConfiguration configuration) {
-    
-    int numberOfEpisodesPlayer1Starts = configuration.getNumberOfGamesToDecideUpdate() / 2;
-    int numberOfEpisodesPlayer2Starts = configuration.getNumberOfGamesToDecideUpdate() - numberOfEpisodesPlayer1Starts;
-    
+
+    int numberOfGames = configuration.getNumberOfGamesToDecideUpdate();
+    int numberOfArenaThreads = Math.max(1, Math.min(numberOfGames, configuration.getNumberOfArenaThreads()));
+
+    WinRatioSprt sprt = configuration.getArenaSprtMargin() > 0 ?
+        new WinRatioSprt(
+            configuration.getGamesWinRatioThresholdNewNetworkUpdate(),
+            configuration.getArenaSprtMargin(),
+            configuration.getArenaSprtErrorRate()) :
+        null;
+    this.sprtDecision = WinRatioSprt.Decision.CONTINUE;
+    this.arenaStopped = false;
+
+    NeuralNetOutputCache player1OutputCache = new NeuralNetOutputCache(configuration.getNeuralNetOutputCacheSize());
+    NeuralNetOutputCache player2OutputCache = new NeuralNetOutputCache(configuration.getNeuralNetOutputCacheSize());
+    BatchInferenceServer player1InferenceServer = null;
+    BatchInferenceServer player2InferenceServer = null;
+    if (numberOfArenaThreads > 1 && configuration.getInferenceMaxBatchSize() > 1) {
+
+      player1InferenceServer = new BatchInferenceServer(player1Policy,
+          configuration.getInferenceMaxBatchSize(), configuration.getInferenceMaxWaitMicros()).start();
+      player2InferenceServer = new BatchInferenceServer(player2Policy,
+          configuration.getInferenceMaxBatchSize(), configuration.getInferenceMaxWaitMicros()).start();
+    }
+
+    ExecutorService arenaExecutor = Executors.newFixedThreadPool(numberOfArenaThreads);
+
     int player1Wins = 0;
     int player2Wins = 0;
     int draws = 0;
-    
-    for (int gameNumber = 1; gameNumber <= numberOfEpisodesPlayer1Starts; gameNumber++) {
-      
-      double gameResult = this.playGame(game.createNewInstance(), configuration);
-      
-      if (gameResult >= MAX_WIN) {
-        
-        player1Wins++;
-      
-      } else if (gameResult <= MIN_WIN) {
-        
-        player2Wins++;
-      
-      } else {
-        
-        draws++;
+
+    try {
+
+      List<Future<Double>> gameResults = new ArrayList<>(numberOfGames);
+      for (int gameNumber = 0; gameNumber < numberOfGames; gameNumber++) {
+
+        BatchInferenceServer gamePlayer1InferenceServer = player1InferenceServer;
+        BatchInferenceServer gamePlayer2InferenceServer = player2InferenceServer;
+        boolean player1Starts = player1Starts(gameNumber);
+
+        gameResults.add(arenaExecutor.submit(() -> {
+
+          try (MonteCarloTreeSearch player1 = new MonteCarloTreeSearch(
+                  this.player1Policy, configuration, player1OutputCache, gamePlayer1InferenceServer);
+              MonteCarloTreeSearch player2 = new MonteCarloTreeSearch(
+                  this.player2Policy, configuration, player2OutputCache, gamePlayer2InferenceServer)) {
+
+            return player1Starts ?
+                this.playGame(game.createNewInstance(), player1, player2) :
+                this.playGame(game.createNewInstance(), player2, player1);
+          }
+        }));
       }
-    }
-    
-    ComputationGraph tempPlayerPolicy = player1Policy;
-    player1Policy = player2Policy;
-    player2Policy = tempPlayerPolicy;
-
-    for (int gameNumber = 1; gameNumber <= numberOfEpisodesPlayer2Starts; gameNumber++) {
-      
-      double gameResult = this.playGame(game.createNewInstance(), configuration);
-      
-      if (gameResult <= MIN_WIN) {
-        
-        player1Wins++;
-      
-      } else if (gameResult >= MAX_WIN) {
-        
-        player2Wins++;
-      
-      } else {
-        
-        draws++;
+
+      for (int gameNumber = 0;
+          gameNumber < numberOfGames && WinRatioSprt.Decision.CONTINUE == this.sprtDecision;
+          gameNumber++) {
+
+        double gameResult = gameResults.get(gameNumber).get();
+        double player2Result = player1Starts(gameNumber) ? MAX_WIN - gameResult : gameResult;
+
+        if (player2Result >= MAX_WIN) {
+
+          player2Wins++;
+
+        } else if (player2Result <= MIN_WIN) {
+
+          player1Wins++;
+
+        } else {
+
+          draws++;
+        }
+
+        if (null != sprt) {
+
+          this.sprtDecision = player2Result >= MAX_WIN ? sprt.addWin() :
+            player2Result <= MIN_WIN ? sprt.addLoss() : sprt.addDraw();
+        }
+      }
+
+      if (WinRatioSprt.Decision.CONTINUE != this.sprtDecision) {
+
+        log.info("Arena stopped after {} of {} games with SPRT decision {}, log likelihood ratio {}",
+            sprt.getNumberOfGames(),
+            numberOfGames,
+            this.sprtDecision,
+            sprt.getLogLikelihoodRatio());
+      }
+
+    } catch (InterruptedException ie) {
+
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for arena games", ie);
+
+    } catch (ExecutionException ee) {
+
+      throw new IllegalStateException("Arena game failed", ee.getCause());
+
+    } finally {
+
+      this.stopArena(arenaExecutor);
+
+      if (null != player1InferenceServer) {
+
+        player1InferenceServer.close();
+        player2InferenceServer.close();
       }
     }
-    
+
     return new int[] {player1Wins, player2Wins, draws};
   }
-  
+
   public double playGame(Game game, AdversaryLearningConfiguration configuration) {
-    
-    MonteCarloTreeSearch player1 = new MonteCarloTreeSearch(this.player1Policy, configuration);
-    MonteCarloTreeSearch player2 = new MonteCarloTreeSearch(this.player2Policy, configuration);
-    
+
+    try (MonteCarloTreeSearch player1 = new MonteCarloTreeSearch(this.player1Policy, configuration);
+        MonteCarloTreeSearch player2 = new MonteCarloTreeSearch(this.player2Policy, configuration)) {
+
+      return this.playGame(game, player1, player2);
+    }
+  }
+
+  /**
+   * @param game the game to play from its current state
+   * @param maxPlayer the search of the starting player
+   * @param minPlayer the search of the other player
+   * @return the game result for maxPlayer, a draw if the arena got stopped before the game ended
+   */
+  double playGame(Game game, MonteCarloTreeSearch maxPlayer, MonteCarloTreeSearch minPlayer) {
+
     Set<Integer> emptyFields = game.getValidMoveIndices();
-    
+
     int currentPlayer = Game.MAX_PLAYER;
 
     while (!game.gameEnded()) {
-    
+
+      if (this.arenaStopped) {
+
+        return DRAW_VALUE;
+      }
+
       INDArray moveActionValues = Nd4j.zeros(game.getNumberOfAllAvailableMoves());
       if (currentPlayer == Game.MAX_PLAYER) {
-        
-        moveActionValues = player1.getActionValues(game, 0);
-        
+
+        moveActionValues = maxPlayer.getActionValues(game, 0);
+
       } else if (currentPlayer == Game.MIN_PLAYER) {
-        
-        moveActionValues = player2.getActionValues(game, 0);
+
+        moveActionValues = minPlayer.getActionValues(game, 0);
       }
-      
+
       int moveAction = moveActionValues.argMax(0).getInt(0);
 
       if (!emptyFields.contains(moveAction)) {
         moveAction = new ArrayList<>(emptyFields).get(AdversaryLearningConstants.randomGenerator.nextInt(emptyFields.size()));
       }
-      
-      game.makeMove(moveAction, currentPlayer);
+
+      game.playMove(moveAction, currentPlayer);
+      maxPlayer.updateWithMove(moveAction);
+      minPlayer.updateWithMove(moveAction);
       emptyFields = game.getValidMoveIndices();
       currentPlayer = game.getOtherPlayer(currentPlayer);
     }
-    
+
     double endResult = game.getEndResult(currentPlayer);
     if (endResult > 0.5) {
 
-      return MAX_WIN;    
+      return MAX_WIN;
 
     } else if (endResult < 0.5) {
-      
+
       return MIN_WIN;
     }
-    
+
     return DRAW_VALUE;
   }
+
+  /**
+   * @return the early decision of the last playGames, CONTINUE if all games were played
+   */
+  public WinRatioSprt.Decision getSprtDecision() {
+
+    return this.sprtDecision;
+  }
+
+  /**
+   * Alternates the starting player, player2 starts one more game with an odd number of games.
+   */
+  static boolean player1Starts(int gameNumber) {
+
+    return 1 == gameNumber % 2;
+  }
+
+  /**
+   * Ends running games early and waits until no game uses the neural nets any more.
+   */
+  void stopArena(ExecutorService arenaExecutor) {
+
+    this.arenaStopped = true;
+    arenaExecutor.shutdownNow();
+
+    try {
+
+      while (!arenaExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+
+        log.info("Waiting for running arena games to stop");
+      }
+
+    } catch (InterruptedException ie) {
+
+      Thread.currentThread().interrupt();
+    }
+  }
 }
@@ -1,28 +1,35 @@
 package ch.evolutionsoft.rl;
 
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 
 import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
+import org.deeplearning4j.datasets.iterator.AsyncMultiDataSetIterator;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.util.ModelSerializer;
 import org.deeplearning4j.util.NetworkUtils;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,20 +56,42 @@ public class AdversaryLearning {
   
   public static final int SEVEN_DIGITS = 7;
   
-  public static final String TEMPMODEL_NAME = "tempmodel.bin";
+  public static final int PREFETCH_MINI_BATCHES = 2;
 
   public static final Logger log = LoggerFactory.getLogger(AdversaryLearning.class);
 
-  Map<INDArray, AdversaryTrainingExample> trainExamplesHistory = new HashMap<>();
+  /**
+   * Train examples by board hash in insertion order, the eldest entry is the next to evict.
+   */
+  Map<Long, AdversaryTrainingExample> trainExamplesHistory = new LinkedHashMap<>();
 
   Game initialGame;
 
   ComputationGraph computationGraph;
+  
+  /**
+   * In memory snapshot of computationGraph before fitting, swapped with computationGraph if a new model gets rejected.
+   */
   ComputationGraph previousComputationGraph;
 
   AdversaryLearningConfiguration adversaryLearningConfiguration;
 
-  MonteCarloTreeSearch mcts;
+  NeuralNetOutputCache neuralNetOutputCache;
+  
+  /**
+   * New train examples of each episode since the last saved complete train examples history.
+   */
+  TrainExamplesLog trainExamplesLog;
+  
+  /**
+   * Off heap train examples history replacing trainExamplesHistory if a replay buffer file is configured.
+   */
+  MappedReplayBuffer replayBuffer;
+  
+  /**
+   * Writes the best model and checkpoints in the background while learning continues.
+   */
+  CheckpointWriter checkpointWriter;
 
   boolean restoreTrainingExamples;
 
@@ -73,6 +102,9 @@ public class AdversaryLearning {
     this.initialGame = game;
     this.computationGraph = computationGraph;
     this.adversaryLearningConfiguration = configuration;
+    this.neuralNetOutputCache = new NeuralNetOutputCache(configuration.getNeuralNetOutputCacheSize());
+    this.trainExamplesLog = TrainExamplesLog.forTrainExamplesFile(
+        Paths.get(configuration.getAbsoluteModelPathFrom(configuration.getTrainExamplesFileName())));
     this.restoreTrainingExamples = configuration.getIterationStart() > 1;
     this.restoreTrainedNeuralNet = configuration.getIterationStart() > 1;
     log.info("Using configuration\n{}", configuration);
@@ -80,44 +112,133 @@ public class AdversaryLearning {
 
   public void performLearning() throws IOException {
 
+    Path checkpointDirectory = Paths.get(adversaryLearningConfiguration.getAbsoluteModelPathFrom(
+        adversaryLearningConfiguration.getBestModelFileName())).getParent();
+    if (restoreTrainedNeuralNet) {
+      
+      checkLastDurableIteration(checkpointDirectory);
+    }
+
     loadComputationGraphs();
     loadEarlierTrainingExamples(adversaryLearningConfiguration.getTrainExamplesFileName());
+    if (!restoreTrainingExamples) {
+      
+      this.trainExamplesLog.clear();
+    }
+    if (null != adversaryLearningConfiguration.getReplayBufferFileName()) {
+      
+      openReplayBuffer();
+    }
+
+    this.checkpointWriter = new CheckpointWriter(
+        checkpointDirectory,
+        adversaryLearningConfiguration.getNumberOfCheckpointsToKeep(),
+        getCheckpointFileNamePatterns());
+
+    SelfPlayPipeline selfPlayPipeline = null;
+    if (adversaryLearningConfiguration.isPipelinedSelfPlay()) {
+      
+      selfPlayPipeline = new SelfPlayPipeline(
+          (iteration, graph, cache) -> this.executeEpisode(iteration, graph, cache, null),
+          adversaryLearningConfiguration.getNumberOfSelfPlayThreads(),
+          adversaryLearningConfiguration.getNumberOfIterationsBeforePotentialUpdate(),
+          adversaryLearningConfiguration.getNeuralNetOutputCacheSize()).
+          start(adversaryLearningConfiguration.getIterationStart(), computationGraph);
+    }
+    
+    try {
+      
+      performIterations(selfPlayPipeline);
+    
+    } finally {
+      
+      if (null != selfPlayPipeline) {
+        
+        selfPlayPipeline.close();
+      }
+      
+      this.checkpointWriter.close();
+      log.info("Last durable checkpoint iteration {}", this.checkpointWriter.getLastDurableIteration());
+    }
+  }
+
+  /**
+   * Compares the last durable checkpoint of the earlier run with the last checkpoint iteration before iterationStart,
+   * before anything is restored. A missing checkpoint means the earlier run stopped before its background writes
+   * completed, the files to restore may be incomplete or of another iteration. Without marker file of an earlier run
+   * there is nothing to check.
+   * 
+   * @param checkpointDirectory the directory of the checkpoint marker file
+   * @throws IOException if the marker file can not be read
+   * @throws IllegalStateException if the expected checkpoint is not durable
+   */
+  void checkLastDurableIteration(Path checkpointDirectory) throws IOException {
+
+    int lastDurableIteration = CheckpointWriter.readLastDurableIteration(checkpointDirectory);
+    int checkpointFrequency = adversaryLearningConfiguration.getCheckPointIterationsFrequency();
+    int expectedCheckpointIteration =
+        (adversaryLearningConfiguration.getIterationStart() - 1) / checkpointFrequency * checkpointFrequency;
+    
+    if (CheckpointWriter.NO_ITERATION != lastDurableIteration && lastDurableIteration < expectedCheckpointIteration) {
+      
+      throw new IllegalStateException("Last durable checkpoint is iteration " + lastDurableIteration +
+          " instead of " + expectedCheckpointIteration + ", restore the checkpoint files of iteration " +
+          lastDurableIteration + " and restart with iterationStart " + (lastDurableIteration + 1));
+    }
+  }
+
+  void performIterations(SelfPlayPipeline selfPlayPipeline) throws IOException {
 
     for (int iteration = adversaryLearningConfiguration.getIterationStart();
         iteration < adversaryLearningConfiguration.getIterationStart() + 
         adversaryLearningConfiguration.getNumberOfIterations();
         iteration++) {
 
-      for (int episode = 1; episode <= adversaryLearningConfiguration.getNumberOfIterationsBeforePotentialUpdate(); episode++) {
+      if (null != selfPlayPipeline) {
+        
+        this.takePipelinedEpisodes(selfPlayPipeline, iteration);
+        
+      } else if (adversaryLearningConfiguration.getNumberOfSelfPlayThreads() > 1) {
+        
+        this.executeParallelEpisodes(iteration);
 
-        List<AdversaryTrainingExample> newExamples = this.executeEpisode(iteration);
-  
-        replaceOldTrainingExamplesWithNewActionProbabilities(newExamples);
-  
-        saveTrainExamplesHistory();
+      } else {
         
-        log.info("Episode {}-{} ended, train examples {}", iteration, episode, this.trainExamplesHistory.size());
+        for (int episode = 1; episode <= adversaryLearningConfiguration.getNumberOfIterationsBeforePotentialUpdate(); episode++) {
+  
+          List<AdversaryTrainingExample> newExamples = this.executeEpisode(iteration);
+    
+          storeNewTrainExamples(newExamples);
+          
+          log.info("Episode {}-{} ended, train examples {}", iteration, episode, this.getNumberOfTrainExamples());
+        }
       }
+      
+      saveTrainExamplesHistory();
 
       boolean updateAfterBetterPlayout = updateNeuralNet();
 
       if (adversaryLearningConfiguration.isAlwaysUpdateNeuralNetwork() || 
           updateAfterBetterPlayout) {
-
+        
         log.info("Accepting new model");
         String absoluteBestModelPath =
             adversaryLearningConfiguration.getAbsoluteModelPathFrom(adversaryLearningConfiguration.getBestModelFileName());
-        ModelSerializer.writeModel(computationGraph,
-            absoluteBestModelPath,
-            true);
+        this.checkpointWriter.writeModel(computationGraph, Paths.get(absoluteBestModelPath));
         
-        log.info("Write new model {}", absoluteBestModelPath);
+        log.info("Write new model {} in background", absoluteBestModelPath);
 
         if (updateAfterBetterPlayout) {
           initialGame.evaluateBoardActionExamples(previousComputationGraph);
         }
         initialGame.evaluateBoardActionExamples(computationGraph);
         initialGame.evaluateNetwork(computationGraph);
+        
+        if (null != selfPlayPipeline) {
+        
+          selfPlayPipeline.publish(computationGraph);
+          log.info("Published model {} to self play", selfPlayPipeline.getNumberOfPublishedModels());
+        }
       }
 
       createCheckpoint(iteration);
@@ -126,48 +247,174 @@ public class AdversaryLearning {
     }
   }
 
+  /**
+   * Takes the next numberOfIterationsBeforePotentialUpdate episodes completed by the running selfPlayPipeline.
+   * Self play continues with the current model while the neural net is fitted afterwards.
+   * 
+   * @param selfPlayPipeline the running self play
+   * @param iteration the current iteration
+   * @throws IOException if the new train examples could not be logged
+   */
+  void takePipelinedEpisodes(SelfPlayPipeline selfPlayPipeline, int iteration) throws IOException {
+
+    selfPlayPipeline.setIteration(iteration);
+    
+    try {
+
+      for (int episode = 1; episode <= adversaryLearningConfiguration.getNumberOfIterationsBeforePotentialUpdate(); episode++) {
+        
+        List<AdversaryTrainingExample> newExamples = selfPlayPipeline.takeEpisode();
+        
+        storeNewTrainExamples(newExamples);
+        
+        log.info("Episode {}-{} ended, train examples {}, queued episodes {}",
+            iteration,
+            episode,
+            this.getNumberOfTrainExamples(),
+            selfPlayPipeline.getNumberOfQueuedEpisodes());
+      }
+    
+    } catch (InterruptedException ie) {
+
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for self play episodes", ie);
+    }
+  }
+
+  /**
+   * Runs the episodes of one iteration concurrently with numberOfSelfPlayThreads workers.
+   * Each episode uses its own {@link Game} instance and {@link MonteCarloTreeSearch}.
+   * The new training examples are merged in the calling thread in the order the episodes end.
+   * 
+   * @param iteration the current iteration
+   * @throws IOException if the new train examples could not be logged
+   */
+  void executeParallelEpisodes(int iteration) throws IOException {
+
+    int numberOfEpisodes = adversaryLearningConfiguration.getNumberOfIterationsBeforePotentialUpdate();
+    ExecutorService selfPlayExecutor = Executors.newFixedThreadPool(
+        Math.min(numberOfEpisodes, adversaryLearningConfiguration.getNumberOfSelfPlayThreads()));
+    CompletionService<List<AdversaryTrainingExample>> episodeCompletion =
+        new ExecutorCompletionService<>(selfPlayExecutor);
+    BatchInferenceServer inferenceServer = null;
+    if (adversaryLearningConfiguration.getInferenceMaxBatchSize() > 1) {
+      
+      inferenceServer = new BatchInferenceServer(
+          computationGraph,
+          adversaryLearningConfiguration.getInferenceMaxBatchSize(),
+          adversaryLearningConfiguration.getInferenceMaxWaitMicros()).start();
+    }
+    
+    try {
+
+      for (int episode = 1; episode <= numberOfEpisodes; episode++) {
+        
+        BatchInferenceServer episodeInferenceServer = inferenceServer;
+        episodeCompletion.submit(() -> this.executeEpisode(iteration, episodeInferenceServer));
+      }
+      
+      for (int episode = 1; episode <= numberOfEpisodes; episode++) {
+        
+        List<AdversaryTrainingExample> newExamples = episodeCompletion.take().get();
+
+        storeNewTrainExamples(newExamples);
+        
+        log.info("Episode {}-{} ended, train examples {}", iteration, episode, this.getNumberOfTrainExamples());
+      }
+    
+    } catch (InterruptedException ie) {
+
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for self play episodes", ie);
+    
+    } catch (ExecutionException ee) {
+      
+      throw new IllegalStateException("Self play episode failed", ee.getCause());
+    
+    } finally {
+      
+      selfPlayExecutor.shutdownNow();
+      
+      if (null != inferenceServer) {
+
+        inferenceServer.close();
+        log.info("Inference batches {}, average batch fill ratio {}, average queue latency {} ms",
+            inferenceServer.getNumberOfBatches(),
+            inferenceServer.getAverageBatchFillRatio(),
+            inferenceServer.getAverageQueueLatencyMillis());
+      }
+    }
+  }
+
   public List<AdversaryTrainingExample> executeEpisode(int iteration) {
+    
+    return this.executeEpisode(iteration, null);
+  }
+
+  /**
+   * @param iteration the current iteration
+   * @param inferenceServer a {@link BatchInferenceServer} shared with concurrent episodes or null
+   * @return the new training examples of one self play game
+   */
+  List<AdversaryTrainingExample> executeEpisode(int iteration, BatchInferenceServer inferenceServer) {
+
+    return this.executeEpisode(iteration, this.computationGraph, this.neuralNetOutputCache, inferenceServer);
+  }
+
+  /**
+   * @param iteration the current iteration
+   * @param episodeComputationGraph the neural net to play with
+   * @param episodeOutputCache the output cache of episodeComputationGraph
+   * @param inferenceServer a {@link BatchInferenceServer} shared with concurrent episodes or null
+   * @return the new training examples of one self play game
+   */
+  List<AdversaryTrainingExample> executeEpisode(int iteration, ComputationGraph episodeComputationGraph,
+      NeuralNetOutputCache episodeOutputCache, BatchInferenceServer inferenceServer) {
 
     List<AdversaryTrainingExample> trainExamples = new ArrayList<>();
 
     Game currentGame = this.initialGame.createNewInstance();
     int currentPlayer = Game.MAX_PLAYER;
 
-    this.mcts = new MonteCarloTreeSearch(computationGraph, adversaryLearningConfiguration);
-    int moveNumber = 1;
+    try (MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(
+        episodeComputationGraph, adversaryLearningConfiguration, episodeOutputCache, inferenceServer)) {
+
+      int moveNumber = 1;
+      int[] validMoveIndices = new int[currentGame.getNumberOfAllAvailableMoves()];
 
-    while (!currentGame.gameEnded()) {
+      while (!currentGame.gameEnded()) {
 
-      INDArray validMoves = currentGame.getValidMoves();
-      Set<Integer> validMoveIndices = currentGame.getValidMoveIndices();
+        INDArray validMoves = currentGame.getValidMoves();
+        int numberOfValidMoves = currentGame.fillValidMoveIndices(validMoveIndices);
 
-      INDArray actionProbabilities = this.mcts.getActionValues(currentGame,
-            adversaryLearningConfiguration.getCurrentTemperature(iteration, moveNumber));
-      INDArray validActionProbabilities = actionProbabilities.mul(validMoves);
-      INDArray normalizedActionProbabilities = validActionProbabilities.div(Nd4j.sum(actionProbabilities));
+        INDArray actionProbabilities = mcts.getActionValues(currentGame,
+              adversaryLearningConfiguration.getCurrentTemperature(iteration, moveNumber));
+        INDArray validActionProbabilities = actionProbabilities.mul(validMoves);
+        INDArray normalizedActionProbabilities = validActionProbabilities.div(Nd4j.sum(actionProbabilities));
 
-      List<AdversaryTrainingExample> newTrainingExamples = 
-          createNewTrainingExamplesWithSymmetries(iteration, currentGame.getCurrentBoard(), currentPlayer,
-              normalizedActionProbabilities);
+        List<AdversaryTrainingExample> newTrainingExamples = 
+            createNewTrainingExamplesWithSymmetries(iteration, currentGame.getCurrentBoard(), currentPlayer,
+                normalizedActionProbabilities);
 
-      trainExamples.removeAll(newTrainingExamples);
-      trainExamples.addAll(newTrainingExamples);
+        trainExamples.removeAll(newTrainingExamples);
+        trainExamples.addAll(newTrainingExamples);
       
-      int moveAction = chooseNewMoveAction(validMoveIndices, normalizedActionProbabilities, currentGame);
+        int moveAction = chooseNewMoveAction(validMoveIndices, numberOfValidMoves, normalizedActionProbabilities,
+            currentGame);
 
-      currentGame.makeMove(moveAction, currentPlayer);
-      moveNumber++;
+        currentGame.playMove(moveAction, currentPlayer);
+        moveNumber++;
 
-      updateMonteCarloSearchRoot(currentGame, moveAction);
+        updateMonteCarloSearchRoot(mcts, currentGame, moveAction);
 
-      if (currentGame.gameEnded()) {
-        handleGameEnded(trainExamples, currentGame, currentPlayer);
-      }
+        if (currentGame.gameEnded()) {
+          handleGameEnded(trainExamples, currentGame, currentPlayer);
+        }
 
-      currentPlayer = currentPlayer == Game.MAX_PLAYER ? Game.MIN_PLAYER : Game.MAX_PLAYER;
+        currentPlayer = currentPlayer == Game.MAX_PLAYER ? Game.MIN_PLAYER : Game.MAX_PLAYER;
+      }
     }
 
-
     return trainExamples;
   }
 
@@ -186,35 +433,46 @@ public class AdversaryLearning {
 
       if (!this.adversaryLearningConfiguration.isAlwaysUpdateNeuralNetwork()) {
 
-        this.previousComputationGraph = ModelSerializer.restoreComputationGraph(absoluteBestModelPath, true);
-        this.previousComputationGraph.setLearningRate(this.adversaryLearningConfiguration.getLearningRate());
-        if (null != this.adversaryLearningConfiguration.getLearningRateSchedule()) {
-          this.computationGraph.setLearningRate(this.adversaryLearningConfiguration.getLearningRateSchedule());
-        }
-        log.info("restored temp model from {}", absoluteBestModelPath);
+        this.previousComputationGraph = this.computationGraph.clone();
       }
     }
   }
 
-  public Map<INDArray, AdversaryTrainingExample> loadEarlierTrainingExamples(String trainExamplesFile) throws IOException {
+  /**
+   * Restores the complete train examples history from trainExamplesFile and replays the
+   * {@link TrainExamplesLog} of the episodes after its last save.
+   * 
+   * @param trainExamplesFile the train examples file in the {@link TrainExamplesFile} or an earlier serialized format
+   * @return the restored train examples history
+   * @throws IOException if reading fails
+   */
+  public Map<Long, AdversaryTrainingExample> loadEarlierTrainingExamples(String trainExamplesFile) throws IOException {
+
+    if (restoreTrainingExamples && TrainExamplesFile.isTrainExamplesFile(Paths.get(trainExamplesFile))) {
+      
+      for (AdversaryTrainingExample currentItem : TrainExamplesFile.read(Paths.get(trainExamplesFile))) {
+        
+        this.putTrainExample(currentItem);
+      }
 
-    if (restoreTrainingExamples) {
+      log.info("Restored train examples from {} with {} train examples",
+          trainExamplesFile,
+          this.trainExamplesHistory.size());
     
+    } else if (restoreTrainingExamples && Files.exists(Paths.get(trainExamplesFile))) {
+    
+      // Java serialized train examples of earlier versions
       try (ObjectInputStream trainExamplesInput = new ObjectInputStream(new FileInputStream(trainExamplesFile))) {
   
         Object readObject = trainExamplesInput.readObject();
         if (readObject instanceof List<?>) {
           
-          List<AdversaryTrainingExample> storedExamples = (List<AdversaryTrainingExample>) readObject;
-          
-          for (AdversaryTrainingExample currentItem : storedExamples) {
-            
-            this.trainExamplesHistory.put(currentItem.getBoard(), currentItem);
-          }
+          putInIterationOrder((List<AdversaryTrainingExample>) readObject);
           
         } else if (readObject instanceof Map<?,?>) {
         
-          this.trainExamplesHistory = (Map<INDArray, AdversaryTrainingExample>) readObject;
+          // Earlier versions stored the history with INDArray board keys
+          putInIterationOrder(((Map<?, AdversaryTrainingExample>) readObject).values());
         }
   
         log.info("Restored train examples from {} with {} train examples",
@@ -228,33 +486,128 @@ public class AdversaryLearning {
       }
     }
     
+    if (restoreTrainingExamples) {
+      
+      List<AdversaryTrainingExample> loggedExamples =
+          TrainExamplesLog.forTrainExamplesFile(Paths.get(trainExamplesFile)).replay();
+      replaceOldTrainingExamplesWithNewActionProbabilities(loggedExamples);
+      
+      log.info("Replayed {} logged train examples, train examples {}",
+          loggedExamples.size(),
+          this.trainExamplesHistory.size());
+    }
+    
     return this.trainExamplesHistory;
   }
 
+  /**
+   * Opens the configured {@link MappedReplayBuffer} with maxTrainExamplesHistory capacity.
+   * A new learning run starts with an empty buffer. A restored run continues with the stored buffer,
+   * or imports the restored trainExamplesHistory if the buffer is still empty.
+   * 
+   * @throws IOException if the replay buffer file can not be opened
+   */
+  void openReplayBuffer() throws IOException {
+
+    Path replayBufferPath = Paths.get(adversaryLearningConfiguration.getAbsoluteModelPathFrom(
+        adversaryLearningConfiguration.getReplayBufferFileName()));
+    if (!restoreTrainingExamples) {
+      
+      Files.deleteIfExists(replayBufferPath);
+    }
+    
+    this.replayBuffer = MappedReplayBuffer.open(
+        replayBufferPath,
+        adversaryLearningConfiguration.getMaxTrainExamplesHistory(),
+        initialGame.getInitialBoard().shape(),
+        initialGame.getNumberOfAllAvailableMoves());
+    
+    if (0 == this.replayBuffer.size()) {
+      
+      this.replayBuffer.putAll(new ArrayList<>(this.trainExamplesHistory.values()));
+      this.replayBuffer.force();
+    }
+    this.trainExamplesHistory.clear();
+    
+    log.info("Opened replay buffer {} with {} train examples", replayBufferPath, this.replayBuffer.size());
+  }
+
+  void storeNewTrainExamples(List<AdversaryTrainingExample> newExamples) throws IOException {
+
+    if (null != this.replayBuffer) {
+      
+      this.replayBuffer.putAll(newExamples);
+      this.replayBuffer.force();
+    
+    } else {
+
+      replaceOldTrainingExamplesWithNewActionProbabilities(newExamples);
+      this.trainExamplesLog.append(newExamples);
+    }
+  }
+
+  int getNumberOfTrainExamples() {
+
+    return null != this.replayBuffer ? this.replayBuffer.size() : this.trainExamplesHistory.size();
+  }
+
+  /**
+   * Puts newExamples as the newest entries of trainExamplesHistory. An existing example of the same board
+   * is removed first, its replacement moves to the newest position.
+   * 
+   * @param newExamples the train examples of one episode
+   */
   void replaceOldTrainingExamplesWithNewActionProbabilities(List<AdversaryTrainingExample> newExamples) {
 
     for (AdversaryTrainingExample currentExample : newExamples) {
       
-      this.trainExamplesHistory.put(currentExample.getBoard(), currentExample);
+      this.putTrainExample(currentExample);
+    }
+    
+    this.resizeTrainExamplesHistory();
+  }
+
+  /**
+   * Puts example as newest entry of trainExamplesHistory, replacing a stored example of the same board.
+   * A stored example of a different board with the same board hash is kept, example is not added then.
+   * 
+   * @param example the train example to put
+   */
+  void putTrainExample(AdversaryTrainingExample example) {
+
+    long boardHash = example.getBoardHash();
+    AdversaryTrainingExample storedExample = this.trainExamplesHistory.get(boardHash);
+    if (null != storedExample && !storedExample.equals(example)) {
+
+      log.warn("Board hash {} collides with a different stored board, new train example skipped", boardHash);
+      return;
     }
+    
+    this.trainExamplesHistory.remove(boardHash);
+    this.trainExamplesHistory.put(boardHash, example);
+  }
+
+  /**
+   * Serialized histories of earlier versions have no defined order, sort them once by iteration.
+   */
+  void putInIterationOrder(Collection<AdversaryTrainingExample> storedExamples) {
+
+    List<AdversaryTrainingExample> sortedExamples = new ArrayList<>(storedExamples);
+    sortedExamples.sort(Comparator.comparingInt(AdversaryTrainingExample::getIteration));
+    
+    replaceOldTrainingExamplesWithNewActionProbabilities(sortedExamples);
   }
 
   boolean updateNeuralNet() throws IOException {
 
-    List<AdversaryTrainingExample> trainExamples = new ArrayList<>(this.trainExamplesHistory.values());
-    Collections.shuffle(trainExamples);
+    TrainExamplesIterator trainExamplesIterator = createTrainExamplesIterator();
     
     boolean updateAfterBetterPlayout = false;
     if (!adversaryLearningConfiguration.isAlwaysUpdateNeuralNetwork()) {
 
-      String absoluteTempModelPath = adversaryLearningConfiguration.getAbsoluteModelPathFrom(TEMPMODEL_NAME);
-      ModelSerializer.writeModel(computationGraph, absoluteTempModelPath, true);
-      
-      log.info("Write temp model {}", absoluteTempModelPath);
-      
-      this.previousComputationGraph = ModelSerializer.restoreComputationGraph(absoluteTempModelPath, true);
+      this.previousComputationGraph = copyComputationGraph(this.computationGraph, this.previousComputationGraph);
 
-      this.computationGraph = this.fitNeuralNet(this.computationGraph, trainExamples);
+      this.computationGraph = this.fitNeuralNet(this.computationGraph, trainExamplesIterator);
 
       log.info("Challenge new model version with previous model in {} games", adversaryLearningConfiguration.getNumberOfGamesToDecideUpdate());
       
@@ -268,29 +621,77 @@ public class AdversaryLearning {
 
       double newModelWinDrawRatio = (gameResults[1] + DRAW_WEIGHT * gameResults[2])
           / (gameResults[0] + gameResults[1] + DRAW_WEIGHT * gameResults[2]);
-      updateAfterBetterPlayout = newModelWinDrawRatio > adversaryLearningConfiguration
-              .getGamesWinRatioThresholdNewNetworkUpdate();
+      WinRatioSprt.Decision sprtDecision = adversaryAgentDriver.getSprtDecision();
+      if (WinRatioSprt.Decision.CONTINUE != sprtDecision) {
+        
+        updateAfterBetterPlayout = WinRatioSprt.Decision.ACCEPT == sprtDecision;
+      
+      } else {
+        
+        updateAfterBetterPlayout = newModelWinDrawRatio > adversaryLearningConfiguration
+            .getGamesWinRatioThresholdNewNetworkUpdate();
+      }
 
-      log.info("New model win/draw ratio against previous model is {} vs configured threshold {}",
+      log.info("New model win/draw ratio against previous model is {} vs configured threshold {}, SPRT decision {}",
           newModelWinDrawRatio,
-          adversaryLearningConfiguration.getGamesWinRatioThresholdNewNetworkUpdate());
+          adversaryLearningConfiguration.getGamesWinRatioThresholdNewNetworkUpdate(),
+          sprtDecision);
       
       if (!updateAfterBetterPlayout) {
 
         log.info("Rejecting new model");
-        this.computationGraph = ModelSerializer.restoreComputationGraph(absoluteTempModelPath, true);
+        // The rejected model becomes the snapshot buffer of the next iteration
+        ComputationGraph rejectedComputationGraph = this.computationGraph;
+        this.computationGraph = this.previousComputationGraph;
+        this.previousComputationGraph = rejectedComputationGraph;
+        this.neuralNetOutputCache.invalidate();
         
-        log.info("Restored best model from {}", absoluteTempModelPath);
+        log.info("Restored best model from in memory snapshot");
       }
 
     } else {
 
-      this.computationGraph = this.fitNeuralNet(this.computationGraph, trainExamples);
+      this.computationGraph = this.fitNeuralNet(this.computationGraph, trainExamplesIterator);
     }
 
     return updateAfterBetterPlayout;
   }
 
+  /**
+   * Copies the parameters, updater state and iteration and epoch counts of source into the preallocated target.
+   * 
+   * @param source the neural net to copy
+   * @param target a neural net with the same configuration as source, or null to clone source
+   * @return target containing the state of source
+   */
+  static ComputationGraph copyComputationGraph(ComputationGraph source, ComputationGraph target) {
+
+    if (null == target) {
+      
+      return source.clone();
+    }
+    
+    target.setParams(source.params());
+    
+    INDArray sourceUpdaterState = source.getUpdater().getStateViewArray();
+    if (null != sourceUpdaterState) {
+      
+      target.getUpdater().getStateViewArray().assign(sourceUpdaterState);
+    }
+    
+    target.getConfiguration().setIterationCount(source.getConfiguration().getIterationCount());
+    target.getConfiguration().setEpochCount(source.getConfiguration().getEpochCount());
+    
+    return target;
+  }
+
+  /**
+   * Snapshots the model and train examples history of each checkPointIterationsFrequency iteration
+   * and lets the {@link CheckpointWriter} write them in the background.
+   * 
+   * @param iteration the current iteration
+   * @throws IOException if an earlier checkpoint write failed
+   */
   void createCheckpoint(int iteration) throws IOException {
 
     StringBuilder prependedZeros = prependZeros(iteration);
@@ -298,8 +699,13 @@ public class AdversaryLearning {
     if (0 == iteration % adversaryLearningConfiguration.getCheckPointIterationsFrequency()) {
 
       String bestModelPath = adversaryLearningConfiguration.getAbsoluteModelPathFrom(adversaryLearningConfiguration.getBestModelFileName());
-      ModelSerializer.writeModel(computationGraph, bestModelPath.substring(0, bestModelPath.length() - ".bin".length()) + prependedZeros + iteration + ".bin", true);
-      saveTrainExamplesHistory(iteration);
+      Path checkpointModelPath = Paths.get(
+          bestModelPath.substring(0, bestModelPath.length() - ".bin".length()) + prependedZeros + iteration + ".bin");
+      this.checkpointWriter.writeModel(computationGraph, checkpointModelPath);
+      
+      Path checkpointTrainExamplesPath = saveTrainExamplesHistory(iteration);
+      
+      this.checkpointWriter.completeCheckpoint(iteration, Arrays.asList(checkpointModelPath, checkpointTrainExamplesPath));
     }
   }
 
@@ -329,20 +735,28 @@ public class AdversaryLearning {
     return newTrainingExamples;
   }
 
-  int chooseNewMoveAction(Set<Integer> validMoveIndices, INDArray normalizedActionProbabilities, Game currentGame) {
+  /**
+   * @param validMoveIndices ascending valid move indices as filled by {@link Game} fillValidMoveIndices
+   * @param numberOfValidMoves the number of used entries in validMoveIndices
+   * @param normalizedActionProbabilities the search probabilities of all moves
+   * @param currentGame the current game state
+   * @return the sampled move index including Dirichlet noise
+   */
+  int chooseNewMoveAction(int[] validMoveIndices, int numberOfValidMoves, INDArray normalizedActionProbabilities,
+      Game currentGame) {
 
     int moveAction;
-    if (!hasMoreThanOneMove(validMoveIndices)) {
+    if (!hasMoreThanOneMove(numberOfValidMoves)) {
 
-      moveAction = validMoveIndices.iterator().next();
+      moveAction = validMoveIndices[0];
 
     } else {
 
       double alpha = adversaryLearningConfiguration.getDirichletAlpha();
-      Dirichlet dirichlet = new Dirichlet(validMoveIndices.size(), alpha);
+      Dirichlet dirichlet = new Dirichlet(numberOfValidMoves, alpha);
 
       INDArray nextDistribution = Nd4j.createFromArray(dirichlet.nextDistribution());
-      int[] validIndices = currentGame.getValidIndices(validMoveIndices);
+      int[] validIndices = Arrays.copyOf(validMoveIndices, numberOfValidMoves);
       
       INDArray reducedValidActionProbabilities = normalizedActionProbabilities.get(Nd4j.createFromArray(validIndices));
       INDArray noiseActionDistribution = reducedValidActionProbabilities
@@ -356,10 +770,10 @@ public class AdversaryLearning {
 
       moveAction = distribution.sample();
 
-      while (!validMoveIndices.contains(moveAction)) {
+      while (0 > Arrays.binarySearch(validIndices, moveAction)) {
         // Should not occur with correctly reducedValidActionProbabilities above
         log.warn("Resample invalid random choice move: {} \nvalidIndices = {}\nreducedActionProbs = {}\ngame = \n{}", moveAction,
-            validIndices, reducedValidActionProbabilities, currentGame);
+            Arrays.toString(validIndices), reducedValidActionProbabilities, currentGame);
         moveAction = distribution.sample();
       }
     }
@@ -391,66 +805,111 @@ public class AdversaryLearning {
     }
   }
 
-  void updateMonteCarloSearchRoot(Game game, int moveAction) {
-
-    try {
-      this.mcts.updateWithMove(moveAction);
+  void updateMonteCarloSearchRoot(MonteCarloTreeSearch mcts, Game game, int moveAction) {
 
-    } catch (IllegalArgumentException iae) {
+    if (null == mcts.updateWithMove(moveAction) && !game.gameEnded()) {
 
-      log.info("{}", game);
-      throw new IllegalArgumentException(iae);
+      log.debug("No subtree to reuse after move {} in {}", moveAction, game);
     }
   }
 
+  /**
+   * Lets the {@link CheckpointWriter} write a snapshot of the complete train examples history in the background.
+   * The log of the episodes so far is sealed and deleted once the written history is durable.
+   * 
+   * @throws IOException if sealing the log or an earlier background write failed
+   */
   void saveTrainExamplesHistory() throws IOException {
 
+    if (null != this.replayBuffer) {
+      
+      this.replayBuffer.force();
+      return;
+    }
+
     this.resizeTrainExamplesHistory();
 
     String trainExamplesPath = adversaryLearningConfiguration.getAbsoluteModelPathFrom(
         adversaryLearningConfiguration.getTrainExamplesFileName());
     
-    try (ObjectOutputStream trainExamplesOutput = new ObjectOutputStream(
-        new FileOutputStream(trainExamplesPath))) {
+    int sealNumber = this.trainExamplesLog.seal();
+    this.checkpointWriter.writeTrainExamples(this.trainExamplesHistory.values(), Paths.get(trainExamplesPath),
+        () -> this.trainExamplesLog.deleteSealed(sealNumber));
+  }
 
-      trainExamplesOutput.writeObject(trainExamplesHistory);
+  /**
+   * Copies the replay buffer file right away through the {@link CheckpointWriter}, as it changes with the next episodes.
+   * An in memory train examples history is written by the {@link CheckpointWriter} in the background.
+   * 
+   * @param iteration the current iteration
+   * @return the path of the train examples checkpoint
+   * @throws IOException if copying the replay buffer or an earlier checkpoint write failed
+   */
+  Path saveTrainExamplesHistory(int iteration) throws IOException {
 
-    }
-  }
+    StringBuilder prependedZeros = prependZeros(iteration);
 
-  void saveTrainExamplesHistory(int iteration) throws IOException {
+    if (null != this.replayBuffer) {
+      
+      this.replayBuffer.force();
+      Path replayBufferCheckpointPath = Paths.get(this.replayBuffer.getPath() + "." + prependedZeros + iteration);
+      this.checkpointWriter.copyFile(this.replayBuffer.getPath(), replayBufferCheckpointPath);
+      return replayBufferCheckpointPath;
+    }
 
     this.resizeTrainExamplesHistory();
 
-    StringBuilder prependedZeros = prependZeros(iteration);
     String trainExamplesPath = adversaryLearningConfiguration.getAbsoluteModelPathFrom(
         adversaryLearningConfiguration.getTrainExamplesFileName());
+    Path checkpointTrainExamplesPath = Paths.get(
+        trainExamplesPath.substring(0, trainExamplesPath.length() - ".obj".length())  + prependedZeros + iteration + ".obj");
+    
+    this.checkpointWriter.writeTrainExamples(this.trainExamplesHistory.values(), checkpointTrainExamplesPath);
     
-    try (ObjectOutputStream trainExamplesOutput = new ObjectOutputStream(
-        new FileOutputStream(trainExamplesPath.substring(0, trainExamplesPath.length() - ".obj".length())  + prependedZeros + iteration + ".obj"))) {
+    return checkpointTrainExamplesPath;
+  }
 
-      trainExamplesOutput.writeObject(trainExamplesHistory);
+  /**
+   * Evicts the eldest train examples until at most maxTrainExamplesHistory remain.
+   * New examples are always inserted last, so the eldest entries have the lowest iterations.
+   */
+  void resizeTrainExamplesHistory() {
 
+    Iterator<AdversaryTrainingExample> eldestFirst = this.trainExamplesHistory.values().iterator();
+    
+    while (this.adversaryLearningConfiguration.getMaxTrainExamplesHistory() < this.trainExamplesHistory.size()) {
+      
+      eldestFirst.next();
+      eldestFirst.remove();
     }
   }
+  
+  /**
+   * @return the file name patterns of model, train examples and replay buffer checkpoints,
+   *  matching the names createCheckpoint writes
+   */
+  List<Pattern> getCheckpointFileNamePatterns() {
 
-  void resizeTrainExamplesHistory() {
+    List<Pattern> checkpointFileNamePatterns = new ArrayList<>();
 
-    if (this.adversaryLearningConfiguration.getMaxTrainExamplesHistory() >=
-        this.trainExamplesHistory.size()) {
-      
-      return;
+    String bestModelFileName = Paths.get(adversaryLearningConfiguration.getAbsoluteModelPathFrom(
+        adversaryLearningConfiguration.getBestModelFileName())).getFileName().toString();
+    checkpointFileNamePatterns.add(CheckpointWriter.checkpointFileNamePattern(
+        bestModelFileName.substring(0, bestModelFileName.length() - ".bin".length()), ".bin"));
+
+    String trainExamplesFileName = Paths.get(adversaryLearningConfiguration.getAbsoluteModelPathFrom(
+        adversaryLearningConfiguration.getTrainExamplesFileName())).getFileName().toString();
+    checkpointFileNamePatterns.add(CheckpointWriter.checkpointFileNamePattern(
+        trainExamplesFileName.substring(0, trainExamplesFileName.length() - ".obj".length()), ".obj"));
+
+    if (null != adversaryLearningConfiguration.getReplayBufferFileName()) {
+
+      String replayBufferFileName = Paths.get(adversaryLearningConfiguration.getAbsoluteModelPathFrom(
+          adversaryLearningConfiguration.getReplayBufferFileName())).getFileName().toString();
+      checkpointFileNamePatterns.add(CheckpointWriter.checkpointFileNamePattern(replayBufferFileName + ".", ""));
     }
 
-    Comparator<AdversaryTrainingExample> byIterationDescending = 
-      (AdversaryTrainingExample firstExample, AdversaryTrainingExample secondExample) -> 
-      secondExample.getIteration() - firstExample.getIteration();
-    this.trainExamplesHistory =
-        this.trainExamplesHistory.entrySet().stream().
-        sorted(Entry.comparingByValue(byIterationDescending)).
-        limit(this.adversaryLearningConfiguration.getMaxTrainExamplesHistory()).
-        collect(Collectors.toMap(
-           Entry::getKey, Entry::getValue, (e1, e2) -> e1, HashMap::new));
+    return checkpointFileNamePatterns;
   }
   
   StringBuilder prependZeros(int iteration) {
@@ -464,116 +923,69 @@ public class AdversaryLearning {
     return prependedZeros;
   }
   
-  boolean hasMoreThanOneMove(Set<Integer> emptyFields) {
+  boolean hasMoreThanOneMove(int numberOfValidMoves) {
 
-    return 1 < emptyFields.size();
+    return 1 < numberOfValidMoves;
   }
 
-  ComputationGraph fitNeuralNet(ComputationGraph computationGraph, List<AdversaryTrainingExample> trainingExamples) {
+  /**
+   * @return an iterator over all train examples in random order, from the replay buffer if configured
+   */
+  TrainExamplesIterator createTrainExamplesIterator() {
 
-    int batchSize = adversaryLearningConfiguration.getBatchSize();
-    int trainingExamplesSize = trainingExamples.size();
-    int batchNumber = 1 + trainingExamplesSize / batchSize;
-    
-    List<MultiDataSet> batchedMultiDataSet = createMiniBatchList(trainingExamples);
+    TrainExamplesIterator.Source trainExamplesSource = this.replayBuffer;
+    if (null == trainExamplesSource) {
+      
+      trainExamplesSource = TrainExamplesIterator.of(
+          new ArrayList<>(this.trainExamplesHistory.values()),
+          initialGame.getInitialBoard().shape(),
+          initialGame.getNumberOfAllAvailableMoves());
+    }
 
-    for (int batchIteration = 0; batchIteration < batchNumber; batchIteration++) {
+    return new TrainExamplesIterator(trainExamplesSource, adversaryLearningConfiguration.getBatchSize(), new Random());
+  }
 
-      computationGraph.fit(batchedMultiDataSet.get(batchIteration));
+  /**
+   * Fits computationGraph with numberOfTrainingEpochs passes over the train examples. The next mini batch
+   * is assembled on a prefetch thread while the current one is fitted.
+   * 
+   * @param computationGraph the neural net to fit
+   * @param trainExamplesIterator the train examples
+   * @return the fitted computationGraph
+   */
+  ComputationGraph fitNeuralNet(ComputationGraph computationGraph, TrainExamplesIterator trainExamplesIterator) {
+
+    if (0 < trainExamplesIterator.getNumberOfExamples()) {
+
+      AsyncMultiDataSetIterator prefetchIterator =
+          new AsyncMultiDataSetIterator(trainExamplesIterator, PREFETCH_MINI_BATCHES);
+      try {
+        
+        computationGraph.fit(prefetchIterator, adversaryLearningConfiguration.getNumberOfTrainingEpochs());
       
-      if (0 == batchIteration && batchNumber > batchIteration + 1) {
-
-        log.info("Batch size for {} batches from computation graph model {}", 
-            batchNumber - 1,
-            computationGraph.batchSize());
+      } finally {
         
-      } else if (batchNumber == batchIteration + 1) {
-
-        log.info("{}. batch size from computation graph model {}",
-            batchIteration + 1,
-            computationGraph.batchSize());
+        prefetchIterator.shutdown();
       }
     }
 
+    log.info("Fitted {} epochs of {} batches with {} train examples, last batch size {}",
+        adversaryLearningConfiguration.getNumberOfTrainingEpochs(),
+        trainExamplesIterator.getNumberOfBatches(),
+        trainExamplesIterator.getNumberOfExamples(),
+        computationGraph.batchSize());
+
     log.info("Learning rate from computation graph model layer 'OutputLayer': {}",
         NetworkUtils.getLearningRate(computationGraph, "OutputLayer"));
     
+    log.info("Neural net output cache hits {} / misses {}, hit ratio {}",
+        this.neuralNetOutputCache.getHits(),
+        this.neuralNetOutputCache.getMisses(),
+        this.neuralNetOutputCache.getHitRatio());
+
     // The outputs from the fitted network will have new action probabilities
-    this.mcts.resetStoredOutputs();
+    this.neuralNetOutputCache.invalidate();
 
     return computationGraph;
   }
-
-  List<MultiDataSet> createMiniBatchList(List<AdversaryTrainingExample> trainingExamples) {
- 
-    int batchSize = adversaryLearningConfiguration.getBatchSize();
-    int trainingExamplesSize = trainingExamples.size();
-    int batchNumber = 1 + trainingExamplesSize / batchSize;
-    if (0 == trainingExamplesSize % batchSize) {
-      batchNumber--;
-    }
- 
-    long[] gameInputBoardStackShape = initialGame.getInitialBoard().shape();
-    
-    List<MultiDataSet> batchedMultiDataSet = new LinkedList<>();
-
-    for (int currentBatch = 0; currentBatch < batchNumber; currentBatch++) {
-
-      INDArray inputBoards = Nd4j.zeros(batchSize, gameInputBoardStackShape[0], gameInputBoardStackShape[1],
-          gameInputBoardStackShape[2]);
-      INDArray probabilitiesLabels = Nd4j.zeros(batchSize, initialGame.getNumberOfAllAvailableMoves());
-      INDArray valueLabels = Nd4j.zeros(batchSize, 1);
-      
-      if (currentBatch >= batchNumber - 1) {
-
-        int lastBatchSize = trainingExamplesSize % batchSize;
-        inputBoards = Nd4j.zeros(lastBatchSize, gameInputBoardStackShape[0], gameInputBoardStackShape[1],
-        gameInputBoardStackShape[2]);
-        probabilitiesLabels = Nd4j.zeros(lastBatchSize, initialGame.getNumberOfAllAvailableMoves());
-        valueLabels = Nd4j.zeros(lastBatchSize, 1);
-      }
-
-      for (int batchExample = 0, exampleNumber = currentBatch * batchSize;
-          exampleNumber < (currentBatch + 1) * batchSize && exampleNumber < trainingExamplesSize;
-          exampleNumber++, batchExample++) {
-        
-        AdversaryTrainingExample currentTrainingExample = trainingExamples.get(exampleNumber);
-        inputBoards.putRow(batchExample, currentTrainingExample.getBoard());
-  
-        INDArray actionIndexProbabilities = Nd4j.zeros(initialGame.getNumberOfAllAvailableMoves());
-        INDArray trainingExampleActionProbabilities = currentTrainingExample.getActionIndexProbabilities();
-
-        // TODO review simplification by always having getNumberOfAllAvailableMoves
-        if (actionIndexProbabilities.shape()[0] > trainingExampleActionProbabilities.shape()[0]) {
-  
-          // Leave remaining moves at the end with 0, only pass at numberOfSquares in Go
-          for (int i = 0; i < trainingExampleActionProbabilities.shape()[0]; i++) {
-            actionIndexProbabilities.putScalar(i, trainingExampleActionProbabilities.getDouble(i));
-          }
-  
-        } else if (actionIndexProbabilities.shape()[0] < currentTrainingExample.getActionIndexProbabilities()
-            .shape()[0]) {
-  
-          throw new IllegalArgumentException(
-              "Training example has more action than maximally specified by game.getNumberOfAllAvailableMoves()\n"
-                  + "Max specified shape is " + actionIndexProbabilities.shape()[0] + " versus training example "
-                  + currentTrainingExample.getActionIndexProbabilities());
-  
-        } else {
-  
-          // Shapes do match
-          actionIndexProbabilities = trainingExampleActionProbabilities;
-        }
-  
-        probabilitiesLabels.putRow(batchExample, actionIndexProbabilities);
-  
-        valueLabels.putRow(batchExample, Nd4j.zeros(1).putScalar(0, currentTrainingExample.getCurrentPlayerValue()));
-      }
-      
-      batchedMultiDataSet.add( new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[] { inputBoards },
-      new INDArray[] { probabilitiesLabels, valueLabels }));
-    }
-
-    return batchedMultiDataSet;
-  }
 }
@@ -80,6 +80,25 @@ public class AdversaryLearningConfiguration {
    */
   private double gamesWinRatioThresholdNewNetworkUpdate;
 
+  /**
+   * Number of {@link AdversaryAgentDriver} games running concurrently to decide a neural net update.
+   * Values > 1 evaluate the boards of both neural nets with one {@link BatchInferenceServer} each
+   * if inferenceMaxBatchSize > 1. Only relevant with alwaysUpdateNeuralNetwork = false.
+   */
+  private int numberOfArenaThreads;
+
+  /**
+   * Distance of the {@link WinRatioSprt} hypotheses from gamesWinRatioThresholdNewNetworkUpdate.
+   * Values > 0 stop the games deciding an update as soon as the sequential test accepts or rejects
+   * the new neural net, numberOfGamesToDecideUpdate stays the maximum. A value of 0 always plays all games.
+   */
+  private double arenaSprtMargin;
+
+  /**
+   * Probability of a wrong early {@link WinRatioSprt} decision, for accepting and rejecting alike.
+   */
+  private double arenaSprtErrorRate;
+
   /**
    * numberOfIterationsBeforePotentialUpdate stands for numberOfEpisodes.
    * An Alpha Zero episode is one game from start to end. Each episode generates potentially new
@@ -90,7 +109,7 @@ public class AdversaryLearningConfiguration {
 
   /**
    * Mainly used to continue training after program termination.
-   * Only iterationStart > 1 causes a restore of saved tempmodel.bin, bestmodel.bin and trainexamples.obj.
+   * Only iterationStart > 1 causes a restore of saved bestmodel.bin and trainexamples.obj.
    * If you decide to run additional 1000 iterations after 4000 performed iterations with
    * saved latest values after program termination,
    * you can use iterationStart = 4001 and numberOfIterations = 1000.
@@ -108,6 +127,12 @@ public class AdversaryLearningConfiguration {
    */
   private int checkPointIterationsFrequency;
 
+  /**
+   * Number of newest checkpoints a {@link CheckpointWriter} keeps, older checkpoint files get deleted.
+   * A value of 0 keeps all checkpoints.
+   */
+  private int numberOfCheckpointsToKeep;
+
   /**
    * When the temperature used in {@link MonteCarloTreeSearch} getActionValues() should become 0.
    * Currently only 1 or 0 are used. Too small values > 0 can cause overflows.
@@ -144,6 +169,72 @@ public class AdversaryLearningConfiguration {
    */
   private int numberOfMonteCarloSimulations;
 
+  /**
+   * Number of leaves {@link MonteCarloTreeSearch} collects with virtual loss before evaluating
+   * them together in one {@link ComputationGraph} output call.
+   * A value of 1 evaluates every single playout separately. Larger values trade some search
+   * quality for more simulations per second.
+   */
+  private int monteCarloLeafBatchSize;
+
+  /**
+   * Maximum number of neural net outputs {@link MonteCarloTreeSearch} keeps by board hash
+   * to avoid evaluating repeated positions again. The cache gets invalidated after each
+   * neural net update. A value of 0 disables the cache.
+   */
+  private int neuralNetOutputCacheSize;
+
+  /**
+   * Number of self play episodes running concurrently, each with its own {@link Game} instance
+   * and {@link MonteCarloTreeSearch}. A value of 1 runs the episodes one after another.
+   */
+  private int numberOfSelfPlayThreads;
+
+  /**
+   * Maximum number of boards a {@link BatchInferenceServer} evaluates together in one
+   * {@link ComputationGraph} output call. The server is used by parallel self play
+   * with numberOfSelfPlayThreads > 1. A value of 1 lets each search call output itself.
+   */
+  private int inferenceMaxBatchSize;
+
+  /**
+   * Maximum time in microseconds a {@link BatchInferenceServer} waits for further requests
+   * before evaluating a batch that is not full.
+   */
+  private long inferenceMaxWaitMicros;
+
+  /**
+   * True lets {@link MonteCarloTreeSearch} store its tree in the primitive arrays
+   * of an {@link ArenaTree} instead of {@link TreeNode} objects. The arena tree does not support
+   * monteCarloLeafBatchSize > 1 and numberOfSearchThreads > 1, every playout is evaluated separately
+   * on the searching thread. Its tree is also not reused for the next move, each search starts a new one.
+   */
+  private boolean useArenaTree;
+
+  /**
+   * Number of threads searching one shared {@link MonteCarloTreeSearch} tree concurrently.
+   * Values > 1 enable the tree parallel search mode for low latency move selection.
+   */
+  private int numberOfSearchThreads;
+
+  /**
+   * Wall clock limit of one {@link MonteCarloTreeSearch} in milliseconds, 0 means no limit.
+   * The search ends when either this limit or numberOfMonteCarloSimulations is reached.
+   */
+  private long searchTimeLimitMillis;
+
+  /**
+   * True keeps numberOfSelfPlayThreads {@link SelfPlayPipeline} workers playing episodes with the latest
+   * accepted model while the neural net is fitted. Batched inference is not used by the pipeline workers.
+   */
+  private boolean pipelinedSelfPlay;
+
+  /**
+   * Number of passes over the train examples history per neural net update.
+   * Each epoch uses a new random order of the train examples.
+   */
+  private int numberOfTrainingEpochs;
+
   /**
    * The file name and extension without path to use for the current best model.
    */
@@ -155,6 +246,12 @@ public class AdversaryLearningConfiguration {
    */
   private String trainExamplesFileName;
 
+  /**
+   * Optional file name and extension without path of a {@link MappedReplayBuffer} keeping the
+   * train examples history off heap with maxTrainExamplesHistory capacity. Null keeps the history in memory.
+   */
+  private String replayBufferFileName;
+
   /**
    * Default initial values for TicTacToe example implementation.
    * 
@@ -171,19 +268,34 @@ public class AdversaryLearningConfiguration {
     private boolean alwaysUpdateNeuralNetwork = true;
     private int numberOfGamesToDecideUpdate = 36;
     private double gamesWinRatioThresholdNewNetworkUpdate = 0.55;
+    private int numberOfArenaThreads = 1;
+    private double arenaSprtMargin = 0;
+    private double arenaSprtErrorRate = 0.05;
     private int numberOfIterationsBeforePotentialUpdate = 10;
     private int iterationStart = 1;
     private int numberOfIterations = 250;
     private int checkPointIterationsFrequency = 50;
+    private int numberOfCheckpointsToKeep = 0;
     private int fromNumberOfIterationsTemperatureZero = -1;
     private int fromNumberOfMovesTemperatureZero = 3;
     private int maxTrainExamplesHistory = 5000;
 
     private String bestModelFileName = "bestmodel.bin";
     private String trainExamplesFileName = "trainExamples.obj";
+    private String replayBufferFileName = null;
 
     private double uctConstantFactor = 0.8;
     private int numberOfMonteCarloSimulations = 30;
+    private int monteCarloLeafBatchSize = 1;
+    private int neuralNetOutputCacheSize = 10000;
+    private int numberOfSelfPlayThreads = 1;
+    private int inferenceMaxBatchSize = 16;
+    private long inferenceMaxWaitMicros = 200;
+    private boolean useArenaTree = false;
+    private int numberOfSearchThreads = 1;
+    private long searchTimeLimitMillis = 0;
+    private boolean pipelinedSelfPlay = false;
+    private int numberOfTrainingEpochs = 1;
     
     public AdversaryLearningConfiguration build() {
       
@@ -197,17 +309,32 @@ public class AdversaryLearningConfiguration {
       configuration.alwaysUpdateNeuralNetwork = alwaysUpdateNeuralNetwork;
       configuration.numberOfGamesToDecideUpdate = numberOfGamesToDecideUpdate;
       configuration.gamesWinRatioThresholdNewNetworkUpdate = gamesWinRatioThresholdNewNetworkUpdate;
+      configuration.numberOfArenaThreads = numberOfArenaThreads;
+      configuration.arenaSprtMargin = arenaSprtMargin;
+      configuration.arenaSprtErrorRate = arenaSprtErrorRate;
       configuration.numberOfIterationsBeforePotentialUpdate = numberOfIterationsBeforePotentialUpdate;
       configuration.iterationStart = iterationStart;
       configuration.numberOfIterations = numberOfIterations;
       configuration.checkPointIterationsFrequency = checkPointIterationsFrequency;
+      configuration.numberOfCheckpointsToKeep = numberOfCheckpointsToKeep;
       configuration.fromNumberOfIterationsTemperatureZero = fromNumberOfIterationsTemperatureZero;
       configuration.fromNumberOfMovesTemperatureZero = fromNumberOfMovesTemperatureZero;
       configuration.maxTrainExamplesHistory = maxTrainExamplesHistory;
       configuration.uctConstantFactor = uctConstantFactor;
       configuration.numberOfMonteCarloSimulations = numberOfMonteCarloSimulations;
+      configuration.monteCarloLeafBatchSize = monteCarloLeafBatchSize;
+      configuration.neuralNetOutputCacheSize = neuralNetOutputCacheSize;
+      configuration.numberOfSelfPlayThreads = numberOfSelfPlayThreads;
+      configuration.inferenceMaxBatchSize = inferenceMaxBatchSize;
+      configuration.inferenceMaxWaitMicros = inferenceMaxWaitMicros;
+      configuration.useArenaTree = useArenaTree;
+      configuration.numberOfSearchThreads = numberOfSearchThreads;
+      configuration.searchTimeLimitMillis = searchTimeLimitMillis;
+      configuration.pipelinedSelfPlay = pipelinedSelfPlay;
+      configuration.numberOfTrainingEpochs = numberOfTrainingEpochs;
       configuration.bestModelFileName = bestModelFileName;
       configuration.trainExamplesFileName = trainExamplesFileName;
+      configuration.replayBufferFileName = replayBufferFileName;
       
       return configuration;
     }
@@ -262,6 +389,21 @@ public class AdversaryLearningConfiguration {
       return this;
     }
 
+    public Builder numberOfArenaThreads(int numberOfArenaThreads) {
+      this.numberOfArenaThreads = numberOfArenaThreads;
+      return this;
+    }
+
+    public Builder arenaSprtMargin(double arenaSprtMargin) {
+      this.arenaSprtMargin = arenaSprtMargin;
+      return this;
+    }
+
+    public Builder arenaSprtErrorRate(double arenaSprtErrorRate) {
+      this.arenaSprtErrorRate = arenaSprtErrorRate;
+      return this;
+    }
+
     public Builder numberOfIterationsBeforePotentialUpdate(int numberOfEpisodesBeforePotentialUpdate) {
       this.numberOfIterationsBeforePotentialUpdate = numberOfEpisodesBeforePotentialUpdate;
       return this;
@@ -283,6 +425,11 @@ public class AdversaryLearningConfiguration {
       return this;
     }
     
+    public Builder numberOfCheckpointsToKeep(int numberOfCheckpointsToKeep) {
+      this.numberOfCheckpointsToKeep = numberOfCheckpointsToKeep;
+      return this;
+    }
+    
     public Builder maxTrainExamplesHistory(int maxTrainExamplesHistory) {
       this.maxTrainExamplesHistory = maxTrainExamplesHistory;
       return this;
@@ -298,6 +445,56 @@ public class AdversaryLearningConfiguration {
       return this;
     }
     
+    public Builder monteCarloLeafBatchSize(int monteCarloLeafBatchSize) {
+      this.monteCarloLeafBatchSize = monteCarloLeafBatchSize;
+      return this;
+    }
+    
+    public Builder neuralNetOutputCacheSize(int neuralNetOutputCacheSize) {
+      this.neuralNetOutputCacheSize = neuralNetOutputCacheSize;
+      return this;
+    }
+    
+    public Builder numberOfSelfPlayThreads(int numberOfSelfPlayThreads) {
+      this.numberOfSelfPlayThreads = numberOfSelfPlayThreads;
+      return this;
+    }
+    
+    public Builder inferenceMaxBatchSize(int inferenceMaxBatchSize) {
+      this.inferenceMaxBatchSize = inferenceMaxBatchSize;
+      return this;
+    }
+
+    public Builder inferenceMaxWaitMicros(long inferenceMaxWaitMicros) {
+      this.inferenceMaxWaitMicros = inferenceMaxWaitMicros;
+      return this;
+    }
+    
+    public Builder useArenaTree(boolean useArenaTree) {
+      this.useArenaTree = useArenaTree;
+      return this;
+    }
+    
+    public Builder numberOfSearchThreads(int numberOfSearchThreads) {
+      this.numberOfSearchThreads = numberOfSearchThreads;
+      return this;
+    }
+    
+    public Builder searchTimeLimitMillis(long searchTimeLimitMillis) {
+      this.searchTimeLimitMillis = searchTimeLimitMillis;
+      return this;
+    }
+    
+    public Builder pipelinedSelfPlay(boolean pipelinedSelfPlay) {
+      this.pipelinedSelfPlay = pipelinedSelfPlay;
+      return this;
+    }
+    
+    public Builder numberOfTrainingEpochs(int numberOfTrainingEpochs) {
+      this.numberOfTrainingEpochs = numberOfTrainingEpochs;
+      return this;
+    }
+    
     public Builder bestModelFileName(String bestModelFileName) {
       this.bestModelFileName = bestModelFileName;
       return this;
@@ -307,6 +504,11 @@ public class AdversaryLearningConfiguration {
       this.trainExamplesFileName = trainExamplesFileName;
       return this;
     }
+    
+    public Builder replayBufferFileName(String replayBufferFileName) {
+      this.replayBufferFileName = replayBufferFileName;
+      return this;
+    }
   }
   
   public String toString() {
@@ -318,17 +520,32 @@ public class AdversaryLearningConfiguration {
         "\n alwaysUpdateNeuralNetwork: " + this.alwaysUpdateNeuralNetwork +
         "\n gamesToGetNewNetworkWinRatio: " + (this.alwaysUpdateNeuralNetwork ? "-" : this.numberOfGamesToDecideUpdate) +
         "\n gamesWinRatioThresholdNewNetworkUpdate: " + (this.alwaysUpdateNeuralNetwork ? "-" : this.gamesWinRatioThresholdNewNetworkUpdate) +
+        "\n numberOfArenaThreads: " + (this.alwaysUpdateNeuralNetwork ? "-" : this.numberOfArenaThreads) +
+        "\n arenaSprtMargin: " + (this.alwaysUpdateNeuralNetwork ? "-" : this.arenaSprtMargin) +
+        "\n arenaSprtErrorRate: " + (this.alwaysUpdateNeuralNetwork ? "-" : this.arenaSprtErrorRate) +
         "\n numberOfEpisodesBeforePotentialUpdate: " + this.numberOfIterationsBeforePotentialUpdate + 
         "\n iterationStart: " + this.iterationStart + 
         "\n numberOfIterations: " + this.numberOfIterations +
         "\n checkPointIterationsFrequency: " + this.checkPointIterationsFrequency +
+        "\n numberOfCheckpointsToKeep: " + this.numberOfCheckpointsToKeep +
         "\n fromNumberOfIterationsTemperatureZero: " + this.fromNumberOfIterationsTemperatureZero +
         "\n fromNumberOfMovesTemperatureZero: " + this.fromNumberOfMovesTemperatureZero +
         "\n maxTrainExamplesHistory: " + this.maxTrainExamplesHistory +
         "\n cpUct: " + this.uctConstantFactor +
         "\n numberOfMonteCarloSimulations: " + this.numberOfMonteCarloSimulations +
+        "\n monteCarloLeafBatchSize: " + this.monteCarloLeafBatchSize +
+        "\n neuralNetOutputCacheSize: " + this.neuralNetOutputCacheSize +
+        "\n numberOfSelfPlayThreads: " + this.numberOfSelfPlayThreads +
+        "\n inferenceMaxBatchSize: " + this.inferenceMaxBatchSize +
+        "\n inferenceMaxWaitMicros: " + this.inferenceMaxWaitMicros +
+        "\n useArenaTree: " + this.useArenaTree +
+        "\n numberOfSearchThreads: " + this.numberOfSearchThreads +
+        "\n searchTimeLimitMillis: " + this.searchTimeLimitMillis +
+        "\n pipelinedSelfPlay: " + this.pipelinedSelfPlay +
+        "\n numberOfTrainingEpochs: " + this.numberOfTrainingEpochs +
         "\n bestModelFileName: " + getAbsoluteModelPathFrom(this.bestModelFileName) +
-        "\n trainExamplesFileName: " + getAbsoluteModelPathFrom(this.trainExamplesFileName);
+        "\n trainExamplesFileName: " + getAbsoluteModelPathFrom(this.trainExamplesFileName) +
+        "\n replayBufferFileName: " + this.replayBufferFileName;
   }
 
   public double getLearningRate() {
@@ -395,6 +612,30 @@ public class AdversaryLearningConfiguration {
     this.gamesWinRatioThresholdNewNetworkUpdate = gamesWinRatioThresholdNewNetworkUpdate;
   }
 
+  public int getNumberOfArenaThreads() {
+    return numberOfArenaThreads;
+  }
+
+  public void setNumberOfArenaThreads(int numberOfArenaThreads) {
+    this.numberOfArenaThreads = numberOfArenaThreads;
+  }
+
+  public double getArenaSprtMargin() {
+    return arenaSprtMargin;
+  }
+
+  public void setArenaSprtMargin(double arenaSprtMargin) {
+    this.arenaSprtMargin = arenaSprtMargin;
+  }
+
+  public double getArenaSprtErrorRate() {
+    return arenaSprtErrorRate;
+  }
+
+  public void setArenaSprtErrorRate(double arenaSprtErrorRate) {
+    this.arenaSprtErrorRate = arenaSprtErrorRate;
+  }
+
   public int getNumberOfIterationsBeforePotentialUpdate() {
     return numberOfIterationsBeforePotentialUpdate;
   }
@@ -427,6 +668,14 @@ public class AdversaryLearningConfiguration {
     this.checkPointIterationsFrequency = checkPointIterationsFrequency;
   }
 
+  public int getNumberOfCheckpointsToKeep() {
+    return numberOfCheckpointsToKeep;
+  }
+
+  public void setNumberOfCheckpointsToKeep(int numberOfCheckpointsToKeep) {
+    this.numberOfCheckpointsToKeep = numberOfCheckpointsToKeep;
+  }
+
   
   public double getCurrentTemperature(int iteration, int moveNumber) {
 
@@ -478,6 +727,86 @@ public class AdversaryLearningConfiguration {
     this.numberOfMonteCarloSimulations = nummberOfMonteCarloSimulations;
   }
   
+  public int getMonteCarloLeafBatchSize() {
+    return monteCarloLeafBatchSize;
+  }
+
+  public void setMonteCarloLeafBatchSize(int monteCarloLeafBatchSize) {
+    this.monteCarloLeafBatchSize = monteCarloLeafBatchSize;
+  }
+  
+  public int getNeuralNetOutputCacheSize() {
+    return neuralNetOutputCacheSize;
+  }
+
+  public void setNeuralNetOutputCacheSize(int neuralNetOutputCacheSize) {
+    this.neuralNetOutputCacheSize = neuralNetOutputCacheSize;
+  }
+  
+  public int getNumberOfSelfPlayThreads() {
+    return numberOfSelfPlayThreads;
+  }
+
+  public void setNumberOfSelfPlayThreads(int numberOfSelfPlayThreads) {
+    this.numberOfSelfPlayThreads = numberOfSelfPlayThreads;
+  }
+  
+  public int getInferenceMaxBatchSize() {
+    return inferenceMaxBatchSize;
+  }
+
+  public void setInferenceMaxBatchSize(int inferenceMaxBatchSize) {
+    this.inferenceMaxBatchSize = inferenceMaxBatchSize;
+  }
+
+  public long getInferenceMaxWaitMicros() {
+    return inferenceMaxWaitMicros;
+  }
+
+  public void setInferenceMaxWaitMicros(long inferenceMaxWaitMicros) {
+    this.inferenceMaxWaitMicros = inferenceMaxWaitMicros;
+  }
+  
+  public boolean isUseArenaTree() {
+    return useArenaTree;
+  }
+
+  public void setUseArenaTree(boolean useArenaTree) {
+    this.useArenaTree = useArenaTree;
+  }
+  
+  public int getNumberOfSearchThreads() {
+    return numberOfSearchThreads;
+  }
+
+  public void setNumberOfSearchThreads(int numberOfSearchThreads) {
+    this.numberOfSearchThreads = numberOfSearchThreads;
+  }
+
+  public long getSearchTimeLimitMillis() {
+    return searchTimeLimitMillis;
+  }
+
+  public void setSearchTimeLimitMillis(long searchTimeLimitMillis) {
+    this.searchTimeLimitMillis = searchTimeLimitMillis;
+  }
+  
+  public boolean isPipelinedSelfPlay() {
+    return pipelinedSelfPlay;
+  }
+
+  public void setPipelinedSelfPlay(boolean pipelinedSelfPlay) {
+    this.pipelinedSelfPlay = pipelinedSelfPlay;
+  }
+
+  public int getNumberOfTrainingEpochs() {
+    return numberOfTrainingEpochs;
+  }
+
+  public void setNumberOfTrainingEpochs(int numberOfTrainingEpochs) {
+    this.numberOfTrainingEpochs = numberOfTrainingEpochs;
+  }
+  
   public String getAbsoluteModelPathFrom(String modelName) {
   
     String currentPath = String.valueOf(Paths.get(StringUtils.EMPTY).toAbsolutePath());
@@ -500,4 +829,12 @@ public class AdversaryLearningConfiguration {
   public void setTrainExamplesFileName(String trainExamplesFileName) {
     this.trainExamplesFileName = trainExamplesFileName;
   }
+
+  public String getReplayBufferFileName() {
+    return replayBufferFileName;
+  }
+
+  public void setReplayBufferFileName(String replayBufferFileName) {
+    this.replayBufferFileName = replayBufferFileName;
+  }
 }
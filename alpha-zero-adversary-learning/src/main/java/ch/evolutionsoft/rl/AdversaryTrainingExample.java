@@ -14,6 +14,8 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * Two {@link AdversaryTrainingExample} are considered equals when they have 
  * the same board state. Existing {@link AdversaryTrainingExample} with a given
  * board state can get replaced with new action probabilities in {@link AdversaryLearning}.
+ * The board state is compared by a 64 bit hash of the board values, computed once per example,
+ * and by the board values themselves only if the hashes are equal.
  * 
  * The currentPlayer here is the player with the next move. The currentPlayerValue is
  * 1 if the last trainingExample path lead to a win for currentPlayer 
@@ -38,6 +40,11 @@ public class AdversaryTrainingExample implements Serializable {
   Float currentPlayerValue;
   
   int iteration;
+  
+  /**
+   * Hash of the board values, 0 for examples deserialized from an earlier version until first used.
+   */
+  long boardHash;
 
   private static final long serialVersionUID = -4030724836317206807L;
 
@@ -48,6 +55,20 @@ public class AdversaryTrainingExample implements Serializable {
     this.currentPlayer = currentPlayer;
     this.actionIndexProbabilities = actionIndexProbabilities;
     this.iteration = iteration;
+    this.boardHash = NeuralNetOutputCache.boardHash(this.board);
+  }
+
+  /**
+   * @return the 64 bit hash of the board, the key of this example in the train examples history
+   */
+  public long getBoardHash() {
+    
+    if (0 == this.boardHash) {
+      
+      this.boardHash = NeuralNetOutputCache.boardHash(this.board);
+    }
+    
+    return this.boardHash;
   }
 
   public Float getCurrentPlayerValue() {
@@ -87,12 +108,12 @@ public class AdversaryTrainingExample implements Serializable {
     
     AdversaryTrainingExample otherExample = (AdversaryTrainingExample) other;
     
-    return this.board.equals(otherExample.board);
+    return this.getBoardHash() == otherExample.getBoardHash() && this.board.equals(otherExample.board);
   }
   
   public int hashCode() {
     
-    return this.board.hashCode();
+    return Long.hashCode(this.getBoardHash());
   }
   
   public String toString() {
@@ -0,0 +1,289 @@
+package ch.evolutionsoft.rl;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link ArenaTree} stores the nodes of a {@link MonteCarloTreeSearch} tree in primitive arrays
+ * instead of one {@link TreeNode} object per node. Nodes are int indices into the arrays,
+ * the children of a node are stored contiguously from its first child index.
+ *
+ * The arrays are preallocated and only grow when the capacity is exceeded. Calling clear()
+ * makes the same arena reusable for the next search without new allocations.
+ * Selection, expansion and backup follow the {@link TreeNode} semantics.
+ *
+ * An {@link ArenaTree} is not thread safe.
+ *
+ * @author evolutionsoft
+ */
+public class ArenaTree {
+
+  public static final int ROOT = 0;
+
+  public static final int NO_NODE = -1;
+
+  private int size;
+
+  private int[] moves;
+
+  private int[] lastMoveColors;
+
+  private int[] parents;
+
+  private int[] firstChildren;
+
+  private int[] childCounts;
+
+  private int[] timesVisited;
+
+  private float[] qValues;
+
+  private float[] moveProbabilities;
+
+  public ArenaTree(int initialCapacity) {
+
+    int capacity = Math.max(1, initialCapacity);
+    this.moves = new int[capacity];
+    this.lastMoveColors = new int[capacity];
+    this.parents = new int[capacity];
+    this.firstChildren = new int[capacity];
+    this.childCounts = new int[capacity];
+    this.timesVisited = new int[capacity];
+    this.qValues = new float[capacity];
+    this.moveProbabilities = new float[capacity];
+  }
+
+  /**
+   * Removes all nodes and creates a new root node.
+   *
+   * @param lastMoveColor the player who moved last before the root position
+   * @return the root node index
+   */
+  public int resetRoot(int lastMoveColor) {
+
+    this.size = 0;
+    return this.addNode(-1, lastMoveColor, NO_NODE, 1f, (float) AdversaryLearning.DRAW_VALUE);
+  }
+
+  public void clear() {
+
+    this.size = 0;
+  }
+
+  /**
+   * Adds one child per valid move to node.
+   *
+   * @param node the leaf node to expand
+   * @param validMoves the valid move indices, only the first validMovesCount entries are used
+   * @param validMovesCount number of valid moves
+   * @param actionProbabilities normalized move probabilities indexed by move index
+   * @param childMoveColor the player making the child moves
+   */
+  public void expand(int node, int[] validMoves, int validMovesCount, float[] actionProbabilities, int childMoveColor) {
+
+    this.ensureCapacity(this.size + validMovesCount);
+
+    float initialChildQ = 1 - this.qValues[node];
+    this.firstChildren[node] = this.size;
+    this.childCounts[node] = validMovesCount;
+
+    for (int index = 0; index < validMovesCount; index++) {
+
+      int moveIndex = validMoves[index];
+      this.addNode(moveIndex, childMoveColor, node, actionProbabilities[moveIndex], initialChildQ);
+    }
+  }
+
+  public boolean isExpanded(int node) {
+
+    return 0 < this.childCounts[node];
+  }
+
+  /**
+   * Select the child with the highest qValue + uValue, ties are broken randomly.
+   *
+   * @param node an expanded node
+   * @param cpUct the exploration constant
+   * @return the selected child node index
+   */
+  public int selectChild(int node, double cpUct) {
+
+    double explorationFactor = cpUct * Math.sqrt(this.timesVisited[node]);
+    int firstChild = this.firstChildren[node];
+    int endChild = firstChild + this.childCounts[node];
+
+    double bestValue = Double.NEGATIVE_INFINITY;
+    int bestChild = NO_NODE;
+    int ties = 0;
+
+    for (int child = firstChild; child < endChild; child++) {
+
+      double currentValue = this.qValues[child] +
+          explorationFactor * this.moveProbabilities[child] / (1 + this.timesVisited[child]);
+
+      if (currentValue > bestValue) {
+
+        bestValue = currentValue;
+        bestChild = child;
+        ties = 1;
+
+      } else if (currentValue == bestValue && 0 == ThreadLocalRandom.current().nextInt(++ties)) {
+
+        bestChild = child;
+      }
+    }
+
+    return bestChild;
+  }
+
+  /**
+   * Updates node and all its ancestors up to the root, the value alternates between players.
+   *
+   * @param node the evaluated node
+   * @param value the value for the player who made the move leading to node
+   */
+  public void backup(int node, double value) {
+
+    for (int current = node; NO_NODE != current; current = this.parents[current]) {
+
+      this.timesVisited[current]++;
+      this.qValues[current] += (value - this.qValues[current]) / this.timesVisited[current];
+      value = 1 - value;
+    }
+  }
+
+  /**
+   * @param node an expanded node
+   * @param remainingVisits the maximum number of visits still added to the children of node
+   * @return true if no other child can reach the visits of the currently most visited child
+   */
+  public boolean isMostVisitedChildDecided(int node, long remainingVisits) {
+
+    int mostVisits = 0;
+    int secondMostVisits = 0;
+    int firstChild = this.firstChildren[node];
+    int endChild = firstChild + this.childCounts[node];
+
+    for (int child = firstChild; child < endChild; child++) {
+
+      int visits = this.timesVisited[child];
+      if (visits > mostVisits) {
+
+        secondMostVisits = mostVisits;
+        mostVisits = visits;
+
+      } else if (visits > secondMostVisits) {
+
+        secondMostVisits = visits;
+      }
+    }
+
+    return mostVisits > secondMostVisits + remainingVisits;
+  }
+
+  /**
+   * @param node the parent node
+   * @param moveIndex the move index of the child
+   * @return the child node index or NO_NODE if node has no child with moveIndex
+   */
+  public int getChildWithMoveIndex(int node, int moveIndex) {
+
+    int firstChild = this.firstChildren[node];
+    int endChild = firstChild + this.childCounts[node];
+
+    for (int child = firstChild; child < endChild; child++) {
+
+      if (this.moves[child] == moveIndex) {
+
+        return child;
+      }
+    }
+
+    return NO_NODE;
+  }
+
+  public int getMove(int node) {
+
+    return this.moves[node];
+  }
+
+  public int getLastMoveColor(int node) {
+
+    return this.lastMoveColors[node];
+  }
+
+  public int getParent(int node) {
+
+    return this.parents[node];
+  }
+
+  public int getTimesVisited(int node) {
+
+    return this.timesVisited[node];
+  }
+
+  public double getQValue(int node) {
+
+    return this.qValues[node];
+  }
+
+  public double getMoveProbability(int node) {
+
+    return this.moveProbabilities[node];
+  }
+
+  public int getFirstChild(int node) {
+
+    return this.firstChildren[node];
+  }
+
+  public int getChildCount(int node) {
+
+    return this.childCounts[node];
+  }
+
+  public int size() {
+
+    return this.size;
+  }
+
+  public int capacity() {
+
+    return this.moves.length;
+  }
+
+  int addNode(int moveIndex, int lastMoveColor, int parent, float moveProbability, float initialQ) {
+
+    this.ensureCapacity(this.size + 1);
+
+    int node = this.size++;
+    this.moves[node] = moveIndex;
+    this.lastMoveColors[node] = lastMoveColor;
+    this.parents[node] = parent;
+    this.firstChildren[node] = NO_NODE;
+    this.childCounts[node] = 0;
+    this.timesVisited[node] = 0;
+    this.qValues[node] = initialQ;
+    this.moveProbabilities[node] = moveProbability;
+
+    return node;
+  }
+
+  void ensureCapacity(int requiredCapacity) {
+
+    if (requiredCapacity <= this.moves.length) {
+
+      return;
+    }
+
+    int newCapacity = Math.max(requiredCapacity, 2 * this.moves.length);
+    this.moves = Arrays.copyOf(this.moves, newCapacity);
+    this.lastMoveColors = Arrays.copyOf(this.lastMoveColors, newCapacity);
+    this.parents = Arrays.copyOf(this.parents, newCapacity);
+    this.firstChildren = Arrays.copyOf(this.firstChildren, newCapacity);
+    this.childCounts = Arrays.copyOf(this.childCounts, newCapacity);
+    this.timesVisited = Arrays.copyOf(this.timesVisited, newCapacity);
+    this.qValues = Arrays.copyOf(this.qValues, newCapacity);
+    this.moveProbabilities = Arrays.copyOf(this.moveProbabilities, newCapacity);
+  }
+}
@@ -0,0 +1,291 @@
+package ch.evolutionsoft.rl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link BatchInferenceServer} evaluates single board requests of many concurrent
+ * {@link MonteCarloTreeSearch} on one dedicated thread. Waiting requests are grouped into
+ * dynamic batches of at most maxBatchSize boards. A batch is evaluated as soon as it is full or
+ * the oldest request in it waited maxWaitMicros.
+ *
+ * Each request gets its own future completed with the {@link ComputationGraph} output rows
+ * belonging to the requested board, the action probabilities first and the value second.
+ *
+ * @author evolutionsoft
+ */
+public class BatchInferenceServer implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchInferenceServer.class);
+
+  private static final long IDLE_POLL_MILLIS = 100;
+
+  private final BlockingQueue<InferenceRequest> requestQueue = new LinkedBlockingQueue<>();
+
+  private final int maxBatchSize;
+
+  private final long maxWaitNanos;
+
+  private final Thread inferenceThread;
+
+  /**
+   * Guards the running check of submit together with adding the request, close stops under the same lock.
+   */
+  private final Object submitLock = new Object();
+
+  private volatile ComputationGraph computationGraph;
+
+  private volatile boolean running;
+
+  private long numberOfBatches;
+
+  private long numberOfRequests;
+
+  private long totalQueueLatencyNanos;
+
+  public BatchInferenceServer(ComputationGraph computationGraph, int maxBatchSize, long maxWaitMicros) {
+
+    this.computationGraph = computationGraph;
+    this.maxBatchSize = maxBatchSize;
+    this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+    this.inferenceThread = new Thread(this::serveRequests, "batch-inference");
+    this.inferenceThread.setDaemon(true);
+  }
+
+  public BatchInferenceServer start() {
+
+    this.running = true;
+    this.inferenceThread.start();
+
+    return this;
+  }
+
+  /**
+   * @param board a single board input without batch dimension
+   * @return a future with the action probabilities and value outputs for board
+   */
+  public CompletableFuture<INDArray[]> submit(INDArray board) {
+
+    InferenceRequest request = new InferenceRequest(board);
+
+    synchronized (this.submitLock) {
+
+      if (!this.running) {
+
+        request.result.completeExceptionally(new IllegalStateException("Inference server is not running"));
+        return request.result;
+      }
+
+      this.requestQueue.add(request);
+    }
+
+    return request.result;
+  }
+
+  /**
+   * Following requests are evaluated with the given computationGraph.
+   *
+   * @param computationGraph the new neural net to use
+   */
+  public void setComputationGraph(ComputationGraph computationGraph) {
+
+    this.computationGraph = computationGraph;
+  }
+
+  void serveRequests() {
+
+    List<InferenceRequest> batch = new ArrayList<>(this.maxBatchSize);
+
+    while (this.running) {
+
+      try {
+
+        InferenceRequest firstRequest = this.requestQueue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (null == firstRequest) {
+
+          continue;
+        }
+
+        batch.add(firstRequest);
+        long batchDeadline = firstRequest.enqueuedNanos + this.maxWaitNanos;
+
+        while (batch.size() < this.maxBatchSize) {
+
+          long remainingNanos = batchDeadline - System.nanoTime();
+          InferenceRequest nextRequest = remainingNanos > 0 ?
+              this.requestQueue.poll(remainingNanos, TimeUnit.NANOSECONDS) :
+              this.requestQueue.poll();
+
+          if (null == nextRequest) {
+
+            break;
+          }
+
+          batch.add(nextRequest);
+        }
+
+        this.evaluate(batch);
+
+      } catch (InterruptedException ie) {
+
+        Thread.currentThread().interrupt();
+        synchronized (this.submitLock) {
+
+          this.running = false;
+        }
+
+      } finally {
+
+        // Only requests left incomplete by an interrupt are affected here
+        for (InferenceRequest request : batch) {
+
+          request.result.completeExceptionally(new IllegalStateException("Inference request not evaluated"));
+        }
+        batch.clear();
+      }
+    }
+
+    this.failPendingRequests();
+  }
+
+  void failPendingRequests() {
+
+    InferenceRequest pendingRequest;
+    while (null != (pendingRequest = this.requestQueue.poll())) {
+
+      pendingRequest.result.completeExceptionally(new IllegalStateException("Inference server stopped"));
+    }
+  }
+
+  void evaluate(List<InferenceRequest> batch) {
+
+    long evaluationStartNanos = System.nanoTime();
+
+    List<INDArray> boards = new ArrayList<>(batch.size());
+    for (InferenceRequest request : batch) {
+
+      boards.add(request.board);
+    }
+
+    try {
+
+      ComputationGraph currentGraph = this.computationGraph;
+      INDArray[] outputs;
+      synchronized (currentGraph) {
+
+        outputs = currentGraph.output(Nd4j.pile(boards));
+      }
+
+      for (int row = 0; row < batch.size(); row++) {
+
+        INDArray[] rowOutputs = new INDArray[outputs.length];
+        for (int output = 0; output < outputs.length; output++) {
+
+          rowOutputs[output] = outputs[output].getRow(row);
+        }
+        batch.get(row).result.complete(rowOutputs);
+      }
+
+    } catch (RuntimeException re) {
+
+      log.warn("Batch inference of {} boards failed", batch.size(), re);
+      for (InferenceRequest request : batch) {
+
+        request.result.completeExceptionally(re);
+      }
+    }
+
+    synchronized (this) {
+
+      this.numberOfBatches++;
+      this.numberOfRequests += batch.size();
+      for (InferenceRequest request : batch) {
+
+        this.totalQueueLatencyNanos += evaluationStartNanos - request.enqueuedNanos;
+      }
+    }
+  }
+
+  /**
+   * Stops the inference thread. Pending requests complete exceptionally.
+   */
+  @Override
+  public void close() {
+
+    synchronized (this.submitLock) {
+
+      this.running = false;
+    }
+    this.inferenceThread.interrupt();
+
+    try {
+
+      this.inferenceThread.join();
+
+    } catch (InterruptedException ie) {
+
+      Thread.currentThread().interrupt();
+    }
+
+    // Requests added after the inference thread stopped by itself
+    this.failPendingRequests();
+  }
+
+  public synchronized long getNumberOfBatches() {
+
+    return this.numberOfBatches;
+  }
+
+  public synchronized long getNumberOfRequests() {
+
+    return this.numberOfRequests;
+  }
+
+  /**
+   * @return the average number of boards per evaluated batch relative to maxBatchSize
+   */
+  public synchronized double getAverageBatchFillRatio() {
+
+    return 0 == this.numberOfBatches ? 0 :
+      this.numberOfRequests / ((double) this.numberOfBatches * this.maxBatchSize);
+  }
+
+  /**
+   * @return the average time in milliseconds requests waited before their batch got evaluated
+   */
+  public synchronized double getAverageQueueLatencyMillis() {
+
+    return 0 == this.numberOfRequests ? 0 :
+      this.totalQueueLatencyNanos / (double) this.numberOfRequests / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  public int getMaxBatchSize() {
+
+    return this.maxBatchSize;
+  }
+
+  static class InferenceRequest {
+
+    final INDArray board;
+
+    final long enqueuedNanos;
+
+    final CompletableFuture<INDArray[]> result = new CompletableFuture<>();
+
+    InferenceRequest(INDArray board) {
+
+      this.board = board;
+      this.enqueuedNanos = System.nanoTime();
+    }
+  }
+}
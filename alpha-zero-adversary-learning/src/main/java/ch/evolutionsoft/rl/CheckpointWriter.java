@@ -0,0 +1,414 @@
+package ch.evolutionsoft.rl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CheckpointWriter} writes models and train examples on one background thread, the learning thread
+ * only takes an in memory snapshot. Writes run in submission order. Each file is written to a temporary file
+ * and forced to the storage device first, then moved to its path and the directory entry forced as well.
+ * An existing file stays complete if writing fails.
+ *
+ * A newer pending write of the same path supersedes an older one that did not start yet. Of the files written
+ * with an iteration, only the newest numberOfCheckpointsToKeep iterations are kept, 0 keeps all.
+ * Durable checkpoints of earlier runs found in the checkpoint directory count as kept checkpoints too.
+ * After all files of an iteration are durable, the iteration is stored as last durable iteration
+ * in the marker file next to them, written the same way.
+ *
+ * @author evolutionsoft
+ */
+public class CheckpointWriter implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(CheckpointWriter.class);
+
+  public static final String LAST_DURABLE_ITERATION_FILE_NAME = "lastcheckpoint.txt";
+
+  public static final int NO_ITERATION = 0;
+
+  static final String TEMPORARY_SUFFIX = ".tmp";
+
+  @FunctionalInterface
+  interface FileWriter {
+
+    void write(Path path) throws IOException;
+  }
+
+  /**
+   * Runs on the writer thread after a file is durable.
+   */
+  @FunctionalInterface
+  public interface DurableCallback {
+
+    void durable() throws IOException;
+  }
+
+  private final ExecutorService writerThread = Executors.newSingleThreadExecutor(runnable -> {
+
+    Thread thread = new Thread(runnable, "checkpoint-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path lastDurableIterationPath;
+
+  private final int numberOfCheckpointsToKeep;
+
+  private final Map<Path, Long> newestWriteByPath = new HashMap<>();
+
+  private final Deque<List<Path>> keptCheckpoints = new ArrayDeque<>();
+
+  private final AtomicReference<IOException> writeFailure = new AtomicReference<>();
+
+  private long numberOfSubmittedWrites;
+
+  private volatile int lastDurableIteration;
+
+  /**
+   * @param checkpointDirectory the directory of the marker file storing the last durable iteration
+   * @param numberOfCheckpointsToKeep the number of newest checkpoint iterations to keep, 0 keeps all
+   */
+  public CheckpointWriter(Path checkpointDirectory, int numberOfCheckpointsToKeep) {
+
+    this.lastDurableIterationPath = checkpointDirectory.resolve(LAST_DURABLE_ITERATION_FILE_NAME);
+    this.numberOfCheckpointsToKeep = numberOfCheckpointsToKeep;
+    this.lastDurableIteration = NO_ITERATION;
+  }
+
+  /**
+   * Same as CheckpointWriter(checkpointDirectory, numberOfCheckpointsToKeep), also keeps the checkpoint files
+   * of earlier runs up to their last durable iteration. Newer files are incomplete and get overwritten.
+   *
+   * @param checkpointDirectory the directory of the marker file and the checkpoint files
+   * @param numberOfCheckpointsToKeep the number of newest checkpoint iterations to keep, 0 keeps all
+   * @param checkpointFileNamePatterns file name patterns of checkpoint files, group 1 matching the iteration
+   * @throws IOException if the checkpoint directory or marker file can not be read
+   */
+  public CheckpointWriter(Path checkpointDirectory, int numberOfCheckpointsToKeep,
+      List<Pattern> checkpointFileNamePatterns) throws IOException {
+
+    this(checkpointDirectory, numberOfCheckpointsToKeep);
+
+    int lastDurableIterationOfEarlierRun = readLastDurableIteration(checkpointDirectory);
+    Map<Integer, List<Path>> earlierCheckpoints = new TreeMap<>();
+    try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(checkpointDirectory)) {
+
+      for (Path path : directoryStream) {
+
+        for (Pattern checkpointFileNamePattern : checkpointFileNamePatterns) {
+
+          Matcher matcher = checkpointFileNamePattern.matcher(path.getFileName().toString());
+          if (matcher.matches() && Integer.parseInt(matcher.group(1)) <= lastDurableIterationOfEarlierRun) {
+
+            earlierCheckpoints.computeIfAbsent(Integer.parseInt(matcher.group(1)), iteration -> new ArrayList<>())
+                .add(path);
+          }
+        }
+      }
+    }
+
+    this.keptCheckpoints.addAll(earlierCheckpoints.values());
+    log.info("Found {} checkpoints of earlier runs in {}", earlierCheckpoints.size(), checkpointDirectory);
+  }
+
+  /**
+   * @param prefix the file name before the iteration
+   * @param suffix the file name after the iteration
+   * @return a pattern of checkpoint file names with iteration as group 1
+   */
+  public static Pattern checkpointFileNamePattern(String prefix, String suffix) {
+
+    return Pattern.compile(Pattern.quote(prefix) + "(\\d+)" + Pattern.quote(suffix));
+  }
+
+  /**
+   * Reads the marker file of an earlier run, used to validate the iteration learning restarts with.
+   *
+   * @param checkpointDirectory the directory of the marker file
+   * @return the last iteration all checkpoint files got written for, NO_ITERATION without marker file
+   * @throws IOException if the marker file can not be read
+   */
+  public static int readLastDurableIteration(Path checkpointDirectory) throws IOException {
+
+    Path lastDurableIterationPath = checkpointDirectory.resolve(LAST_DURABLE_ITERATION_FILE_NAME);
+    if (!Files.exists(lastDurableIterationPath)) {
+
+      return NO_ITERATION;
+    }
+
+    return Integer.parseInt(new String(Files.readAllBytes(lastDurableIterationPath), StandardCharsets.UTF_8).trim());
+  }
+
+  /**
+   * Writes a copy of computationGraph to path, computationGraph may change right after this call.
+   *
+   * @param computationGraph the model to write including its updater state
+   * @param path the file to write
+   * @throws IOException if an earlier background write failed
+   */
+  public void writeModel(ComputationGraph computationGraph, Path path) throws IOException {
+
+    ComputationGraph snapshot = computationGraph.clone();
+    this.submit(path, modelPath -> ModelSerializer.writeModel(snapshot, modelPath.toFile(), true));
+  }
+
+  /**
+   * Writes the current trainExamples in the {@link TrainExamplesFile} format to path.
+   * The collection is copied, the examples themselves must not change after this call.
+   *
+   * @param trainExamples the examples to write
+   * @param path the file to write
+   * @throws IOException if an earlier background write failed
+   */
+  public void writeTrainExamples(Collection<AdversaryTrainingExample> trainExamples, Path path) throws IOException {
+
+    this.writeTrainExamples(trainExamples, path, () -> { });
+  }
+
+  /**
+   * Same as writeTrainExamples, durableCallback runs once the file is durable. A superseded write
+   * does not run its durableCallback.
+   *
+   * @param trainExamples the examples to write
+   * @param path the file to write
+   * @param durableCallback called on the writer thread after path is durable
+   * @throws IOException if an earlier background write failed
+   */
+  public void writeTrainExamples(Collection<AdversaryTrainingExample> trainExamples, Path path,
+      DurableCallback durableCallback) throws IOException {
+
+    List<AdversaryTrainingExample> snapshot = new ArrayList<>(trainExamples);
+    this.submit(path, trainExamplesPath -> TrainExamplesFile.write(trainExamplesPath, snapshot), durableCallback);
+  }
+
+  /**
+   * Copies source to path right away on the calling thread, for files changing right after this call.
+   * The copy and its directory entry are forced before returning, like the background writes.
+   *
+   * @param source the file to copy
+   * @param path the file to write
+   * @throws IOException if copying or an earlier background write failed
+   */
+  public void copyFile(Path source, Path path) throws IOException {
+
+    this.throwWriteFailure();
+
+    long copyStartNanos = System.nanoTime();
+    moveAtomically(writeTemporary(path,
+        temporaryPath -> Files.copy(source, temporaryPath, StandardCopyOption.REPLACE_EXISTING)),
+        path);
+    log.info("Copy {} in {} ms", path, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - copyStartNanos));
+  }
+
+  /**
+   * Marks the files written with iteration since the last call as one checkpoint. After they are written
+   * the iteration becomes the last durable iteration and checkpoints beyond numberOfCheckpointsToKeep are deleted.
+   *
+   * @param iteration the iteration of the checkpoint
+   * @param checkpointPaths the files belonging to the checkpoint, submitted before
+   * @throws IOException if an earlier background write failed
+   */
+  public void completeCheckpoint(int iteration, List<Path> checkpointPaths) throws IOException {
+
+    this.throwWriteFailure();
+
+    List<Path> paths = new ArrayList<>(checkpointPaths);
+    this.writerThread.execute(() -> {
+
+      if (null != this.writeFailure.get()) {
+
+        return;
+      }
+
+      try {
+
+        moveAtomically(writeTemporary(this.lastDurableIterationPath,
+            markerPath -> Files.write(markerPath, String.valueOf(iteration).getBytes(StandardCharsets.UTF_8))),
+            this.lastDurableIterationPath);
+        this.lastDurableIteration = iteration;
+
+        for (List<Path> keptCheckpointPaths : this.keptCheckpoints) {
+
+          keptCheckpointPaths.removeAll(paths);
+        }
+        this.keptCheckpoints.removeIf(List::isEmpty);
+        this.keptCheckpoints.addLast(paths);
+        while (0 < this.numberOfCheckpointsToKeep && this.numberOfCheckpointsToKeep < this.keptCheckpoints.size()) {
+
+          for (Path oldCheckpointPath : this.keptCheckpoints.removeFirst()) {
+
+            Files.deleteIfExists(oldCheckpointPath);
+          }
+        }
+
+        log.info("Checkpoint of iteration {} is durable", iteration);
+
+      } catch (IOException ioe) {
+
+        this.failed(ioe);
+      }
+    });
+  }
+
+  void submit(Path path, FileWriter fileWriter) throws IOException {
+
+    this.submit(path, fileWriter, () -> { });
+  }
+
+  void submit(Path path, FileWriter fileWriter, DurableCallback durableCallback) throws IOException {
+
+    this.throwWriteFailure();
+
+    long writeNumber;
+    synchronized (this.newestWriteByPath) {
+
+      writeNumber = ++this.numberOfSubmittedWrites;
+      this.newestWriteByPath.put(path, writeNumber);
+    }
+
+    this.writerThread.execute(() -> {
+
+      synchronized (this.newestWriteByPath) {
+
+        if (writeNumber != this.newestWriteByPath.get(path)) {
+
+          log.debug("Skip superseded write of {}", path);
+          return;
+        }
+      }
+
+      try {
+
+        long writeStartNanos = System.nanoTime();
+        moveAtomically(writeTemporary(path, fileWriter), path);
+        log.info("Write {} in {} ms", path, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - writeStartNanos));
+        durableCallback.durable();
+
+      } catch (IOException ioe) {
+
+        this.failed(ioe);
+      }
+    });
+  }
+
+  static Path writeTemporary(Path path, FileWriter fileWriter) throws IOException {
+
+    Path temporaryPath = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+    fileWriter.write(temporaryPath);
+
+    try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+
+      channel.force(true);
+    }
+
+    return temporaryPath;
+  }
+
+  static void moveAtomically(Path temporaryPath, Path path) throws IOException {
+
+    try {
+
+      Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    } catch (AtomicMoveNotSupportedException amnse) {
+
+      Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    TrainExamplesFile.forceDirectory(path.toAbsolutePath().getParent());
+  }
+
+  void failed(IOException ioe) {
+
+    log.warn("Checkpoint write failed", ioe);
+    this.writeFailure.compareAndSet(null, ioe);
+  }
+
+  void throwWriteFailure() throws IOException {
+
+    IOException failure = this.writeFailure.get();
+    if (null != failure) {
+
+      throw new IOException("Checkpoint write failed", failure);
+    }
+  }
+
+  /**
+   * Waits until all writes submitted so far are done.
+   *
+   * @throws IOException if a background write failed
+   */
+  public void awaitWrites() throws IOException {
+
+    try {
+
+      this.writerThread.submit(() -> { }).get();
+
+    } catch (InterruptedException ie) {
+
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for checkpoint writes", ie);
+
+    } catch (ExecutionException ee) {
+
+      throw new IllegalStateException("Checkpoint writer failed", ee.getCause());
+    }
+
+    this.throwWriteFailure();
+  }
+
+  /**
+   * Waits until all submitted writes are done.
+   */
+  @Override
+  public void close() {
+
+    this.writerThread.shutdown();
+
+    try {
+
+      while (!this.writerThread.awaitTermination(1, TimeUnit.MINUTES)) {
+
+        log.info("Waiting for pending checkpoint writes");
+      }
+
+    } catch (InterruptedException ie) {
+
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return the last iteration all checkpoint files got written for, NO_ITERATION before the first one
+   */
+  public int getLastDurableIteration() {
+
+    return this.lastDurableIteration;
+  }
+}
@@ -1,5 +1,6 @@
 package ch.evolutionsoft.rl;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -44,6 +45,22 @@ public abstract class Game {
     this.currentPlayer = currentPlayer;
     this.currentBoard = currentBoard.dup();
   }
+  
+  /**
+   * For games keeping their state in a compact form and creating currentBoard only on demand,
+   * such games override getCurrentBoard().
+   * 
+   * @param currentPlayer the player to move
+   * @param createInitialBoard false to leave currentBoard null
+   */
+  protected Game(int currentPlayer, boolean createInitialBoard) {
+    
+    this.currentPlayer = currentPlayer;
+    if (createInitialBoard) {
+      
+      this.currentBoard = getInitialBoard();
+    }
+  }
 
   public INDArray getCurrentBoard() {
     
@@ -183,6 +200,47 @@ public abstract class Game {
    */
   public abstract INDArray getValidMoves();
 
+  /**
+   * Writes the valid move indices in ascending order into a caller supplied array,
+   * without allocating boxed sets. Used on hot paths like {@link MonteCarloTreeSearch} expansions.
+   * This default adapter uses getValidMoveIndices(), games with a compact state can override it.
+   * 
+   * @param validMoveIndices array of at least getNumberOfAllAvailableMoves() length to fill
+   * @return the number of valid moves written to validMoveIndices
+   */
+  public int fillValidMoveIndices(int[] validMoveIndices) {
+    
+    Set<Integer> validMoveIndexSet = this.getValidMoveIndices();
+    
+    int allMovesSize = getNumberOfAllAvailableMoves();
+    int numberOfValidMoves = 0;
+    for (int index = 0; index < allMovesSize && numberOfValidMoves < validMoveIndexSet.size(); index++) {
+      
+      if (validMoveIndexSet.contains(index)) {
+        validMoveIndices[numberOfValidMoves] = index;
+        numberOfValidMoves++;
+      }
+    }
+    
+    return numberOfValidMoves;
+  }
+
+  /**
+   * Same as getValidMoves(), but filling a reusable float[] mask instead of creating an INDArray.
+   * This default adapter uses getValidMoveIndices(), games with a compact state can override it.
+   * 
+   * @param validMovesMask array of getNumberOfAllAvailableMoves() length, ones for valid move indices,
+   * zero for other indices after the call
+   */
+  public void fillValidMoves(float[] validMovesMask) {
+    
+    Arrays.fill(validMovesMask, 0f);
+    for (int moveIndex : this.getValidMoveIndices()) {
+      
+      validMovesMask[moveIndex] = 1f;
+    }
+  }
+
   /**
    * 
    * @return true if the game ended, false otherwise
@@ -198,6 +256,55 @@ public abstract class Game {
    */
   public abstract INDArray makeMove(int moveIndex, int player);
 
+  /**
+   * Perform the given move like makeMove without returning the new board.
+   * Used on hot paths like {@link MonteCarloTreeSearch} playouts, where the board is not needed
+   * after every move. Games with a compact state can override this to avoid creating board INDArrays.
+   * 
+   * @param moveIndex
+   * @param player
+   */
+  public void playMove(int moveIndex, int player) {
+    
+    this.makeMove(moveIndex, player);
+  }
+
+  /**
+   * A 64 bit hash of the position, equal for positions with equal neural net input boards.
+   * Used as key of the {@link NeuralNetOutputCache}, so transposed positions share their outputs.
+   * This default hashes all values of getCurrentBoard(). Games with a compact state can maintain
+   * the hash incrementally in playMove, e.g. as Zobrist hash.
+   * 
+   * @return the hash of the current position
+   */
+  public long getPositionHash() {
+    
+    return NeuralNetOutputCache.boardHash(this.getCurrentBoard());
+  }
+
+  /**
+   * Games keeping an undo history override this together with unmakeMove().
+   * {@link MonteCarloTreeSearch} then descends and rolls back all playouts on one game instance
+   * instead of calling createNewInstance() for every playout.
+   * 
+   * @return true if unmakeMove() is supported, false by default
+   */
+  public boolean supportsUnmakeMove() {
+    
+    return false;
+  }
+
+  /**
+   * Takes back the last move made with playMove or makeMove, including the change of currentPlayer.
+   * Moves made before createNewInstance() are not part of the history of the created instance.
+   * 
+   * @throws UnsupportedOperationException if supportsUnmakeMove() is false
+   */
+  public void unmakeMove() {
+    
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support unmakeMove()");
+  }
+
   /**
    * Get the end result of a game. This should be a value between 0 and 1.
    * Here the current player to move does not inverse the result.
@@ -0,0 +1,636 @@
+package ch.evolutionsoft.rl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MappedReplayBuffer} keeps the train examples history off heap in a memory mapped file
+ * with fixed size records. The records form a ring in insertion order, a new board evicts
+ * the oldest example once the buffer holds capacity examples. A primitive open addressing index
+ * from board hash to slot finds an already stored board, its old record gets freed and the example
+ * is written as newest one, like the remove and put of the heap history.
+ *
+ * Freed records stay in the ring until they become the oldest ones. The ring has some spare slots
+ * beyond capacity, only when all of them hold freed records the live records are compacted
+ * towards the oldest slot.
+ *
+ * Mini batches of a {@link TrainExamplesIterator} are filled with bulk copies from the mapped records,
+ * no {@link AdversaryTrainingExample} or {@link INDArray} per example is created. Reopening an existing file only rebuilds the index
+ * from the stored board hashes.
+ *
+ * Layout version 2, big endian:
+ * <pre>
+ * header: int magic, int version, int capacity, int oldestSlot, int usedSlots,
+ *   int boardRank, long[boardRank] boardShape, int actionProbabilitiesLength
+ * record: long boardHash, int iteration, int currentPlayer, float currentPlayerValue,
+ *   float[boardLength] board, float[actionProbabilitiesLength] actionProbabilities
+ * </pre>
+ * A freed record has currentPlayer 0.
+ *
+ * A {@link MappedReplayBuffer} is not thread safe.
+ *
+ * @author evolutionsoft
+ */
+public class MappedReplayBuffer implements TrainExamplesIterator.Source, AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedReplayBuffer.class);
+
+  /**
+   * The ASCII characters AZRB.
+   */
+  public static final int MAGIC = 0x415A5242;
+
+  public static final int VERSION = 2;
+
+  static final int OLDEST_SLOT_OFFSET = 3 * Integer.BYTES;
+
+  static final int USED_SLOTS_OFFSET = 4 * Integer.BYTES;
+
+  static final int RECORD_HEADER_BYTES = Long.BYTES + 2 * Integer.BYTES + Float.BYTES;
+
+  static final int CURRENT_PLAYER_OFFSET = Long.BYTES + Integer.BYTES;
+
+  static final int FREE_RECORD_PLAYER = 0;
+
+  private final Path path;
+
+  private final int capacity;
+
+  private final int ringSlots;
+
+  private final long[] boardShape;
+
+  private final int boardLength;
+
+  private final int actionProbabilitiesLength;
+
+  private final int recordBytes;
+
+  private final int recordsPerSegment;
+
+  private final int headerBytes;
+
+  private final MappedByteBuffer header;
+
+  private MappedByteBuffer[] segments;
+
+  private final SlotIndex slotIndex;
+
+  /**
+   * The slots of all live records, the first size ones are the indices of {@link TrainExamplesIterator.Source}.
+   */
+  private final int[] liveSlots;
+
+  private final int[] livePositions;
+
+  private int size;
+
+  private int oldestSlot;
+
+  private int usedSlots;
+
+  MappedReplayBuffer(Path path, FileChannel channel, int capacity, long[] boardShape, int actionProbabilitiesLength)
+      throws IOException {
+
+    this.path = path;
+    this.capacity = capacity;
+    this.ringSlots = ringSlots(capacity);
+    this.boardShape = boardShape.clone();
+    this.boardLength = (int) Arrays.stream(boardShape).reduce(1, (first, second) -> first * second);
+    this.actionProbabilitiesLength = actionProbabilitiesLength;
+    this.recordBytes = RECORD_HEADER_BYTES + (this.boardLength + actionProbabilitiesLength) * Float.BYTES;
+    this.recordsPerSegment = Integer.MAX_VALUE / this.recordBytes;
+    this.headerBytes = 7 * Integer.BYTES + boardShape.length * Long.BYTES;
+
+    this.header = channel.map(MapMode.READ_WRITE, 0, this.headerBytes);
+    this.slotIndex = new SlotIndex(capacity);
+    this.liveSlots = new int[capacity];
+    this.livePositions = new int[this.ringSlots];
+  }
+
+  /**
+   * @return capacity plus spare slots for freed records, an eighth of capacity but at least one
+   */
+  static int ringSlots(int capacity) {
+
+    return capacity + Math.max(1, capacity / 8);
+  }
+
+  /**
+   * Opens the replay buffer at path or creates a new one if path does not exist.
+   *
+   * @param path the mapped file
+   * @param capacity maximum number of stored examples
+   * @param boardShape the shape of one board without batch dimension
+   * @param actionProbabilitiesLength number of action probabilities per example
+   * @return the opened buffer with the index of all stored examples
+   * @throws IOException if the file can not be mapped or has an unknown format or version
+   * @throws IllegalArgumentException if an existing file was created with a different capacity or shapes
+   */
+  public static MappedReplayBuffer open(Path path, int capacity, long[] boardShape, int actionProbabilitiesLength)
+      throws IOException {
+
+    if (capacity < 1 || capacity > SlotIndex.MAX_CAPACITY) {
+
+      throw new IllegalArgumentException("Replay buffer capacity " + capacity + " out of range");
+    }
+
+    boolean existingBuffer = Files.isRegularFile(path) && 0 < Files.size(path);
+
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+      MappedReplayBuffer replayBuffer =
+          new MappedReplayBuffer(path, channel, capacity, boardShape, actionProbabilitiesLength);
+
+      if (existingBuffer) {
+
+        replayBuffer.checkHeader();
+        replayBuffer.mapSegments(channel);
+        replayBuffer.readIndex();
+
+      } else {
+
+        replayBuffer.writeHeader();
+        replayBuffer.mapSegments(channel);
+      }
+
+      return replayBuffer;
+    }
+  }
+
+  /**
+   * Stores example as newest one in the next ring slot. An example of the same board gets freed,
+   * otherwise the oldest example is evicted if the buffer is full. A stored example of a different board
+   * with the same board hash is kept, example is not stored then.
+   *
+   * @param example the example to store
+   */
+  public void put(AdversaryTrainingExample example) {
+
+    long boardHash = example.getBoardHash();
+    int previousSlot = this.slotIndex.get(boardHash);
+
+    if (SlotIndex.NO_SLOT != previousSlot) {
+
+      if (!this.storesBoard(previousSlot, TrainExamplesFile.toFloatVector(example.getBoard()))) {
+
+        log.warn("Board hash {} collides with a different stored board, new train example skipped", boardHash);
+        return;
+      }
+
+      this.free(previousSlot, boardHash);
+
+    } else if (this.size == this.capacity) {
+
+      this.free(this.oldestSlot, this.getBoardHash(this.oldestSlot));
+    }
+
+    if (this.usedSlots == this.ringSlots) {
+
+      this.compact();
+    }
+
+    int slot = this.nextSlot();
+    this.writeRecord(slot, boardHash, example);
+    this.usedSlots++;
+    this.slotIndex.put(boardHash, slot);
+    this.addLive(slot);
+
+    this.header.putInt(OLDEST_SLOT_OFFSET, this.oldestSlot);
+    this.header.putInt(USED_SLOTS_OFFSET, this.usedSlots);
+  }
+
+  public void putAll(List<AdversaryTrainingExample> examples) {
+
+    for (AdversaryTrainingExample example : examples) {
+
+      this.put(example);
+    }
+  }
+
+  /**
+   * @param boardHash the board hash of an example
+   * @return the slot of the example or -1 if no example with boardHash is stored
+   */
+  public int getSlot(long boardHash) {
+
+    return this.slotIndex.get(boardHash);
+  }
+
+  /**
+   * Materializes the example stored in slot.
+   *
+   * @param slot an occupied slot returned by getSlot
+   * @return a new {@link AdversaryTrainingExample} with the stored values
+   */
+  public AdversaryTrainingExample get(int slot) {
+
+    ByteBuffer record = this.record(slot);
+    int iteration = record.getInt(record.position() + Long.BYTES);
+    int currentPlayer = record.getInt(record.position() + CURRENT_PLAYER_OFFSET);
+    float currentPlayerValue = record.getFloat(record.position() + Long.BYTES + 2 * Integer.BYTES);
+
+    float[] board = new float[this.boardLength];
+    float[] actionProbabilities = new float[this.actionProbabilitiesLength];
+    record.position(record.position() + RECORD_HEADER_BYTES);
+    record.asFloatBuffer().get(board).get(actionProbabilities);
+
+    AdversaryTrainingExample example = new AdversaryTrainingExample(
+        Nd4j.create(board, this.boardShape, 'c'),
+        currentPlayer,
+        Nd4j.createFromArray(actionProbabilities),
+        iteration);
+
+    if (!Float.isNaN(currentPlayerValue)) {
+
+      example.setCurrentPlayerValue(currentPlayerValue);
+    }
+
+    return example;
+  }
+
+  /**
+   * Adds the example with index as next row of miniBatchBuilder.
+   *
+   * @param miniBatchBuilder a builder created by createMiniBatchBuilder
+   * @param index the index of a stored example, smaller than size(), unrelated to its slot and age
+   */
+  @Override
+  public void addTo(MiniBatchBuilder miniBatchBuilder, int index) {
+
+    ByteBuffer record = this.record(this.liveSlots[index]);
+    float currentPlayerValue = record.getFloat(record.position() + Long.BYTES + 2 * Integer.BYTES);
+    record.position(record.position() + RECORD_HEADER_BYTES);
+    miniBatchBuilder.add(record.asFloatBuffer(), currentPlayerValue);
+  }
+
+  /**
+   * @param batchSize maximum number of examples per mini batch
+   * @return a builder for mini batches with the board shape and action probabilities length of this buffer
+   */
+  @Override
+  public MiniBatchBuilder createMiniBatchBuilder(int batchSize) {
+
+    return new MiniBatchBuilder(this.boardShape, this.actionProbabilitiesLength, batchSize);
+  }
+
+  /**
+   * Writes all modified records to the storage device.
+   */
+  public void force() {
+
+    for (MappedByteBuffer segment : this.segments) {
+
+      segment.force();
+    }
+    this.header.force();
+  }
+
+  @Override
+  public void close() {
+
+    this.force();
+  }
+
+  @Override
+  public int size() {
+
+    return this.size;
+  }
+
+  public int capacity() {
+
+    return this.capacity;
+  }
+
+  public Path getPath() {
+
+    return this.path;
+  }
+
+  long getBoardHash(int slot) {
+
+    ByteBuffer record = this.record(slot);
+    return record.getLong(record.position());
+  }
+
+  /**
+   * @param slot an occupied slot
+   * @param board the values of a board with the board hash of slot
+   * @return true if slot stores the same board values
+   */
+  boolean storesBoard(int slot, float[] board) {
+
+    if (board.length != this.boardLength) {
+
+      return false;
+    }
+
+    ByteBuffer record = this.record(slot);
+    record.position(record.position() + RECORD_HEADER_BYTES);
+    FloatBuffer storedBoard = record.asFloatBuffer();
+    for (int index = 0; index < this.boardLength; index++) {
+
+      if (Float.compare(storedBoard.get(index), board[index]) != 0) {
+
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  boolean isFree(int slot) {
+
+    ByteBuffer record = this.record(slot);
+    return FREE_RECORD_PLAYER == record.getInt(record.position() + CURRENT_PLAYER_OFFSET);
+  }
+
+  int nextSlot() {
+
+    return (this.oldestSlot + this.usedSlots) % this.ringSlots;
+  }
+
+  /**
+   * Frees the record in slot and releases freed records at the start of the ring,
+   * the oldest slot is a live record again afterwards.
+   */
+  void free(int slot, long boardHash) {
+
+    this.slotIndex.remove(boardHash);
+    this.removeLive(slot);
+    ByteBuffer record = this.record(slot);
+    record.putInt(record.position() + CURRENT_PLAYER_OFFSET, FREE_RECORD_PLAYER);
+
+    while (0 < this.usedSlots && this.isFree(this.oldestSlot)) {
+
+      this.oldestSlot = (this.oldestSlot + 1) % this.ringSlots;
+      this.usedSlots--;
+    }
+  }
+
+  /**
+   * Moves the live records in ring order towards the oldest slot, a record is only copied over a freed
+   * or an already copied record. Afterwards the used slots are exactly the live ones.
+   */
+  void compact() {
+
+    int targetSlot = this.oldestSlot;
+    for (int used = 0; used < this.usedSlots; used++) {
+
+      int slot = (this.oldestSlot + used) % this.ringSlots;
+      if (!this.isFree(slot)) {
+
+        if (slot != targetSlot) {
+
+          ByteBuffer targetRecord = this.record(targetSlot);
+          targetRecord.put(this.record(slot));
+          this.slotIndex.put(this.getBoardHash(targetSlot), targetSlot);
+          int position = this.livePositions[slot];
+          this.liveSlots[position] = targetSlot;
+          this.livePositions[targetSlot] = position;
+
+          ByteBuffer record = this.record(slot);
+          record.putInt(record.position() + CURRENT_PLAYER_OFFSET, FREE_RECORD_PLAYER);
+        }
+        targetSlot = (targetSlot + 1) % this.ringSlots;
+      }
+    }
+
+    this.usedSlots = this.size;
+  }
+
+  void addLive(int slot) {
+
+    this.liveSlots[this.size] = slot;
+    this.livePositions[slot] = this.size;
+    this.size++;
+  }
+
+  void removeLive(int slot) {
+
+    int position = this.livePositions[slot];
+    this.size--;
+    int lastSlot = this.liveSlots[this.size];
+    this.liveSlots[position] = lastSlot;
+    this.livePositions[lastSlot] = position;
+  }
+
+  void writeRecord(int slot, long boardHash, AdversaryTrainingExample example) {
+
+    float[] board = TrainExamplesFile.toFloatVector(example.getBoard());
+    if (this.boardLength != board.length) {
+
+      throw new IllegalArgumentException("Board length " + board.length +
+          " does not match replay buffer board shape " + Arrays.toString(this.boardShape));
+    }
+
+    float[] actionProbabilities = TrainExamplesFile.toFloatVector(example.getActionIndexProbabilities());
+    if (this.actionProbabilitiesLength < actionProbabilities.length) {
+
+      throw new IllegalArgumentException("Training example has " + actionProbabilities.length +
+          " action probabilities, more than " + this.actionProbabilitiesLength + " of the replay buffer");
+    }
+    // Leave remaining moves at the end with 0, like pass in Go
+    actionProbabilities = Arrays.copyOf(actionProbabilities, this.actionProbabilitiesLength);
+
+    Float currentPlayerValue = example.getCurrentPlayerValue();
+
+    ByteBuffer record = this.record(slot);
+    record.putLong(boardHash);
+    record.putInt(example.getIteration());
+    record.putInt(example.getCurrentPlayer());
+    record.putFloat(null == currentPlayerValue ? Float.NaN : currentPlayerValue);
+    record.asFloatBuffer().put(board).put(actionProbabilities);
+  }
+
+  /**
+   * @return a view positioned at the start of slot, limited to its record
+   */
+  ByteBuffer record(int slot) {
+
+    int recordStart = (slot % this.recordsPerSegment) * this.recordBytes;
+    ByteBuffer record = this.segments[slot / this.recordsPerSegment].duplicate();
+    record.limit(recordStart + this.recordBytes);
+    record.position(recordStart);
+
+    return record;
+  }
+
+  void writeHeader() {
+
+    this.header.putInt(0, MAGIC);
+    this.header.putInt(Integer.BYTES, VERSION);
+    this.header.putInt(2 * Integer.BYTES, this.capacity);
+    this.header.putInt(OLDEST_SLOT_OFFSET, 0);
+    this.header.putInt(USED_SLOTS_OFFSET, 0);
+    this.header.putInt(5 * Integer.BYTES, this.boardShape.length);
+    for (int dimension = 0; dimension < this.boardShape.length; dimension++) {
+
+      this.header.putLong(6 * Integer.BYTES + dimension * Long.BYTES, this.boardShape[dimension]);
+    }
+    this.header.putInt(this.headerBytes - Integer.BYTES, this.actionProbabilitiesLength);
+  }
+
+  /**
+   * Records never cross a segment, each segment stays below the 2 GB limit of one mapping.
+   */
+  void mapSegments(FileChannel channel) throws IOException {
+
+    this.segments = new MappedByteBuffer[(this.ringSlots + this.recordsPerSegment - 1) / this.recordsPerSegment];
+    for (int segment = 0; segment < this.segments.length; segment++) {
+
+      long firstSlot = (long) segment * this.recordsPerSegment;
+      long segmentSlots = Math.min(this.recordsPerSegment, this.ringSlots - firstSlot);
+      this.segments[segment] = channel.map(MapMode.READ_WRITE,
+          this.headerBytes + firstSlot * this.recordBytes,
+          segmentSlots * this.recordBytes);
+    }
+  }
+
+  void checkHeader() throws IOException {
+
+    if (MAGIC != this.header.getInt(0)) {
+
+      throw new IOException(this.path + " is no replay buffer file");
+    }
+    int version = this.header.getInt(Integer.BYTES);
+    if (VERSION != version) {
+
+      throw new IOException("Unsupported replay buffer version " + version + " in " + this.path);
+    }
+
+    long[] storedBoardShape = new long[this.header.getInt(5 * Integer.BYTES)];
+    if (storedBoardShape.length == this.boardShape.length) {
+
+      for (int dimension = 0; dimension < storedBoardShape.length; dimension++) {
+
+        storedBoardShape[dimension] = this.header.getLong(6 * Integer.BYTES + dimension * Long.BYTES);
+      }
+    }
+    if (this.capacity != this.header.getInt(2 * Integer.BYTES) ||
+        !Arrays.equals(this.boardShape, storedBoardShape) ||
+        this.actionProbabilitiesLength != this.header.getInt(this.headerBytes - Integer.BYTES)) {
+
+      throw new IllegalArgumentException(this.path + " was created with a different capacity or example shape");
+    }
+  }
+
+  void readIndex() {
+
+    this.oldestSlot = this.header.getInt(OLDEST_SLOT_OFFSET);
+    this.usedSlots = this.header.getInt(USED_SLOTS_OFFSET);
+    for (int used = 0; used < this.usedSlots; used++) {
+
+      int slot = (this.oldestSlot + used) % this.ringSlots;
+      if (!this.isFree(slot)) {
+
+        this.slotIndex.put(this.getBoardHash(slot), slot);
+        this.addLive(slot);
+      }
+    }
+  }
+
+  /**
+   * Open addressing hash index from board hash to slot with linear probing,
+   * avoiding one boxed key and value per stored example.
+   */
+  static class SlotIndex {
+
+    static final int NO_SLOT = -1;
+
+    static final int MAX_CAPACITY = 1 << 29;
+
+    private final long[] boardHashes;
+
+    private final int[] slots;
+
+    private final int mask;
+
+    SlotIndex(int capacity) {
+
+      int tableSize = Integer.highestOneBit(Math.max(1, 2 * capacity - 1)) << 1;
+      this.boardHashes = new long[tableSize];
+      this.slots = new int[tableSize];
+      this.mask = tableSize - 1;
+      Arrays.fill(this.slots, NO_SLOT);
+    }
+
+    int get(long boardHash) {
+
+      for (int bucket = this.bucket(boardHash); NO_SLOT != this.slots[bucket]; bucket = (bucket + 1) & this.mask) {
+
+        if (boardHash == this.boardHashes[bucket]) {
+
+          return this.slots[bucket];
+        }
+      }
+
+      return NO_SLOT;
+    }
+
+    void put(long boardHash, int slot) {
+
+      int bucket = this.bucket(boardHash);
+      while (NO_SLOT != this.slots[bucket] && boardHash != this.boardHashes[bucket]) {
+
+        bucket = (bucket + 1) & this.mask;
+      }
+
+      this.boardHashes[bucket] = boardHash;
+      this.slots[bucket] = slot;
+    }
+
+    void remove(long boardHash) {
+
+      int emptyBucket = this.bucket(boardHash);
+      while (boardHash != this.boardHashes[emptyBucket] || NO_SLOT == this.slots[emptyBucket]) {
+
+        if (NO_SLOT == this.slots[emptyBucket]) {
+
+          return;
+        }
+        emptyBucket = (emptyBucket + 1) & this.mask;
+      }
+
+      // Shift following entries of the probe sequence back to keep them reachable
+      for (int bucket = (emptyBucket + 1) & this.mask; NO_SLOT != this.slots[bucket]; bucket = (bucket + 1) & this.mask) {
+
+        int homeBucket = this.bucket(this.boardHashes[bucket]);
+        boolean homeAfterEmpty = emptyBucket <= bucket ?
+            emptyBucket < homeBucket && homeBucket <= bucket :
+            emptyBucket < homeBucket || homeBucket <= bucket;
+
+        if (!homeAfterEmpty) {
+
+          this.boardHashes[emptyBucket] = this.boardHashes[bucket];
+          this.slots[emptyBucket] = this.slots[bucket];
+          emptyBucket = bucket;
+        }
+      }
+
+      this.slots[emptyBucket] = NO_SLOT;
+    }
+
+    int bucket(long boardHash) {
+
+      long mixed = boardHash * 0x9E3779B97F4A7C15L;
+      return (int) (mixed ^ (mixed >>> 32)) & this.mask;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package ch.evolutionsoft.rl;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * {@link MiniBatchBuilder} collects the boards, action probabilities and values of up to batchSize
+ * {@link AdversaryTrainingExample} in reusable primitive arrays. build() creates each feature and label
+ * {@link INDArray} of the mini batch with one bulk copy.
+ *
+ * All action probabilities have the fixed length of the builder. Shorter action probabilities are padded
+ * with 0 at the end, like the pass move in Go.
+ *
+ * A {@link MiniBatchBuilder} is not thread safe.
+ *
+ * @author evolutionsoft
+ */
+public class MiniBatchBuilder {
+
+  private final long[] boardShape;
+
+  private final int boardLength;
+
+  private final int actionProbabilitiesLength;
+
+  private final int batchSize;
+
+  private final float[] boards;
+
+  private final float[] actionProbabilities;
+
+  private final float[] values;
+
+  private int size;
+
+  public MiniBatchBuilder(long[] boardShape, int actionProbabilitiesLength, int batchSize) {
+
+    this.boardShape = boardShape.clone();
+    this.boardLength = (int) Arrays.stream(boardShape).reduce(1, (first, second) -> first * second);
+    this.actionProbabilitiesLength = actionProbabilitiesLength;
+    this.batchSize = batchSize;
+    this.boards = new float[batchSize * this.boardLength];
+    this.actionProbabilities = new float[batchSize * actionProbabilitiesLength];
+    this.values = new float[batchSize];
+  }
+
+  /**
+   * @param example the train example to add as next row
+   */
+  public void add(AdversaryTrainingExample example) {
+
+    this.requireSpace();
+
+    float[] board = TrainExamplesFile.toFloatVector(example.getBoard());
+    if (this.boardLength != board.length) {
+
+      throw new IllegalArgumentException("Training example board with shape " +
+          Arrays.toString(example.getBoard().shape()) + " does not match " + Arrays.toString(this.boardShape));
+    }
+
+    float[] exampleActionProbabilities = TrainExamplesFile.toFloatVector(example.getActionIndexProbabilities());
+    if (this.actionProbabilitiesLength < exampleActionProbabilities.length) {
+
+      throw new IllegalArgumentException(
+          "Training example has more action than maximally specified by game.getNumberOfAllAvailableMoves()\n"
+              + "Max specified shape is " + this.actionProbabilitiesLength + " versus training example "
+              + example.getActionIndexProbabilities());
+    }
+
+    int actionStart = this.size * this.actionProbabilitiesLength;
+    System.arraycopy(board, 0, this.boards, this.size * this.boardLength, this.boardLength);
+    System.arraycopy(exampleActionProbabilities, 0, this.actionProbabilities, actionStart,
+        exampleActionProbabilities.length);
+    Arrays.fill(this.actionProbabilities, actionStart + exampleActionProbabilities.length,
+        actionStart + this.actionProbabilitiesLength, 0f);
+    this.values[this.size] = example.getCurrentPlayerValue();
+    this.size++;
+  }
+
+  /**
+   * Adds the next row from stored floats, the board followed by the complete action probabilities.
+   *
+   * @param boardAndActionProbabilities buffer positioned at the board of the example
+   * @param value the current player value of the example
+   */
+  public void add(FloatBuffer boardAndActionProbabilities, float value) {
+
+    this.requireSpace();
+
+    boardAndActionProbabilities.
+        get(this.boards, this.size * this.boardLength, this.boardLength).
+        get(this.actionProbabilities, this.size * this.actionProbabilitiesLength, this.actionProbabilitiesLength);
+    this.values[this.size] = value;
+    this.size++;
+  }
+
+  /**
+   * Creates the mini batch of all added rows and clears the builder for the next mini batch.
+   *
+   * @return the board features, action probability labels and value labels
+   */
+  public MultiDataSet build() {
+
+    long[] inputShape = new long[this.boardShape.length + 1];
+    inputShape[0] = this.size;
+    System.arraycopy(this.boardShape, 0, inputShape, 1, this.boardShape.length);
+
+    INDArray inputBoards = Nd4j.create(this.filledRows(this.boards, this.boardLength), inputShape, 'c');
+    INDArray probabilitiesLabels = Nd4j.create(
+        this.filledRows(this.actionProbabilities, this.actionProbabilitiesLength),
+        new long[] {this.size, this.actionProbabilitiesLength}, 'c');
+    INDArray valueLabels = Nd4j.create(this.filledRows(this.values, 1), new long[] {this.size, 1}, 'c');
+
+    this.size = 0;
+
+    return new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[] { inputBoards },
+        new INDArray[] { probabilitiesLabels, valueLabels });
+  }
+
+  public boolean isFull() {
+
+    return this.batchSize == this.size;
+  }
+
+  public boolean isEmpty() {
+
+    return 0 == this.size;
+  }
+
+  public int size() {
+
+    return this.size;
+  }
+
+  public int getBatchSize() {
+
+    return this.batchSize;
+  }
+
+  /**
+   * Nd4j copies the data while creating the arrays, full rows are passed without another copy.
+   */
+  float[] filledRows(float[] rows, int rowLength) {
+
+    return this.isFull() ? rows : Arrays.copyOf(rows, this.size * rowLength);
+  }
+
+  void requireSpace() {
+
+    if (this.isFull()) {
+
+      throw new IllegalStateException("Mini batch already contains " + this.batchSize + " examples");
+    }
+  }
+}
@@ -1,9 +1,16 @@
 package ch.evolutionsoft.rl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -11,7 +18,21 @@ import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MonteCarloTreeSearch {
+/**
+ * A tree parallel search runs on own threads, created with the first search and reused by all further
+ * searches of this instance. Close the instance after its last search to stop them.
+ */
+public class MonteCarloTreeSearch implements AutoCloseable {
+  
+  /**
+   * One reusable {@link ArenaTree} per search thread, grown as needed and cleared for each search.
+   */
+  static final ThreadLocal<ArenaTree> ARENA_TREES = ThreadLocal.withInitial(() -> new ArenaTree(1024));
+  
+  /**
+   * The ignored search settings of useArenaTree are logged once, not for each search instance.
+   */
+  static final AtomicBoolean ARENA_TREE_SETTINGS_WARNED = new AtomicBoolean();
   
   Logger logger = LoggerFactory.getLogger(MonteCarloTreeSearch.class);
 
@@ -19,88 +40,529 @@ public class MonteCarloTreeSearch {
   
   int numberOfSimulations;
 
+  int leafBatchSize;
+
   ComputationGraph computationGraph;
   
   TreeNode rootNode;
   
-  Map<INDArray, INDArray[]> neuralNetOutputsByBoardInputs = new HashMap<>();
+  /**
+   * True after updateWithMove advanced rootNode to the subtree of the played move.
+   * The next search then continues with that subtree instead of a new root node.
+   */
+  boolean rootAdvanced;
+  
+  NeuralNetOutputCache neuralNetOutputCache;
+  
+  BatchInferenceServer inferenceServer;
+  
+  boolean useArenaTree;
+  
+  ArenaTree arenaTree;
+  
+  float[] arenaActionProbabilities;
+  
+  /**
+   * Reusable buffer for {@link Game} fillValidMoveIndices of the single threaded searches.
+   */
+  int[] validMoveIndices;
+  
+  int numberOfSearchThreads;
+  
+  long searchTimeLimitMillis;
+  
+  long inferenceMaxWaitMicros;
+  
+  /**
+   * Threads of the tree parallel search, created with the first search.
+   */
+  ExecutorService searchExecutor;
+  
+  /**
+   * Evaluates the leaf boards of the tree parallel search if no inferenceServer was given,
+   * created with the first search.
+   */
+  BatchInferenceServer searchInferenceServer;
   
   public MonteCarloTreeSearch(ComputationGraph computationGraph, AdversaryLearningConfiguration configuration) {
     
+    this(computationGraph, configuration,
+        new NeuralNetOutputCache(configuration.getNeuralNetOutputCacheSize()));
+  }
+  
+  /**
+   * @param computationGraph the neural net to evaluate leaf boards
+   * @param configuration the {@link AdversaryLearningConfiguration} to use
+   * @param neuralNetOutputCache a cache of computationGraph outputs, potentially shared with other searches
+   */
+  public MonteCarloTreeSearch(ComputationGraph computationGraph, AdversaryLearningConfiguration configuration,
+      NeuralNetOutputCache neuralNetOutputCache) {
+    
+    this(computationGraph, configuration, neuralNetOutputCache, null);
+  }
+  
+  /**
+   * @param computationGraph the neural net to evaluate leaf boards
+   * @param configuration the {@link AdversaryLearningConfiguration} to use
+   * @param neuralNetOutputCache a cache of computationGraph outputs, potentially shared with other searches
+   * @param inferenceServer a running {@link BatchInferenceServer} evaluating leaf boards together with
+   *   other searches, or null to call computationGraph output directly
+   */
+  public MonteCarloTreeSearch(ComputationGraph computationGraph, AdversaryLearningConfiguration configuration,
+      NeuralNetOutputCache neuralNetOutputCache, BatchInferenceServer inferenceServer) {
+    
     this.computationGraph = computationGraph;
+    this.neuralNetOutputCache = neuralNetOutputCache;
+    this.inferenceServer = inferenceServer;
     this.currentUctConstant = configuration.getuctConstantFactor();
     this.numberOfSimulations = configuration.getNumberOfMonteCarloSimulations();
+    this.leafBatchSize = configuration.getMonteCarloLeafBatchSize();
+    this.useArenaTree = configuration.isUseArenaTree();
+    this.numberOfSearchThreads = configuration.getNumberOfSearchThreads();
+    this.searchTimeLimitMillis = configuration.getSearchTimeLimitMillis();
+    this.inferenceMaxWaitMicros = configuration.getInferenceMaxWaitMicros();
+    
+    if (this.useArenaTree && (this.leafBatchSize > 1 || this.numberOfSearchThreads > 1) &&
+        ARENA_TREE_SETTINGS_WARNED.compareAndSet(false, true)) {
+      
+      logger.warn("useArenaTree ignores monteCarloLeafBatchSize {} and numberOfSearchThreads {},"
+          + " every playout is evaluated separately on the searching thread",
+          this.leafBatchSize,
+          this.numberOfSearchThreads);
+    }
   }
   
+  /**
+   * @param treeNode the root node of the playout
+   * @param game a game instance in the root node state, returned to that state if it supports unmakeMove
+   */
   void playout(TreeNode treeNode, Game game) {
     
+    TreeNode playoutRoot = treeNode;
     while (treeNode.isExpanded()) {
       
       treeNode = treeNode.selectMove(this.currentUctConstant);
-      game.makeMove(treeNode.lastMove, treeNode.lastMoveColor);
+      game.playMove(treeNode.lastMove, treeNode.lastMoveColor);
     }
     
-    INDArray currentBoard = game.getCurrentBoard();
+    try {
       
-    long[] newShape = new long[currentBoard.shape().length + 1];
-    System.arraycopy(currentBoard.shape(), 0, newShape, 1, currentBoard.shape().length);
-    newShape[0] = 1;
-    INDArray oneBatchBoard = currentBoard.reshape(newShape);
-    INDArray[] neuralNetOutput = this.computationGraph.output(oneBatchBoard);
+      this.evaluateLeaf(treeNode, game);
+    
+    } finally {
+      
+      unmakeMoves(game, treeNode, playoutRoot);
+    }
+  }
+  
+  void evaluateLeaf(TreeNode treeNode, Game game) {
+    
+    if (game.gameEnded()) {
+      
+      backupAndExpand(treeNode, game, null, AdversaryLearning.DRAW_VALUE);
+      return;
+    }
+    
+    long positionHash = game.getPositionHash();
+    NeuralNetOutputCache.CachedOutput cachedOutput = this.neuralNetOutputCache.get(positionHash);
+    
+    if (null != cachedOutput) {
+      
+      backupAndExpand(treeNode, game, cachedOutput.getActionProbabilities().clone(), cachedOutput.getValue());
+      return;
+    }
+
+    INDArray[] neuralNetOutput = this.evaluateBoard(game.getCurrentBoard());
     
-    INDArray actionProbabilities = neuralNetOutput[0];
     double leafValue = neuralNetOutput[1].getDouble(0);
+    this.neuralNetOutputCache.put(positionHash, neuralNetOutput[0], leafValue);
+    
+    backupAndExpand(treeNode, game, neuralNetOutput[0].toFloatVector(), leafValue);
+  }
 
-    INDArray validActionProbabilities = actionProbabilities.mul(game.getValidMoves());
-    validActionProbabilities = validActionProbabilities.div(validActionProbabilities.sumNumber());
+  /**
+   * Takes back the moves from playoutRoot down to leafNode if game supports unmakeMove.
+   */
+  static void unmakeMoves(Game game, TreeNode leafNode, TreeNode playoutRoot) {
     
-    boolean gameEnded = game.gameEnded();
-    if (gameEnded) {
+    if (game.supportsUnmakeMove()) {
+      
+      for (TreeNode treeNode = leafNode; treeNode != playoutRoot; treeNode = treeNode.parent) {
+        
+        game.unmakeMove();
+      }
+    }
+  }
+  
+  /**
+   * @param searchGame a copy of the searched game in the root node state
+   * @return searchGame itself if it supports unmakeMove, a new instance of it otherwise
+   */
+  static Game getPlayoutGame(Game searchGame) {
+    
+    return searchGame.supportsUnmakeMove() ? searchGame : searchGame.createNewInstance();
+  }
+  
+  /**
+   * Descends up to leafBatchSize times from the root with virtual loss applied along each path,
+   * evaluates all collected leaves with one {@link ComputationGraph} output call and backs them up.
+   * A descent reaching a leaf already pending in the current batch ends the batch early.
+   * Every leaf keeps its own game instance until the batch is evaluated, unmakeMove is not used here.
+   * 
+   * @param currentGame the game state at the root node
+   * @param maxLeaves upper limit of leaves to collect in this batch
+   * @return the number of performed playouts
+   */
+  int batchedPlayouts(Game currentGame, int maxLeaves) {
+    
+    List<TreeNode> leafNodes = new ArrayList<>(maxLeaves);
+    List<Game> leafGames = new ArrayList<>(maxLeaves);
+    
+    while (leafNodes.size() < maxLeaves) {
+      
+      TreeNode treeNode = this.rootNode;
+      Game game = currentGame.createNewInstance();
 
-      double endResult = game.getEndResult(treeNode.lastMoveColor);
+      while (treeNode.isExpanded()) {
+        
+        treeNode = treeNode.selectMove(this.currentUctConstant);
+        game.playMove(treeNode.lastMove, treeNode.lastMoveColor);
+      }
+      
+      if (treeNode.virtualLoss > 0) {
+        
+        break;
+      }
+      
+      treeNode.applyVirtualLoss();
+      leafNodes.add(treeNode);
+      leafGames.add(game);
+    }
 
-      leafValue = endResult;
-      if (Game.MAX_PLAYER == treeNode.lastMoveColor) {
+    List<INDArray> leafBoards = new ArrayList<>(leafNodes.size());
+    long[] leafPositionHashes = new long[leafNodes.size()];
+    NeuralNetOutputCache.CachedOutput[] cachedOutputs = new NeuralNetOutputCache.CachedOutput[leafNodes.size()];
+    for (int leafIndex = 0; leafIndex < leafNodes.size(); leafIndex++) {
+      
+      Game leafGame = leafGames.get(leafIndex);
+      if (!leafGame.gameEnded()) {
+        
+        leafPositionHashes[leafIndex] = leafGame.getPositionHash();
+        cachedOutputs[leafIndex] = this.neuralNetOutputCache.get(leafPositionHashes[leafIndex]);
+        
+        if (null == cachedOutputs[leafIndex]) {
 
-        leafValue = 1 - leafValue;
+          leafBoards.add(leafGame.getCurrentBoard());
+        }
       }
     }
     
-    treeNode.updateRecursiv(1 - leafValue);
+    List<INDArray[]> neuralNetOutputs = this.evaluateBoards(leafBoards);
     
-    if (!gameEnded) {
+    double[] backupValues = new double[leafNodes.size()];
+    float[][] leafActionProbabilities = new float[leafNodes.size()][];
+    int outputRow = 0;
+    for (int leafIndex = 0; leafIndex < leafNodes.size(); leafIndex++) {
+      
+      Game leafGame = leafGames.get(leafIndex);
+      double leafValue;
+      
+      if (leafGame.gameEnded()) {
 
-      treeNode.expand(game, validActionProbabilities);
+        leafValue = getTerminalLeafValue(leafGame, leafNodes.get(leafIndex).lastMoveColor);
+      
+      } else if (null != cachedOutputs[leafIndex]) {
+        
+        leafActionProbabilities[leafIndex] = cachedOutputs[leafIndex].getActionProbabilities().clone();
+        leafValue = cachedOutputs[leafIndex].getValue();
+
+      } else {
+
+        INDArray leafOutputProbabilities = neuralNetOutputs.get(outputRow)[0];
+        leafActionProbabilities[leafIndex] = leafOutputProbabilities.toFloatVector();
+        leafValue = neuralNetOutputs.get(outputRow)[1].getDouble(0);
+        this.neuralNetOutputCache.put(leafPositionHashes[leafIndex], leafOutputProbabilities, leafValue);
+        outputRow++;
+      }
+      
+      backupValues[leafIndex] = 1 - leafValue;
     }
+    
+    TreeNode.backup(leafNodes, backupValues, true);
+    
+    for (int leafIndex = 0; leafIndex < leafNodes.size(); leafIndex++) {
+      
+      if (null != leafActionProbabilities[leafIndex]) {
+        
+        expand(leafNodes.get(leafIndex), leafGames.get(leafIndex), leafActionProbabilities[leafIndex],
+            this.getValidMoveIndicesBuffer(currentGame));
+      }
+    }
+    
+    return leafNodes.size();
   }
-
-  public INDArray getActionValues(Game currentGame, double temperature) {
+  
+  INDArray[] evaluateBoard(INDArray board) {
     
-    int playouts = 0;
-    this.rootNode = new TreeNode(-1, currentGame.getOtherPlayer(currentGame.currentPlayer), 0, 1.0, 0.5, null);
-
-    while (playouts < numberOfSimulations) {
-
-      TreeNode treeNode = rootNode;
-      Game newGameInstance = currentGame.createNewInstance();
-      this.playout(treeNode, newGameInstance);
-      playouts++;
+    if (null != this.inferenceServer) {
+      
+      return this.inferenceServer.submit(board).join();
     }
     
-    int[] visitedCounts = new int[currentGame.getNumberOfCurrentMoves()];
-    int maxVisitedCounts = 0;
+    long[] newShape = new long[board.shape().length + 1];
+    System.arraycopy(board.shape(), 0, newShape, 1, board.shape().length);
+    newShape[0] = 1;
+    INDArray oneBatchBoard = board.reshape(newShape);
 
-    for (int index = 0; index < currentGame.getNumberOfCurrentMoves(); index++) {
+    return this.output(oneBatchBoard);
+  }
+  
+  /**
+   * @param boards the boards to evaluate
+   * @return action probabilities and value outputs for each of the given boards
+   */
+  List<INDArray[]> evaluateBoards(List<INDArray> boards) {
+    
+    List<INDArray[]> neuralNetOutputs = new ArrayList<>(boards.size());
+    if (boards.isEmpty()) {
       
-      if (this.rootNode.containsChildMoveIndex(index)) {
+      return neuralNetOutputs;
+    }
+    
+    if (null != this.inferenceServer) {
+      
+      List<CompletableFuture<INDArray[]>> pendingOutputs = new ArrayList<>(boards.size());
+      for (INDArray board : boards) {
         
-        visitedCounts[index] = this.rootNode.getChildWithMoveIndex(index).timesVisited;
-        if (visitedCounts[index] > maxVisitedCounts) {
+        pendingOutputs.add(this.inferenceServer.submit(board));
+      }
+      for (CompletableFuture<INDArray[]> pendingOutput : pendingOutputs) {
+        
+        neuralNetOutputs.add(pendingOutput.join());
+      }
+      
+      return neuralNetOutputs;
+    }
+    
+    INDArray[] batchOutput = this.output(Nd4j.pile(boards));
+    for (int row = 0; row < boards.size(); row++) {
+      
+      neuralNetOutputs.add(new INDArray[] {batchOutput[0].getRow(row), batchOutput[1].getRow(row)});
+    }
+    
+    return neuralNetOutputs;
+  }
+  
+  /**
+   * {@link ComputationGraph} output is not thread safe. Several searches running in parallel
+   * self play workers share one computationGraph and synchronize on it.
+   * 
+   * @param boardBatch a batch of board inputs
+   * @return the neural net outputs for boardBatch
+   */
+  INDArray[] output(INDArray boardBatch) {
+    
+    synchronized (this.computationGraph) {
+      
+      return this.computationGraph.output(boardBatch);
+    }
+  }
+  
+  /**
+   * Same as playout, but using the primitive arrays of arenaTree instead of {@link TreeNode} objects.
+   * 
+   * @param game a game instance in the root node state, returned to that state if it supports unmakeMove
+   */
+  void arenaPlayout(Game game) {
+    
+    int node = ArenaTree.ROOT;
+    while (this.arenaTree.isExpanded(node)) {
+      
+      node = this.arenaTree.selectChild(node, this.currentUctConstant);
+      game.playMove(this.arenaTree.getMove(node), this.arenaTree.getLastMoveColor(node));
+    }
+    
+    try {
+      
+      this.evaluateArenaLeaf(node, game);
+    
+    } finally {
+      
+      if (game.supportsUnmakeMove()) {
+        
+        for (int current = node; ArenaTree.ROOT != current; current = this.arenaTree.getParent(current)) {
           
-          maxVisitedCounts = visitedCounts[index];
+          game.unmakeMove();
         }
       }
     }
+  }
+  
+  void evaluateArenaLeaf(int node, Game game) {
+    
+    int lastMoveColor = this.arenaTree.getLastMoveColor(node);
+    if (game.gameEnded()) {
+      
+      this.arenaTree.backup(node, 1 - getTerminalLeafValue(game, lastMoveColor));
+      return;
+    }
+    
+    long positionHash = game.getPositionHash();
+    NeuralNetOutputCache.CachedOutput cachedOutput = this.neuralNetOutputCache.get(positionHash);
+    
+    double leafValue;
+    if (null != cachedOutput) {
+      
+      System.arraycopy(cachedOutput.getActionProbabilities(), 0, this.arenaActionProbabilities, 0,
+          this.arenaActionProbabilities.length);
+      leafValue = cachedOutput.getValue();
+
+    } else {
+
+      INDArray[] neuralNetOutput = this.evaluateBoard(game.getCurrentBoard());
+      leafValue = neuralNetOutput[1].getDouble(0);
+      this.neuralNetOutputCache.put(positionHash, neuralNetOutput[0], leafValue);
+      
+      for (int moveIndex = 0; moveIndex < this.arenaActionProbabilities.length; moveIndex++) {
+        
+        this.arenaActionProbabilities[moveIndex] = neuralNetOutput[0].getFloat(moveIndex);
+      }
+    }
+    
+    this.arenaTree.backup(node, 1 - leafValue);
+    
+    int[] validMoves = this.getValidMoveIndicesBuffer(game);
+    int numberOfValidMoves = normalizeValidMoveProbabilities(game, this.arenaActionProbabilities, validMoves);
+    
+    this.arenaTree.expand(node, validMoves, numberOfValidMoves, this.arenaActionProbabilities,
+        game.getOtherPlayer(lastMoveColor));
+  }
+  
+  /**
+   * @param game a game in an ended state
+   * @param lastMoveColor the player who made the last move
+   * @return the end result seen by the player to move next
+   */
+  static double getTerminalLeafValue(Game game, int lastMoveColor) {
+
+    double leafValue = game.getEndResult(lastMoveColor);
+    if (Game.MAX_PLAYER == lastMoveColor) {
+
+      leafValue = 1 - leafValue;
+    }
+    
+    return leafValue;
+  }
+  
+  void backupAndExpand(TreeNode treeNode, Game game, float[] actionProbabilities, double leafValue) {
+    
+    boolean gameEnded = game.gameEnded();
+    if (gameEnded) {
+
+      leafValue = getTerminalLeafValue(game, treeNode.lastMoveColor);
+    }
+    
+    treeNode.backup(1 - leafValue, false);
+    
+    if (!gameEnded) {
+
+      expand(treeNode, game, actionProbabilities, this.getValidMoveIndicesBuffer(game));
+    }
+  }
+  
+  /**
+   * @param treeNode the leaf to expand
+   * @param game the game in the leaf state
+   * @param actionProbabilities the neural net action probabilities, normalized in place
+   * @param validMoveIndices buffer of at least getNumberOfAllAvailableMoves() length
+   */
+  static void expand(TreeNode treeNode, Game game, float[] actionProbabilities, int[] validMoveIndices) {
+
+    int numberOfValidMoves = normalizeValidMoveProbabilities(game, actionProbabilities, validMoveIndices);
+
+    treeNode.expand(game, validMoveIndices, numberOfValidMoves, actionProbabilities);
+  }
+  
+  /**
+   * Normalizes the action probabilities of the valid moves to sum one, without touching invalid indices.
+   * 
+   * @param game the game providing the valid moves
+   * @param actionProbabilities the neural net action probabilities, normalized in place
+   * @param validMoveIndices buffer filled with the valid move indices of game
+   * @return the number of valid moves in validMoveIndices
+   */
+  static int normalizeValidMoveProbabilities(Game game, float[] actionProbabilities, int[] validMoveIndices) {
+    
+    int numberOfValidMoves = game.fillValidMoveIndices(validMoveIndices);
+    
+    float validProbabilitiesSum = 0;
+    for (int index = 0; index < numberOfValidMoves; index++) {
+      
+      validProbabilitiesSum += actionProbabilities[validMoveIndices[index]];
+    }
+    for (int index = 0; index < numberOfValidMoves; index++) {
+      
+      actionProbabilities[validMoveIndices[index]] /= validProbabilitiesSum;
+    }
+    
+    return numberOfValidMoves;
+  }
+  
+  int[] getValidMoveIndicesBuffer(Game game) {
+    
+    if (null == this.validMoveIndices || this.validMoveIndices.length < game.getNumberOfAllAvailableMoves()) {
+      
+      this.validMoveIndices = new int[game.getNumberOfAllAvailableMoves()];
+    }
+    
+    return this.validMoveIndices;
+  }
+
+  public INDArray getActionValues(Game currentGame, double temperature) {
+    
+    return this.getActionValues(currentGame, temperature, this.numberOfSimulations, this.searchTimeLimitMillis);
+  }
+
+  /**
+   * Search with an explicit budget. The search ends after maxSimulations playouts or when
+   * timeLimitMillis elapsed. With temperature 0 it also ends as soon as the most visited root child
+   * can no longer be overtaken by the remaining playouts, which does not change the chosen move.
+   * A forced move with only one valid move index is returned without search.
+   * 
+   * @param currentGame the game state to search a move for
+   * @param temperature 0 to select the most visited move, > 0 for visit count based probabilities
+   * @param maxSimulations the maximum number of playouts
+   * @param timeLimitMillis wall clock limit of the search, 0 means no limit
+   * @return the move probabilities by move index
+   */
+  public INDArray getActionValues(Game currentGame, double temperature, int maxSimulations, long timeLimitMillis) {
+    
+    int[] validMoveIndices = this.getValidMoveIndicesBuffer(currentGame);
+    int numberOfValidMoves = currentGame.fillValidMoveIndices(validMoveIndices);
+    if (1 == numberOfValidMoves) {
+      
+      return this.getForcedMoveProbabilities(currentGame, validMoveIndices[0]);
+    }
+    validMoveIndices = Arrays.copyOf(validMoveIndices, numberOfValidMoves);
+    
+    long deadlineNanos = 0 < timeLimitMillis ?
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeLimitMillis) :
+        Long.MAX_VALUE;
+    boolean earlyStop = 0 == temperature;
+    
+    int[] visitedCounts;
+    if (this.useArenaTree) {
+      
+      visitedCounts = this.searchArenaTree(currentGame, maxSimulations, deadlineNanos, earlyStop);
+    
+    } else if (this.numberOfSearchThreads > 1) {
+      
+      visitedCounts = this.searchTreeParallel(currentGame, maxSimulations, deadlineNanos, earlyStop);
+    
+    } else {
+      
+      visitedCounts = this.searchTreeNodes(currentGame, maxSimulations, deadlineNanos, earlyStop);
+    }
     
     INDArray moveProbabilities = Nd4j.zeros(currentGame.getNumberOfCurrentMoves());
 
@@ -121,7 +583,6 @@ public class MonteCarloTreeSearch {
     }
     
     INDArray softmaxParameters = Nd4j.zeros(currentGame.getNumberOfCurrentMoves());
-    Set<Integer> validMoveIndices = currentGame.getValidMoveIndices();
     for (int index : validMoveIndices) {
 
       softmaxParameters.putScalar(index, (1 / temperature) * Math.log(visitedCounts[index] + 1e-8));
@@ -150,22 +611,349 @@ public class MonteCarloTreeSearch {
     return moveProbabilities;
   }
 
+  /**
+   * The root node gets the forced move as only child, so updateWithMove works as after a search.
+   */
+  INDArray getForcedMoveProbabilities(Game currentGame, int forcedMoveIndex) {
+    
+    if (!this.useArenaTree && !this.createOrReuseRoot(currentGame).isExpanded()) {
+      
+      float[] forcedMoveProbabilities = new float[currentGame.getNumberOfAllAvailableMoves()];
+      forcedMoveProbabilities[forcedMoveIndex] = 1;
+      this.rootNode.expand(currentGame, new int[] {forcedMoveIndex}, 1, forcedMoveProbabilities);
+    }
+    
+    INDArray moveProbabilities = Nd4j.zeros(currentGame.getNumberOfCurrentMoves());
+    moveProbabilities.putScalar(forcedMoveIndex, AdversaryLearningConstants.ONE);
+    
+    return moveProbabilities;
+  }
+  
+  static boolean searchTimeExceeded(long deadlineNanos) {
+    
+    return Long.MAX_VALUE != deadlineNanos && System.nanoTime() >= deadlineNanos;
+  }
+
+  /**
+   * Reuses the subtree of the last played moves if updateWithMove was called after the previous search,
+   * otherwise a new root node is created. Visits of a reused subtree count towards the simulation budget.
+   * 
+   * @param currentGame the game state to search
+   * @return the root node for the search
+   */
+  TreeNode createOrReuseRoot(Game currentGame) {
+    
+    int lastMoveColor = currentGame.getOtherPlayer(currentGame.currentPlayer);
+    boolean reuseRoot = this.rootAdvanced && null != this.rootNode && lastMoveColor == this.rootNode.lastMoveColor;
+    this.rootAdvanced = false;
+    
+    if (!reuseRoot) {
+      
+      this.rootNode = new TreeNode(-1, lastMoveColor, 0, 1.0, 0.5, null);
+    }
+    
+    return this.rootNode;
+  }
+
+  int[] searchTreeNodes(Game currentGame, int maxSimulations, long deadlineNanos, boolean earlyStop) {
+    
+    int playouts = this.createOrReuseRoot(currentGame).timesVisited;
+    Game searchGame = currentGame.createNewInstance();
+
+    while (playouts < maxSimulations && !searchTimeExceeded(deadlineNanos) &&
+        !(earlyStop && this.rootNode.isMostVisitedChildDecided(maxSimulations - playouts))) {
+
+      if (this.leafBatchSize > 1) {
+        
+        playouts += this.batchedPlayouts(currentGame, Math.min(this.leafBatchSize, maxSimulations - playouts));
+      
+      } else {
+
+        this.playout(this.rootNode, getPlayoutGame(searchGame));
+        playouts++;
+      }
+    }
+    
+    return this.getRootVisitedCounts(currentGame);
+  }
+
+  /**
+   * Tree parallel search with numberOfSearchThreads threads descending from the same root node.
+   * Atomic virtual loss lets concurrent descents diverge, each leaf is expanded by the one thread
+   * claiming it first. Leaf boards of all threads are evaluated together by a {@link BatchInferenceServer}.
+   * 
+   * @param currentGame the game state at the root node
+   * @param maxSimulations the maximum number of playouts of all threads together
+   * @param deadlineNanos System.nanoTime() value ending the search
+   * @param earlyStop true to end the search when the most visited root child is decided
+   * @return the visit counts of the root children by move index
+   */
+  int[] searchTreeParallel(Game currentGame, int maxSimulations, long deadlineNanos, boolean earlyStop) {
+    
+    int reusedVisits = this.createOrReuseRoot(currentGame).timesVisited;
+    
+    AtomicInteger remainingPlayouts = new AtomicInteger(Math.max(0, maxSimulations - reusedVisits));
+    
+    this.startSearchThreads();
+    BatchInferenceServer threadInferenceServer = null != this.inferenceServer ?
+        this.inferenceServer : this.searchInferenceServer;
+    
+    List<Future<?>> searchThreads = new ArrayList<>(this.numberOfSearchThreads);
+    try {
+      
+      for (int thread = 0; thread < this.numberOfSearchThreads; thread++) {
+        
+        Game searchGame = currentGame.createNewInstance();
+        searchThreads.add(this.searchExecutor.submit(
+            () -> this.parallelPlayouts(searchGame, remainingPlayouts, deadlineNanos, earlyStop,
+                threadInferenceServer)));
+      }
+      
+      for (Future<?> searchThread : searchThreads) {
+        
+        searchThread.get();
+      }
+
+    } catch (InterruptedException ie) {
+      
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during tree parallel search", ie);
+    
+    } catch (ExecutionException ee) {
+      
+      throw new IllegalStateException("Tree parallel search thread failed", ee.getCause());
+      
+    } finally {
+      
+      // Stops the remaining threads of a failed search
+      for (Future<?> searchThread : searchThreads) {
+        
+        searchThread.cancel(true);
+      }
+    }
+    
+    return this.getRootVisitedCounts(currentGame);
+  }
+  
+  /**
+   * Creates the search threads and, without a given inferenceServer, the own {@link BatchInferenceServer}
+   * once for all searches of this instance.
+   */
+  void startSearchThreads() {
+    
+    if (null != this.searchExecutor) {
+      
+      return;
+    }
+    
+    if (null == this.inferenceServer) {
+      
+      this.searchInferenceServer = new BatchInferenceServer(
+          this.computationGraph, this.numberOfSearchThreads, this.inferenceMaxWaitMicros).start();
+    }
+    
+    this.searchExecutor = Executors.newFixedThreadPool(this.numberOfSearchThreads, runnable -> {
+      
+      Thread thread = new Thread(runnable, "tree-parallel-search");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+  
+  /**
+   * Stops the threads of the tree parallel search, a later search would start new ones.
+   */
+  @Override
+  public void close() {
+    
+    if (null != this.searchExecutor) {
+      
+      this.searchExecutor.shutdownNow();
+      this.searchExecutor = null;
+    }
+    if (null != this.searchInferenceServer) {
+      
+      this.searchInferenceServer.close();
+      this.searchInferenceServer = null;
+    }
+  }
+  
+  void parallelPlayouts(Game searchGame, AtomicInteger remainingPlayouts, long deadlineNanos, boolean earlyStop,
+      BatchInferenceServer searchInferenceServer) {
+    
+    // Playouts still running in other threads are not yet visible in the visit counts
+    int maxPendingPlayouts = this.numberOfSearchThreads;
+    
+    while (!searchTimeExceeded(deadlineNanos) &&
+        !(earlyStop && this.rootNode.isMostVisitedChildDecided((long) remainingPlayouts.get() + maxPendingPlayouts)) &&
+        0 < remainingPlayouts.getAndDecrement()) {
+      
+      while (!this.parallelPlayout(getPlayoutGame(searchGame), searchInferenceServer) &&
+          !searchTimeExceeded(deadlineNanos)) {
+        
+        // The leaf expanded by another thread meanwhile has children now, descend again
+      }
+    }
+  }
+  
+  /**
+   * One playout of the tree parallel search.
+   * 
+   * @param game a game instance in the root node state, returned to that state if it supports unmakeMove
+   * @param searchInferenceServer evaluates the leaf board
+   * @return false if the reached leaf was expanded by another search thread, after waiting for its children
+   */
+  boolean parallelPlayout(Game game, BatchInferenceServer searchInferenceServer) {
+    
+    TreeNode playoutRoot = this.rootNode;
+    TreeNode treeNode = playoutRoot;
+    while (treeNode.isExpanded()) {
+      
+      treeNode = treeNode.selectMove(this.currentUctConstant);
+      game.playMove(treeNode.lastMove, treeNode.lastMoveColor);
+    }
+    
+    try {
+      
+      return this.evaluateParallelLeaf(treeNode, game, searchInferenceServer);
+    
+    } finally {
+      
+      unmakeMoves(game, treeNode, playoutRoot);
+    }
+  }
+  
+  boolean evaluateParallelLeaf(TreeNode treeNode, Game game, BatchInferenceServer searchInferenceServer) {
+    
+    if (game.gameEnded()) {
+      
+      treeNode.backupAtomic(1 - getTerminalLeafValue(game, treeNode.lastMoveColor), false);
+      return true;
+    }
+    
+    if (!treeNode.tryClaimExpansion()) {
+      
+      treeNode.awaitExpansion();
+      return false;
+    }
+    
+    boolean expanded = false;
+    try {
+      
+      this.expandParallelLeaf(treeNode, game, searchInferenceServer);
+      expanded = true;
+      
+    } finally {
+      
+      treeNode.publishExpansion(expanded);
+    }
+    
+    return true;
+  }
+  
+  void expandParallelLeaf(TreeNode treeNode, Game game, BatchInferenceServer searchInferenceServer) {
+    
+    treeNode.applyVirtualLossAtomic();
+    
+    long positionHash = game.getPositionHash();
+    NeuralNetOutputCache.CachedOutput cachedOutput = this.neuralNetOutputCache.get(positionHash);
+    
+    float[] actionProbabilities;
+    double leafValue;
+    if (null != cachedOutput) {
+      
+      actionProbabilities = cachedOutput.getActionProbabilities().clone();
+      leafValue = cachedOutput.getValue();
+    
+    } else {
+      
+      INDArray[] neuralNetOutput = searchInferenceServer.submit(game.getCurrentBoard()).join();
+      actionProbabilities = neuralNetOutput[0].toFloatVector();
+      leafValue = neuralNetOutput[1].getDouble(0);
+      this.neuralNetOutputCache.put(positionHash, neuralNetOutput[0], leafValue);
+    }
+    
+    treeNode.backupAtomic(1 - leafValue, true);
+    
+    expand(treeNode, game, actionProbabilities, new int[game.getNumberOfAllAvailableMoves()]);
+  }
+  
+  int[] getRootVisitedCounts(Game currentGame) {
+    
+    int[] visitedCounts = new int[currentGame.getNumberOfCurrentMoves()];
+
+    for (int index = 0; index < currentGame.getNumberOfCurrentMoves(); index++) {
+      
+      if (this.rootNode.containsChildMoveIndex(index)) {
+        
+        visitedCounts[index] = this.rootNode.getChildWithMoveIndex(index).timesVisited;
+      }
+    }
+    
+    return visitedCounts;
+  }
+
+  int[] searchArenaTree(Game currentGame, int maxSimulations, long deadlineNanos, boolean earlyStop) {
+    
+    this.arenaTree = ARENA_TREES.get();
+    this.arenaTree.resetRoot(currentGame.getOtherPlayer(currentGame.currentPlayer));
+    if (null == this.arenaActionProbabilities ||
+        this.arenaActionProbabilities.length != currentGame.getNumberOfAllAvailableMoves()) {
+      
+      this.arenaActionProbabilities = new float[currentGame.getNumberOfAllAvailableMoves()];
+    }
+    
+    Game searchGame = currentGame.createNewInstance();
+    for (int playouts = 0; playouts < maxSimulations && !searchTimeExceeded(deadlineNanos) &&
+        !(earlyStop && this.arenaTree.isMostVisitedChildDecided(ArenaTree.ROOT, maxSimulations - playouts));
+        playouts++) {
+      
+      this.arenaPlayout(getPlayoutGame(searchGame));
+    }
+    
+    int[] visitedCounts = new int[currentGame.getNumberOfCurrentMoves()];
+    int firstChild = this.arenaTree.getFirstChild(ArenaTree.ROOT);
+    for (int child = firstChild; child < firstChild + this.arenaTree.getChildCount(ArenaTree.ROOT); child++) {
+      
+      visitedCounts[this.arenaTree.getMove(child)] = this.arenaTree.getTimesVisited(child);
+    }
+    
+    return visitedCounts;
+  }
+
   public void resetStoredOutputs() {
     
-    this.neuralNetOutputsByBoardInputs.clear();
+    this.neuralNetOutputCache.invalidate();
   }
 
+  /**
+   * Advances the root to the subtree of a played move, own moves as well as opponent replies.
+   * The subtree is detached from its parent and reused by the next search.
+   * 
+   * @param lastMove the move index just played
+   * @return the new root node or null if the tree contains no node for lastMove
+   */
   TreeNode updateWithMove(int lastMove) {
     
-    if (this.rootNode.containsChildMoveIndex(lastMove)) {
+    if (this.useArenaTree) {
       
-      this.rootNode = this.rootNode.getChildWithMoveIndex(lastMove);
-      return this.rootNode;
+      // The arena tree is cleared and reused by the next search
+      return null;
     }
-    else {
+    
+    TreeNode childNode = null == this.rootNode ? null : this.rootNode.getChildWithMoveIndex(lastMove);
+    if (null == childNode) {
       
-      throw new IllegalArgumentException("no child with move " + lastMove +
-          "found for current root node with last move" + this.rootNode.lastMove);
+      // The next search starts with a new root node
+      this.rootNode = null;
+      this.rootAdvanced = false;
+      return null;
     }
+    
+    childNode.parent = null;
+    this.rootNode = childNode;
+    this.rootAdvanced = true;
+    
+    return childNode;
   }
 }
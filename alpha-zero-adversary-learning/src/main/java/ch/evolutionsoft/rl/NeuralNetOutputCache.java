@@ -0,0 +1,164 @@
+package ch.evolutionsoft.rl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * {@link NeuralNetOutputCache} keeps the {@link ComputationGraph} outputs of recently evaluated
+ * boards by the compact 64 bit {@link Game} position hash. Transpositions, the same position reached
+ * by different move orders, are found by their equal position hash. The least recently used entry gets
+ * evicted when the configured maximum size is exceeded.
+ *
+ * Cached outputs are only valid for the neural net version that computed them.
+ * Call invalidate() whenever the neural net parameters change.
+ *
+ * All methods are synchronized, one cache instance can be shared between several
+ * {@link MonteCarloTreeSearch} using the same {@link ComputationGraph}.
+ *
+ * @author evolutionsoft
+ */
+public class NeuralNetOutputCache {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final int maxSize;
+
+  private final Map<Long, CachedOutput> outputsByBoardHash;
+
+  private long hits;
+
+  private long misses;
+
+  public NeuralNetOutputCache(int maxSize) {
+
+    this.maxSize = maxSize;
+    this.outputsByBoardHash = new LinkedHashMap<Long, CachedOutput>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 6061262327364924627L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, CachedOutput> eldest) {
+
+        return size() > NeuralNetOutputCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * A 64 bit FNV-1a hash over the float values of a board input.
+   *
+   * @param board the neural net input of a single board
+   * @return the hash of the board values
+   */
+  public static long boardHash(INDArray board) {
+
+    float[] boardValues = board.reshape(board.length()).toFloatVector();
+
+    long hash = FNV_OFFSET_BASIS;
+    for (float boardValue : boardValues) {
+
+      hash ^= Float.floatToIntBits(boardValue);
+      hash *= FNV_PRIME;
+    }
+
+    return hash;
+  }
+
+  /**
+   * @param boardHash the position hash of the evaluated board
+   * @return the cached output or null if the board is not present
+   */
+  public synchronized CachedOutput get(long boardHash) {
+
+    CachedOutput cachedOutput = this.outputsByBoardHash.get(boardHash);
+
+    if (null != cachedOutput) {
+
+      this.hits++;
+
+    } else {
+
+      this.misses++;
+    }
+
+    return cachedOutput;
+  }
+
+  public synchronized void put(long boardHash, INDArray actionProbabilities, double value) {
+
+    if (0 >= this.maxSize) {
+
+      return;
+    }
+
+    this.outputsByBoardHash.put(boardHash,
+        new CachedOutput(actionProbabilities.reshape(actionProbabilities.length()).toFloatVector(), value));
+  }
+
+  /**
+   * Remove all cached outputs and reset the hit and miss counters.
+   */
+  public synchronized void invalidate() {
+
+    this.outputsByBoardHash.clear();
+    this.hits = 0;
+    this.misses = 0;
+  }
+
+  public synchronized int size() {
+
+    return this.outputsByBoardHash.size();
+  }
+
+  public synchronized long getHits() {
+
+    return this.hits;
+  }
+
+  public synchronized long getMisses() {
+
+    return this.misses;
+  }
+
+  public synchronized double getHitRatio() {
+
+    long lookups = this.hits + this.misses;
+
+    return 0 == lookups ? 0 : this.hits / (double) lookups;
+  }
+
+  public int getMaxSize() {
+
+    return this.maxSize;
+  }
+
+  /**
+   * Action probabilities and value output of the neural net for one board.
+   */
+  public static class CachedOutput {
+
+    final float[] actionProbabilities;
+
+    final double value;
+
+    CachedOutput(float[] actionProbabilities, double value) {
+
+      this.actionProbabilities = actionProbabilities;
+      this.value = value;
+    }
+
+    public float[] getActionProbabilities() {
+
+      return this.actionProbabilities;
+    }
+
+    public double getValue() {
+
+      return this.value;
+    }
+  }
+}
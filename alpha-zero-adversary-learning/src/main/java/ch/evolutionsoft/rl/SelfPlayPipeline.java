@@ -0,0 +1,225 @@
+package ch.evolutionsoft.rl;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link SelfPlayPipeline} keeps numberOfWorkers self play threads generating episodes while the
+ * {@link AdversaryLearning} thread fits the neural net. Workers play with one shared copy of the trained
+ * {@link ComputationGraph} and its {@link NeuralNetOutputCache}, the training thread never uses that copy.
+ * Self play and training overlap completely.
+ *
+ * Searches synchronize each output of the shared copy on it. Publishing a model copies its parameters
+ * into the shared copy in between two outputs and invalidates the cache, following outputs use the new model.
+ *
+ * Completed episodes are queued until taken by the training thread. The queue is bounded,
+ * workers wait if self play gets too far ahead of training.
+ *
+ * @author evolutionsoft
+ */
+public class SelfPlayPipeline implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(SelfPlayPipeline.class);
+
+  private static final long FAILURE_POLL_MILLIS = 100;
+
+  /**
+   * Plays one self play game.
+   */
+  @FunctionalInterface
+  public interface EpisodeRunner {
+
+    /**
+     * @param iteration the iteration to create the train examples for
+     * @param computationGraph the model to play with, shared with concurrent episodes and synchronized on
+     * @param neuralNetOutputCache the output cache of computationGraph
+     * @return the new train examples of the episode
+     */
+    List<AdversaryTrainingExample> executeEpisode(int iteration, ComputationGraph computationGraph,
+        NeuralNetOutputCache neuralNetOutputCache);
+  }
+
+  private final EpisodeRunner episodeRunner;
+
+  private final int numberOfWorkers;
+
+  private final BlockingQueue<List<AdversaryTrainingExample>> completedEpisodes;
+
+  private final NeuralNetOutputCache neuralNetOutputCache;
+
+  private final AtomicReference<Throwable> workerFailure = new AtomicReference<>();
+
+  private final AtomicInteger numberOfRunningWorkers = new AtomicInteger();
+
+  private final ExecutorService workers;
+
+  private ComputationGraph computationGraph;
+
+  private volatile int iteration;
+
+  private volatile boolean running;
+
+  private volatile long numberOfPublishedModels;
+
+  public SelfPlayPipeline(EpisodeRunner episodeRunner, int numberOfWorkers, int maxQueuedEpisodes,
+      int neuralNetOutputCacheSize) {
+
+    this.episodeRunner = episodeRunner;
+    this.numberOfWorkers = Math.max(1, numberOfWorkers);
+    this.neuralNetOutputCache = new NeuralNetOutputCache(neuralNetOutputCacheSize);
+    this.completedEpisodes = new LinkedBlockingQueue<>(Math.max(1, maxQueuedEpisodes));
+    this.workers = Executors.newFixedThreadPool(this.numberOfWorkers);
+  }
+
+  /**
+   * Publishes the initial model and starts the self play workers.
+   *
+   * @param initialIteration the iteration of the first episodes
+   * @param computationGraph the initial model, copied before use
+   * @return this pipeline
+   */
+  public SelfPlayPipeline start(int initialIteration, ComputationGraph computationGraph) {
+
+    this.iteration = initialIteration;
+    this.computationGraph = computationGraph.clone();
+    this.numberOfPublishedModels = 1;
+    this.running = true;
+    this.numberOfRunningWorkers.set(this.numberOfWorkers);
+
+    for (int worker = 0; worker < this.numberOfWorkers; worker++) {
+
+      this.workers.submit(this::playEpisodes);
+    }
+
+    return this;
+  }
+
+  /**
+   * Replaces the model of the workers with the parameters of computationGraph between two outputs.
+   * Running episodes continue with the new model.
+   *
+   * @param computationGraph the newly accepted model, not modified by the pipeline
+   */
+  public void publish(ComputationGraph computationGraph) {
+
+    synchronized (this.computationGraph) {
+
+      this.computationGraph.setParams(computationGraph.params());
+      this.neuralNetOutputCache.invalidate();
+      this.numberOfPublishedModels++;
+    }
+  }
+
+  /**
+   * @param iteration the iteration of following episodes
+   */
+  public void setIteration(int iteration) {
+
+    this.iteration = iteration;
+  }
+
+  /**
+   * Waits for the next completed episode.
+   *
+   * @return the train examples of the episode
+   * @throws InterruptedException if interrupted while waiting
+   * @throws IllegalStateException if a self play worker failed or no worker is running any more
+   */
+  public List<AdversaryTrainingExample> takeEpisode() throws InterruptedException {
+
+    List<AdversaryTrainingExample> episode;
+    do {
+
+      // Workers record failures and queue episodes before they stop running
+      boolean workersRunning = 0 < this.numberOfRunningWorkers.get();
+      Throwable failure = this.workerFailure.get();
+      if (null != failure) {
+
+        throw new IllegalStateException("Self play episode failed", failure);
+      }
+
+      episode = this.completedEpisodes.poll(FAILURE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+      if (null == episode && !workersRunning) {
+
+        throw new IllegalStateException("No self play worker running");
+      }
+
+    } while (null == episode);
+
+    return episode;
+  }
+
+  void playEpisodes() {
+
+    try {
+
+      while (this.running) {
+
+        List<AdversaryTrainingExample> episode = this.episodeRunner.executeEpisode(
+            this.iteration, this.computationGraph, this.neuralNetOutputCache);
+
+        this.completedEpisodes.put(episode);
+      }
+
+    } catch (InterruptedException ie) {
+
+      Thread.currentThread().interrupt();
+
+    } catch (Throwable throwable) {
+
+      // Errors too, the executor would swallow them and takeEpisode wait forever
+      if (this.running) {
+
+        log.warn("Self play worker failed", throwable);
+        this.workerFailure.compareAndSet(null, throwable);
+      }
+
+    } finally {
+
+      this.numberOfRunningWorkers.decrementAndGet();
+    }
+  }
+
+  /**
+   * Stops the workers, episodes not taken yet are discarded.
+   */
+  @Override
+  public void close() {
+
+    this.running = false;
+    this.workers.shutdownNow();
+    this.completedEpisodes.clear();
+
+    try {
+
+      while (!this.workers.awaitTermination(1, TimeUnit.MINUTES)) {
+
+        log.info("Waiting for running self play episodes to stop");
+      }
+
+    } catch (InterruptedException ie) {
+
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public long getNumberOfPublishedModels() {
+
+    return this.numberOfPublishedModels;
+  }
+
+  public int getNumberOfQueuedEpisodes() {
+
+    return this.completedEpisodes.size();
+  }
+}
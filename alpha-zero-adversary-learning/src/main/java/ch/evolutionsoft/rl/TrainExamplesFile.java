@@ -0,0 +1,450 @@
+package ch.evolutionsoft.rl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * {@link TrainExamplesFile} stores {@link AdversaryTrainingExample} in a versioned, columnar binary format
+ * instead of Java serialization. All examples must have the same board shape and number of action probabilities.
+ *
+ * Layout version 1, big endian:
+ * <pre>
+ * int magic, int version, int numberOfExamples,
+ * int boardRank, long[boardRank] boardShape, int actionProbabilitiesLength,
+ * float[numberOfExamples * boardLength] boards,
+ * float[numberOfExamples * actionProbabilitiesLength] actionProbabilities,
+ * float[numberOfExamples] currentPlayerValues, NaN for examples without value,
+ * byte[numberOfExamples] currentPlayers,
+ * int[numberOfExamples] iterations
+ * </pre>
+ *
+ * Files are written and read back through a {@link FileChannel} in chunks of a buffer, so file sizes
+ * are not limited by the size of one buffer. The same layout is used for the appended blocks
+ * of a {@link TrainExamplesLog}.
+ *
+ * @author evolutionsoft
+ */
+public final class TrainExamplesFile {
+
+  /**
+   * The ASCII characters AZTE.
+   */
+  public static final int MAGIC = 0x415A5445;
+
+  public static final int VERSION = 1;
+
+  static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  static final int READ_BUFFER_SIZE = 1 << 16;
+
+  static final String TEMPORARY_SUFFIX = ".tmp";
+
+  /**
+   * Magic number, version, number of examples and board rank.
+   */
+  static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+  private TrainExamplesFile() {
+    // Hide constructor
+  }
+
+  /**
+   * @param path the file to check
+   * @return true if path exists and starts with the magic number of this format
+   * @throws IOException if the file can not be read
+   */
+  public static boolean isTrainExamplesFile(Path path) throws IOException {
+
+    if (!Files.isRegularFile(path) || Files.size(path) < Integer.BYTES) {
+
+      return false;
+    }
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+      ByteBuffer magicBuffer = ByteBuffer.allocate(Integer.BYTES);
+      while (magicBuffer.hasRemaining() && 0 <= channel.read(magicBuffer)) {
+        // Read the complete magic number
+      }
+      magicBuffer.flip();
+
+      return MAGIC == magicBuffer.getInt();
+    }
+  }
+
+  /**
+   * Writes all trainExamples to path, replacing an existing file. The examples are written to a temporary
+   * file first and moved to path afterwards, an existing file at path stays complete if writing fails.
+   * The temporary file and the directory entry of the move are forced to the storage device before returning,
+   * the written file survives a following crash.
+   *
+   * @param path the file to write
+   * @param trainExamples the examples to store
+   * @throws IOException if writing fails
+   */
+  public static void write(Path path, Collection<AdversaryTrainingExample> trainExamples) throws IOException {
+
+    Path temporaryPath = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+    try (FileChannel channel = FileChannel.open(temporaryPath,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+      writeBlock(channel, trainExamples);
+      channel.force(true);
+    }
+
+    try {
+
+      Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    } catch (AtomicMoveNotSupportedException amnse) {
+
+      Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    forceDirectory(path.toAbsolutePath().getParent());
+  }
+
+  /**
+   * Forces the entries of directory, like a moved file, to the storage device. Platforms not supporting
+   * to open a directory, like Windows, persist directory entries without it.
+   *
+   * @param directory the directory to force
+   * @throws IOException if forcing an opened directory fails
+   */
+  static void forceDirectory(Path directory) throws IOException {
+
+    FileChannel directoryChannel;
+    try {
+
+      directoryChannel = FileChannel.open(directory, StandardOpenOption.READ);
+
+    } catch (IOException ioe) {
+
+      return;
+    }
+
+    try (FileChannel channel = directoryChannel) {
+
+      channel.force(true);
+    }
+  }
+
+  /**
+   * Writes trainExamples as one block at the current position of channel.
+   *
+   * @param channel the channel to write to
+   * @param trainExamples the examples to store
+   * @throws IOException if writing fails
+   */
+  static void writeBlock(FileChannel channel, Collection<AdversaryTrainingExample> trainExamples) throws IOException {
+
+    long[] boardShape = new long[0];
+    int actionProbabilitiesLength = 0;
+    if (!trainExamples.isEmpty()) {
+
+      AdversaryTrainingExample firstExample = trainExamples.iterator().next();
+      boardShape = firstExample.getBoard().shape();
+      actionProbabilitiesLength = (int) firstExample.getActionIndexProbabilities().length();
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(trainExamples.size());
+    buffer.putInt(boardShape.length);
+    for (long dimension : boardShape) {
+
+      buffer.putLong(dimension);
+    }
+    buffer.putInt(actionProbabilitiesLength);
+
+    for (AdversaryTrainingExample example : trainExamples) {
+
+      if (!Arrays.equals(boardShape, example.getBoard().shape())) {
+
+        throw new IllegalArgumentException("Train examples with different board shapes " +
+            Arrays.toString(boardShape) + " and " + Arrays.toString(example.getBoard().shape()));
+      }
+      writeFloats(channel, buffer, toFloatVector(example.getBoard()));
+    }
+
+    for (AdversaryTrainingExample example : trainExamples) {
+
+      if (actionProbabilitiesLength != example.getActionIndexProbabilities().length()) {
+
+        throw new IllegalArgumentException("Train examples with different action probabilities lengths " +
+            actionProbabilitiesLength + " and " + example.getActionIndexProbabilities().length());
+      }
+      writeFloats(channel, buffer, toFloatVector(example.getActionIndexProbabilities()));
+    }
+
+    for (AdversaryTrainingExample example : trainExamples) {
+
+      ensureRemaining(channel, buffer, Float.BYTES);
+      Float currentPlayerValue = example.getCurrentPlayerValue();
+      buffer.putFloat(null == currentPlayerValue ? Float.NaN : currentPlayerValue);
+    }
+
+    for (AdversaryTrainingExample example : trainExamples) {
+
+      ensureRemaining(channel, buffer, Byte.BYTES);
+      buffer.put((byte) example.getCurrentPlayer());
+    }
+
+    for (AdversaryTrainingExample example : trainExamples) {
+
+      ensureRemaining(channel, buffer, Integer.BYTES);
+      buffer.putInt(example.getIteration());
+    }
+
+    flush(channel, buffer);
+  }
+
+  /**
+   * @param path a file written by write(path, trainExamples)
+   * @return the stored examples in their stored order
+   * @throws IOException if reading fails or the file has an unknown format or version
+   */
+  public static List<AdversaryTrainingExample> read(Path path) throws IOException {
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+      return readBlock(channel, newReadBuffer(), path);
+    }
+  }
+
+  /**
+   * A heap buffer, a memory mapping would keep the file locked on some platforms until garbage collected.
+   *
+   * @return an empty read buffer for readBlock, reused for all blocks read from one channel
+   */
+  static ByteBuffer newReadBuffer() {
+
+    ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    buffer.limit(0);
+
+    return buffer;
+  }
+
+  /**
+   * @param channel the channel blocks are read from
+   * @param buffer the read buffer of channel
+   * @return true if buffer or channel have bytes left to read
+   * @throws IOException if the channel size can not be read
+   */
+  static boolean hasRemaining(FileChannel channel, ByteBuffer buffer) throws IOException {
+
+    return buffer.hasRemaining() || channel.position() < channel.size();
+  }
+
+  /**
+   * Reads one block through buffer, in chunks of READ_BUFFER_SIZE bytes instead of the complete file.
+   * The position behind the block is channel.position() - buffer.remaining().
+   *
+   * @param channel the channel to read from
+   * @param buffer the read buffer of channel, with the not yet consumed bytes remaining
+   * @param path the file of channel
+   * @return the examples of the block
+   * @throws EOFException if the file ends before the complete block
+   * @throws IOException if the block has an unknown format or version
+   */
+  static List<AdversaryTrainingExample> readBlock(FileChannel channel, ByteBuffer buffer, Path path)
+      throws IOException {
+
+    fill(channel, buffer, HEADER_BYTES, path);
+    if (MAGIC != buffer.getInt()) {
+
+      throw new IOException(path + " is no train examples file");
+    }
+    int version = buffer.getInt();
+    if (VERSION != version) {
+
+      throw new IOException("Unsupported train examples file version " + version + " in " + path);
+    }
+
+    int numberOfExamples = buffer.getInt();
+    int boardRank = buffer.getInt();
+    if (numberOfExamples < 0 || boardRank < 0) {
+
+      throw new IOException("Corrupt train examples block header in " + path);
+    }
+
+    long[] boardShape = new long[boardRank];
+    fill(channel, buffer, (long) boardRank * Long.BYTES + Integer.BYTES, path);
+    long boardLength = 1;
+    for (int dimension = 0; dimension < boardShape.length; dimension++) {
+
+      boardShape[dimension] = buffer.getLong();
+      boardLength *= boardShape[dimension];
+    }
+    int actionProbabilitiesLength = buffer.getInt();
+
+    long blockBytes = numberOfExamples *
+        ((boardLength + actionProbabilitiesLength + 1) * Float.BYTES + Byte.BYTES + Integer.BYTES);
+    if (buffer.remaining() + channel.size() - channel.position() < blockBytes) {
+
+      throw new EOFException("Incomplete train examples block in " + path);
+    }
+    if (Integer.MAX_VALUE < numberOfExamples * boardLength ||
+        Integer.MAX_VALUE < (long) numberOfExamples * actionProbabilitiesLength) {
+
+      throw new IOException("Train examples block in " + path + " has more values than one array can hold");
+    }
+
+    float[] boards = new float[(int) (numberOfExamples * boardLength)];
+    float[] actionProbabilities = new float[numberOfExamples * actionProbabilitiesLength];
+    float[] currentPlayerValues = new float[numberOfExamples];
+    byte[] currentPlayers = new byte[numberOfExamples];
+    int[] iterations = new int[numberOfExamples];
+
+    getFloats(channel, buffer, boards, path);
+    getFloats(channel, buffer, actionProbabilities, path);
+    getFloats(channel, buffer, currentPlayerValues, path);
+    getBytes(channel, buffer, currentPlayers, path);
+    getInts(channel, buffer, iterations, path);
+
+    List<AdversaryTrainingExample> trainExamples = new ArrayList<>(numberOfExamples);
+    for (int example = 0; example < numberOfExamples; example++) {
+
+      int boardStart = (int) (example * boardLength);
+      int actionStart = example * actionProbabilitiesLength;
+
+      AdversaryTrainingExample trainExample = new AdversaryTrainingExample(
+          Nd4j.create(Arrays.copyOfRange(boards, boardStart, (int) (boardStart + boardLength)), boardShape, 'c'),
+          currentPlayers[example],
+          Nd4j.createFromArray(
+              Arrays.copyOfRange(actionProbabilities, actionStart, actionStart + actionProbabilitiesLength)),
+          iterations[example]);
+
+      if (!Float.isNaN(currentPlayerValues[example])) {
+
+        trainExample.setCurrentPlayerValue(currentPlayerValues[example]);
+      }
+      trainExamples.add(trainExample);
+    }
+
+    return trainExamples;
+  }
+
+  /**
+   * Reads from channel until buffer has at least bytes remaining.
+   *
+   * @throws EOFException if the file ends before
+   * @throws IOException if bytes exceeds the buffer capacity or reading fails
+   */
+  static void fill(FileChannel channel, ByteBuffer buffer, long bytes, Path path) throws IOException {
+
+    if (bytes <= buffer.remaining()) {
+
+      return;
+    }
+    if (buffer.capacity() < bytes) {
+
+      throw new IOException("Corrupt train examples block header in " + path);
+    }
+
+    buffer.compact();
+    while (buffer.position() < bytes && 0 <= channel.read(buffer)) {
+      // Read at least the requested bytes
+    }
+    buffer.flip();
+
+    if (buffer.remaining() < bytes) {
+
+      throw new EOFException("Incomplete train examples block in " + path);
+    }
+  }
+
+  static float[] toFloatVector(INDArray values) {
+
+    return values.reshape(values.length()).toFloatVector();
+  }
+
+  static void getFloats(FileChannel channel, ByteBuffer buffer, float[] values, Path path) throws IOException {
+
+    int offset = 0;
+    while (offset < values.length) {
+
+      fill(channel, buffer, Float.BYTES, path);
+      FloatBuffer floatBuffer = buffer.asFloatBuffer();
+      int length = Math.min(floatBuffer.remaining(), values.length - offset);
+      floatBuffer.get(values, offset, length);
+      buffer.position(buffer.position() + length * Float.BYTES);
+      offset += length;
+    }
+  }
+
+  static void getBytes(FileChannel channel, ByteBuffer buffer, byte[] values, Path path) throws IOException {
+
+    int offset = 0;
+    while (offset < values.length) {
+
+      fill(channel, buffer, Byte.BYTES, path);
+      int length = Math.min(buffer.remaining(), values.length - offset);
+      buffer.get(values, offset, length);
+      offset += length;
+    }
+  }
+
+  static void getInts(FileChannel channel, ByteBuffer buffer, int[] values, Path path) throws IOException {
+
+    int offset = 0;
+    while (offset < values.length) {
+
+      fill(channel, buffer, Integer.BYTES, path);
+      IntBuffer intBuffer = buffer.asIntBuffer();
+      int length = Math.min(intBuffer.remaining(), values.length - offset);
+      intBuffer.get(values, offset, length);
+      buffer.position(buffer.position() + length * Integer.BYTES);
+      offset += length;
+    }
+  }
+
+  static void writeFloats(FileChannel channel, ByteBuffer buffer, float[] values) throws IOException {
+
+    int offset = 0;
+    while (offset < values.length) {
+
+      ensureRemaining(channel, buffer, Float.BYTES);
+      FloatBuffer floatBuffer = buffer.asFloatBuffer();
+      int length = Math.min(floatBuffer.remaining(), values.length - offset);
+      floatBuffer.put(values, offset, length);
+      buffer.position(buffer.position() + length * Float.BYTES);
+      offset += length;
+    }
+  }
+
+  static void ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+
+    if (buffer.remaining() < bytes) {
+
+      flush(channel, buffer);
+    }
+  }
+
+  static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
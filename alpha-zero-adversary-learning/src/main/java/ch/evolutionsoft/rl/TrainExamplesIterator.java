@@ -0,0 +1,190 @@
+package ch.evolutionsoft.rl;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+/**
+ * {@link TrainExamplesIterator} creates the mini batches of one epoch lazily from a {@link Source}
+ * of train examples. Only the current mini batch is assembled, one reusable {@link MiniBatchBuilder}
+ * fills it. Each reset() starts a new epoch in a new random order.
+ *
+ * The iterator supports asynchronous prefetching, the next mini batch can be assembled on another thread
+ * while the current one is fitted. The source must not change during an epoch.
+ *
+ * @author evolutionsoft
+ */
+public class TrainExamplesIterator implements MultiDataSetIterator {
+
+  private static final long serialVersionUID = 8327491023417528733L;
+
+  /**
+   * Indexed train examples to create mini batches from.
+   */
+  public interface Source {
+
+    /**
+     * @return the number of train examples
+     */
+    int size();
+
+    /**
+     * @param miniBatchBuilder the builder of the current mini batch
+     * @param index the index of the train example to add, smaller than size()
+     */
+    void addTo(MiniBatchBuilder miniBatchBuilder, int index);
+
+    /**
+     * @param batchSize maximum number of train examples per mini batch
+     * @return a builder for the board shape and action probabilities of the train examples
+     */
+    MiniBatchBuilder createMiniBatchBuilder(int batchSize);
+  }
+
+  private final transient Source source;
+
+  private final transient Random random;
+
+  private final transient MiniBatchBuilder miniBatchBuilder;
+
+  private transient MultiDataSetPreProcessor preProcessor;
+
+  private int[] order;
+
+  private int cursor;
+
+  public TrainExamplesIterator(Source source, int batchSize, Random random) {
+
+    this.source = source;
+    this.random = random;
+    this.miniBatchBuilder = source.createMiniBatchBuilder(batchSize);
+    this.reset();
+  }
+
+  /**
+   * @param trainExamples the train examples to iterate
+   * @param boardShape the board shape without batch dimension
+   * @param actionProbabilitiesLength the fixed number of action probabilities per mini batch row
+   * @return a {@link Source} reading from trainExamples
+   */
+  public static Source of(List<AdversaryTrainingExample> trainExamples, long[] boardShape,
+      int actionProbabilitiesLength) {
+
+    return new Source() {
+
+      @Override
+      public int size() {
+
+        return trainExamples.size();
+      }
+
+      @Override
+      public void addTo(MiniBatchBuilder miniBatchBuilder, int index) {
+
+        miniBatchBuilder.add(trainExamples.get(index));
+      }
+
+      @Override
+      public MiniBatchBuilder createMiniBatchBuilder(int batchSize) {
+
+        return new MiniBatchBuilder(boardShape, actionProbabilitiesLength, batchSize);
+      }
+    };
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    return this.cursor < this.order.length;
+  }
+
+  @Override
+  public MultiDataSet next() {
+
+    return this.next(this.miniBatchBuilder.getBatchSize());
+  }
+
+  /**
+   * @param num maximum number of train examples, limited by the batch size of this iterator
+   */
+  @Override
+  public MultiDataSet next(int num) {
+
+    if (!this.hasNext()) {
+
+      throw new NoSuchElementException("No more train examples in this epoch");
+    }
+
+    int end = Math.min(this.order.length, this.cursor + Math.min(num, this.miniBatchBuilder.getBatchSize()));
+    for (; this.cursor < end; this.cursor++) {
+
+      this.source.addTo(this.miniBatchBuilder, this.order[this.cursor]);
+    }
+
+    MultiDataSet miniBatch = this.miniBatchBuilder.build();
+    if (null != this.preProcessor) {
+
+      this.preProcessor.preProcess(miniBatch);
+    }
+
+    return miniBatch;
+  }
+
+  /**
+   * Starts a new epoch over all current train examples of the source in a new random order.
+   */
+  @Override
+  public void reset() {
+
+    this.order = new int[this.source.size()];
+    for (int index = 0; index < this.order.length; index++) {
+
+      int swapIndex = this.random.nextInt(index + 1);
+      this.order[index] = this.order[swapIndex];
+      this.order[swapIndex] = index;
+    }
+    this.cursor = 0;
+  }
+
+  /**
+   * @return the number of mini batches per epoch
+   */
+  public int getNumberOfBatches() {
+
+    int batchSize = this.miniBatchBuilder.getBatchSize();
+    return (this.order.length + batchSize - 1) / batchSize;
+  }
+
+  public int getNumberOfExamples() {
+
+    return this.order.length;
+  }
+
+  @Override
+  public boolean resetSupported() {
+
+    return true;
+  }
+
+  @Override
+  public boolean asyncSupported() {
+
+    return true;
+  }
+
+  @Override
+  public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+
+    this.preProcessor = preProcessor;
+  }
+
+  @Override
+  public MultiDataSetPreProcessor getPreProcessor() {
+
+    return this.preProcessor;
+  }
+}
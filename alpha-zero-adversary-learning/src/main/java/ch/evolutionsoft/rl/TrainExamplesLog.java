@@ -0,0 +1,227 @@
+package ch.evolutionsoft.rl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link TrainExamplesLog} is an append only log of the new {@link AdversaryTrainingExample} of each episode
+ * since the last complete {@link TrainExamplesFile}. Each append writes one block in the {@link TrainExamplesFile}
+ * layout, so the written volume per episode only depends on the new examples.
+ *
+ * After a restart the blocks are replayed in their written order on top of the last complete file.
+ * An incomplete last block, left by an interrupted append, is discarded and cut off.
+ *
+ * Before the complete history is written again in the background, the log gets sealed: it is renamed with
+ * the next seal number appended and following appends start a new log. Sealed logs are replayed before the
+ * current log and deleted once the complete file containing their examples is durable.
+ *
+ * @author evolutionsoft
+ */
+public class TrainExamplesLog {
+
+  private static final Logger log = LoggerFactory.getLogger(TrainExamplesLog.class);
+
+  public static final String LOG_SUFFIX = ".log";
+
+  public static final int NO_SEALED_LOG = 0;
+
+  private final Path logPath;
+
+  public TrainExamplesLog(Path logPath) {
+
+    this.logPath = logPath;
+  }
+
+  /**
+   * @param trainExamplesPath the path of the complete {@link TrainExamplesFile}
+   * @return the log next to trainExamplesPath
+   */
+  public static TrainExamplesLog forTrainExamplesFile(Path trainExamplesPath) {
+
+    return new TrainExamplesLog(trainExamplesPath.resolveSibling(trainExamplesPath.getFileName() + LOG_SUFFIX));
+  }
+
+  /**
+   * Appends trainExamples as one block and forces it to the storage device.
+   *
+   * @param trainExamples the new examples of one episode
+   * @throws IOException if writing fails
+   */
+  public void append(Collection<AdversaryTrainingExample> trainExamples) throws IOException {
+
+    try (FileChannel channel = FileChannel.open(this.logPath,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+
+      TrainExamplesFile.writeBlock(channel, trainExamples);
+      channel.force(false);
+    }
+  }
+
+  /**
+   * @return all logged examples of the sealed logs and the current log in their appended order,
+   *   empty if there is no log
+   * @throws IOException if reading fails or a log contains an unknown format
+   */
+  public List<AdversaryTrainingExample> replay() throws IOException {
+
+    List<AdversaryTrainingExample> trainExamples = new ArrayList<>();
+    for (Path sealedLogPath : this.getSealedLogPaths()) {
+
+      replay(sealedLogPath, trainExamples);
+    }
+
+    if (Files.isRegularFile(this.logPath)) {
+
+      replay(this.logPath, trainExamples);
+    }
+
+    return trainExamples;
+  }
+
+  static void replay(Path path, List<AdversaryTrainingExample> trainExamples) throws IOException {
+
+    long incompleteBlockStart = -1;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+      ByteBuffer buffer = TrainExamplesFile.newReadBuffer();
+      while (TrainExamplesFile.hasRemaining(channel, buffer)) {
+
+        long blockStart = channel.position() - buffer.remaining();
+        try {
+
+          trainExamples.addAll(TrainExamplesFile.readBlock(channel, buffer, path));
+
+        } catch (EOFException eofe) {
+
+          incompleteBlockStart = blockStart;
+          break;
+        }
+      }
+    }
+
+    if (0 <= incompleteBlockStart) {
+
+      log.warn("Discard incomplete train examples block at byte {} of {}", incompleteBlockStart, path);
+      truncate(path, incompleteBlockStart);
+    }
+  }
+
+  /**
+   * Renames the current log to a sealed log, following appends start a new log.
+   *
+   * @return the number of the newest sealed log, NO_SEALED_LOG if there is none
+   * @throws IOException if the log can not be renamed
+   */
+  public int seal() throws IOException {
+
+    List<Path> sealedLogPaths = this.getSealedLogPaths();
+    int newestSealNumber = sealedLogPaths.isEmpty() ?
+        NO_SEALED_LOG :
+        this.getSealNumber(sealedLogPaths.get(sealedLogPaths.size() - 1));
+
+    if (!Files.isRegularFile(this.logPath)) {
+
+      return newestSealNumber;
+    }
+
+    newestSealNumber++;
+    Files.move(this.logPath,
+        this.logPath.resolveSibling(this.logPath.getFileName() + "." + newestSealNumber),
+        StandardCopyOption.ATOMIC_MOVE);
+    TrainExamplesFile.forceDirectory(this.logPath.toAbsolutePath().getParent());
+
+    return newestSealNumber;
+  }
+
+  /**
+   * Deletes the sealed logs up to sealNumber, called after their examples are part of a durable
+   * {@link TrainExamplesFile}.
+   *
+   * @param sealNumber the newest sealed log to delete
+   * @throws IOException if a sealed log can not be deleted
+   */
+  public void deleteSealed(int sealNumber) throws IOException {
+
+    for (Path sealedLogPath : this.getSealedLogPaths()) {
+
+      if (this.getSealNumber(sealedLogPath) <= sealNumber) {
+
+        Files.deleteIfExists(sealedLogPath);
+      }
+    }
+  }
+
+  /**
+   * Removes the log and all sealed logs, called before a new learning run.
+   *
+   * @throws IOException if a log can not be deleted
+   */
+  public void clear() throws IOException {
+
+    this.deleteSealed(Integer.MAX_VALUE);
+    Files.deleteIfExists(this.logPath);
+  }
+
+  /**
+   * @return the sealed logs ordered by seal number
+   * @throws IOException if the log directory can not be listed
+   */
+  List<Path> getSealedLogPaths() throws IOException {
+
+    Path logDirectory = this.logPath.toAbsolutePath().getParent();
+    String sealedLogPrefix = this.logPath.getFileName() + ".";
+
+    List<Path> sealedLogPaths = new ArrayList<>();
+    try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(logDirectory, path -> {
+
+      String fileName = path.getFileName().toString();
+      return fileName.startsWith(sealedLogPrefix) &&
+          fileName.length() > sealedLogPrefix.length() &&
+          fileName.substring(sealedLogPrefix.length()).chars().allMatch(Character::isDigit);
+    })) {
+
+      directoryStream.forEach(sealedLogPaths::add);
+    }
+
+    sealedLogPaths.sort(Comparator.comparingInt(this::getSealNumber));
+    return sealedLogPaths;
+  }
+
+  int getSealNumber(Path sealedLogPath) {
+
+    return Integer.parseInt(
+        sealedLogPath.getFileName().toString().substring(this.logPath.getFileName().toString().length() + 1));
+  }
+
+  public Path getLogPath() {
+
+    return this.logPath;
+  }
+
+  void truncate(long size) throws IOException {
+
+    truncate(this.logPath, size);
+  }
+
+  static void truncate(Path path, long size) throws IOException {
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+
+      channel.truncate(size);
+    }
+  }
+}
@@ -1,38 +1,79 @@
 package ch.evolutionsoft.rl;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import org.nd4j.linalg.api.ndarray.INDArray;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 public class TreeNode {
 
-    Logger logger = LoggerFactory.getLogger(TreeNode.class);
-	
+	private static final AtomicIntegerFieldUpdater<TreeNode> TIMES_VISITED_UPDATER =
+	    AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "timesVisited");
+
+	private static final AtomicIntegerFieldUpdater<TreeNode> VIRTUAL_LOSS_UPDATER =
+	    AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "virtualLoss");
+
+	private static final AtomicLongFieldUpdater<TreeNode> VALUE_SUM_UPDATER =
+	    AtomicLongFieldUpdater.newUpdater(TreeNode.class, "valueSumBits");
+
+	private static final AtomicIntegerFieldUpdater<TreeNode> EXPANSION_CLAIMED_UPDATER =
+	    AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "expansionClaimed");
+
 	int lastMove;
 
 	int depth;
 	
 	int lastMoveColor;
 	
-	int timesVisited = 0;
+	volatile int timesVisited = 0;
 	
-	double qValue = AdversaryLearning.DRAW_VALUE; 
+	/**
+	 * The qValue before the first visit.
+	 */
+	final double initialQ;
+	
+	/**
+	 * Raw long bits of the sum of all backed up values, qValue is valueSum / timesVisited.
+	 * Stored as long to allow lock free atomic updates.
+	 */
+	volatile long valueSumBits = Double.doubleToRawLongBits(0);
 	
 	double uValue = 0;
 	
+	/**
+	 * Number of pending descents through this node, not yet backed up.
+	 * Used by batched leaf evaluation to make parallel descents choose different paths.
+	 */
+	volatile int virtualLoss = 0;
+	
 	double moveProbability;
 	
 	TreeNode parent;
 	
 	Map<Integer, TreeNode> children = new HashMap<>();
 	
+	/**
+	 * The same nodes as in children, as array for allocation free iteration in selectMove.
+	 * Assigned once after all children are created, which publishes them to concurrent search threads.
+	 */
+	volatile TreeNode[] childNodes = new TreeNode[0];
+	
+	static final int EXPANSION_UNCLAIMED = 0;
+	
+	static final int EXPANSION_CLAIMED = 1;
+	
+	static final int EXPANSION_PUBLISHED = 2;
+	
+	static final int EXPANSION_FAILED = 3;
+	
+	/**
+	 * EXPANSION_CLAIMED as soon as one search thread claimed the expansion of this leaf node,
+	 * EXPANSION_PUBLISHED or EXPANSION_FAILED after that thread is done.
+	 */
+	volatile int expansionClaimed = EXPANSION_UNCLAIMED;
+	
 	
 	public TreeNode(
 	    int lastMove,
@@ -43,53 +84,121 @@ public class TreeNode {
 	    TreeNode parent){
 		
 		this.parent = parent;
-		this.qValue = initialQ;
+		this.initialQ = initialQ;
 		this.depth = depth;
 		this.lastMove = lastMove;
 		this.moveProbability = moveProbability;
 		this.lastMoveColor = lastMoveColor;
 	}
 	
-	void expand(Game game, INDArray previousActionProbabilities) {
+	/**
+	 * Adds one child per valid move.
+	 * 
+	 * @param game the game in the state of this node
+	 * @param validMoveIndices the valid move indices, only the first numberOfValidMoves entries are used
+	 * @param numberOfValidMoves number of valid moves
+	 * @param moveProbabilities normalized move probabilities indexed by move index
+	 */
+	void expand(Game game, int[] validMoveIndices, int numberOfValidMoves, float[] moveProbabilities) {
 
-	  Set<Integer> validMoveIndices = game.getValidMoveIndices();
+	  TreeNode[] newChildNodes = new TreeNode[numberOfValidMoves];
+	  int childMoveColor = game.getOtherPlayer(this.lastMoveColor);
+	  double initialChildQ = 1 - this.getQValue();
  
-	  for (int moveIndex : validMoveIndices) {
-	      
-	    this.children.put(
+	  for (int childIndex = 0; childIndex < numberOfValidMoves; childIndex++) {
+	    
+	    int moveIndex = validMoveIndices[childIndex];
+	    TreeNode childNode = new TreeNode(
 	        moveIndex,
-	        new TreeNode(
-	            moveIndex,
-	            game.getOtherPlayer(this.lastMoveColor),
-	            this.depth + 1,
-	            previousActionProbabilities.getDouble(moveIndex),
-	            1 - this.qValue,
-	            this));
-	    }
+	        childMoveColor,
+	        this.depth + 1,
+	        moveProbabilities[moveIndex],
+	        initialChildQ,
+	        this);
+	    this.children.put(moveIndex, childNode);
+	    newChildNodes[childIndex] = childNode;
+	  }
 	  
+	  this.childNodes = newChildNodes;
 	}
 
 	public boolean isExpanded() {
 	  
-	  return !this.children.isEmpty();
+	  return 0 < this.childNodes.length;
+	}
+	
+	/**
+	 * Lets exactly one of several concurrent search threads reaching this leaf expand it.
+	 * 
+	 * @return true if the calling thread claimed the expansion, false if another thread did before
+	 */
+	boolean tryClaimExpansion() {
+	  
+	  return EXPANSION_CLAIMED_UPDATER.compareAndSet(this, EXPANSION_UNCLAIMED, EXPANSION_CLAIMED);
+	}
+	
+	/**
+	 * Called by the thread that claimed the expansion, wakes up the threads waiting in awaitExpansion.
+	 * 
+	 * @param expanded true if the children are published, false if the expansion failed
+	 */
+	synchronized void publishExpansion(boolean expanded) {
+	  
+	  this.expansionClaimed = expanded ? EXPANSION_PUBLISHED : EXPANSION_FAILED;
+	  this.notifyAll();
 	}
 	
+	/**
+	 * Waits until the thread that claimed the expansion published the children of this node.
+	 * 
+	 * @throws IllegalStateException if the expansion failed or waiting got interrupted
+	 */
+	synchronized void awaitExpansion() {
+	  
+	  try {
+	    
+	    while (EXPANSION_CLAIMED == this.expansionClaimed) {
+	      
+	      this.wait();
+	    }
+	  
+	  } catch (InterruptedException ie) {
+	    
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException("Interrupted while waiting for the expansion of a claimed node", ie);
+	  }
+	  
+	  if (EXPANSION_FAILED == this.expansionClaimed) {
+	    
+	    throw new IllegalStateException("Expansion of a claimed node failed in another search thread");
+	  }
+	}
+	
+	/**
+	 * Select the child with the highest value, ties are broken randomly
+	 * by reservoir sampling over the equal best children.
+	 */
 	protected TreeNode selectMove(double cpUct) {
 
-      List<TreeNode> childNodes = new ArrayList<>(this.children.values());
-      Collections.shuffle(childNodes);
+      double sqrtParentVisits = Math.sqrt(this.timesVisited + (double) this.virtualLoss);
 
-      double bestValue = Integer.MIN_VALUE;
+      double bestValue = Double.NEGATIVE_INFINITY;
       TreeNode bestNode = null;
+      int ties = 0;
       
-      for (TreeNode treeNode : childNodes) {
+      for (TreeNode treeNode : this.childNodes) {
         	
-        double currentValue = treeNode.getValue(cpUct);
+        double currentValue = treeNode.getValue(cpUct, sqrtParentVisits);
           
         if (currentValue > bestValue) {
             	
           bestValue = currentValue;
           bestNode = treeNode;
+          ties = 1;
+        
+        } else if (currentValue == bestValue && 0 == ThreadLocalRandom.current().nextInt(++ties)) {
+          
+          bestNode = treeNode;
         }
       }
 
@@ -101,31 +210,166 @@ public class TreeNode {
 	  
 	  this.uValue = 
           cpUct * this.moveProbability *
-              Math.sqrt(this.parent.timesVisited) / (1 + this.timesVisited);
+              Math.sqrt(this.parent.timesVisited + (double) this.parent.virtualLoss) /
+              (1 + this.timesVisited + this.virtualLoss);
 	  
-	  return this.qValue + this.uValue;
+	  return this.getVirtualLossQValue() + this.uValue;
+	}
+	
+	/**
+	 * Same as getValue(cpUct) without storing uValue.
+	 * 
+	 * @param sqrtParentVisits square root of the parents timesVisited plus virtualLoss
+	 */
+	double getValue(double cpUct, double sqrtParentVisits) {
+	  
+	  return this.getVirtualLossQValue() +
+	      cpUct * this.moveProbability * sqrtParentVisits / (1 + this.timesVisited + this.virtualLoss);
+	}
+	
+	/**
+	 * @return the mean of all backed up values or initialQ if this node was not visited yet
+	 */
+	public double getQValue() {
+	  
+	  int visits = this.timesVisited;
+	  
+	  return 0 == visits ? this.initialQ : this.getValueSum() / visits;
+	}
+	
+	double getValueSum() {
+	  
+	  return Double.longBitsToDouble(this.valueSumBits);
+	}
+	
+	/**
+	 * Pending descents count as lost visits for the player of lastMoveColor.
+	 * 
+	 * @return qValue, lowered by the currently applied virtual loss
+	 */
+	double getVirtualLossQValue() {
+	  
+	  int pendingVisits = this.virtualLoss;
+	  if (0 == pendingVisits) {
+	    
+	    return this.getQValue();
+	  }
+	  
+	  return this.getValueSum() / (this.timesVisited + pendingVisits);
+	}
+	
+	void applyVirtualLoss() {
+	  
+	  for (TreeNode pathNode = this; null != pathNode; pathNode = pathNode.parent) {
+	    
+	    pathNode.virtualLoss++;
+	  }
+	}
+	
+	/**
+	 * Thread safe applyVirtualLoss() for several search threads sharing one tree.
+	 */
+	void applyVirtualLossAtomic() {
+	  
+	  for (TreeNode pathNode = this; null != pathNode; pathNode = pathNode.parent) {
+	    
+	    VIRTUAL_LOSS_UPDATER.incrementAndGet(pathNode);
+	  }
 	}
 	
 	
 	public void update(double newValue) {
 
 	  this.timesVisited++;
+	  this.valueSumBits = Double.doubleToRawLongBits(this.getValueSum() + newValue);
+	}
+	
+	/**
+	 * Updates this node and all its ancestors up to the root.
+	 * The value alternates between the players on each level.
+	 * 
+	 * @param newValue the value for the player of lastMoveColor
+	 * @param revertVirtualLoss true to revert a virtual loss applied before along the same path
+	 */
+	public void backup(double newValue, boolean revertVirtualLoss) {
 	  
-	  this.qValue += (newValue - this.qValue) / (this.timesVisited); 
-      
+	  double value = newValue;
+	  for (TreeNode pathNode = this; null != pathNode; pathNode = pathNode.parent) {
+	    
+	    if (revertVirtualLoss) {
+	      
+	      pathNode.virtualLoss--;
+	    }
+	    pathNode.update(value);
+	    value = 1 - value;
+	  }
 	}
 	
+	/**
+	 * Lock free variant of backup for several search threads sharing one tree.
+	 * Visits, value sums and virtual losses are updated atomically per node.
+	 */
+	public void backupAtomic(double newValue, boolean revertVirtualLoss) {
+	  
+	  double value = newValue;
+	  for (TreeNode pathNode = this; null != pathNode; pathNode = pathNode.parent) {
+	    
+	    pathNode.addValueAtomic(value);
+	    TIMES_VISITED_UPDATER.incrementAndGet(pathNode);
+	    if (revertVirtualLoss) {
+	      
+	      VIRTUAL_LOSS_UPDATER.decrementAndGet(pathNode);
+	    }
+	    value = 1 - value;
+	  }
+	}
 	
-	public void updateRecursiv(double newValue) {
+	/**
+	 * Backs up a batch of evaluated leaves, leafNodes.get(i) with newValues[i].
+	 */
+	public static void backup(List<TreeNode> leafNodes, double[] newValues, boolean revertVirtualLoss) {
 	  
-
-	  if (null != this.parent) {
+	  for (int leafIndex = 0; leafIndex < leafNodes.size(); leafIndex++) {
 	    
-	    this.parent.updateRecursiv(1 - newValue);
+	    leafNodes.get(leafIndex).backup(newValues[leafIndex], revertVirtualLoss);
 	  }
+	}
+	
+	void addValueAtomic(double value) {
 	  
-	  this.update(newValue);
+	  long currentBits;
+	  long newBits;
+	  do {
+	    
+	    currentBits = this.valueSumBits;
+	    newBits = Double.doubleToRawLongBits(Double.longBitsToDouble(currentBits) + value);
+	  
+	  } while (!VALUE_SUM_UPDATER.compareAndSet(this, currentBits, newBits));
+	}
+
+	/**
+	 * @param remainingVisits the maximum number of visits still added to the children
+	 * @return true if no other child can reach the visits of the currently most visited child
+	 */
+	boolean isMostVisitedChildDecided(long remainingVisits) {
+	  
+	  int mostVisits = 0;
+	  int secondMostVisits = 0;
+	  for (TreeNode childNode : this.childNodes) {
+	    
+	    int visits = childNode.timesVisited;
+	    if (visits > mostVisits) {
+	      
+	      secondMostVisits = mostVisits;
+	      mostVisits = visits;
+	    
+	    } else if (visits > secondMostVisits) {
+	      
+	      secondMostVisits = visits;
+	    }
+	  }
 	  
+	  return mostVisits > secondMostVisits + remainingVisits;
 	}
 
 	public TreeNode getChildWithMoveIndex(int moveIndex) {
@@ -0,0 +1,120 @@
+package ch.evolutionsoft.rl;
+
+import static ch.evolutionsoft.rl.AdversaryLearning.DRAW_WEIGHT;
+
+/**
+ * {@link WinRatioSprt} is a sequential probability ratio test deciding whether a new neural net
+ * version reaches the configured win ratio threshold against the previous version.
+ *
+ * The tested statistic is the new model win ratio (wins + DRAW_WEIGHT * draws) / (wins + losses + DRAW_WEIGHT * draws)
+ * of {@link AdversaryLearning}. It is the success ratio of trials where a win counts as one success,
+ * a loss as one failure and a draw as DRAW_WEIGHT successes without failure.
+ * The test compares the hypotheses ratio = threshold - margin against ratio = threshold + margin
+ * with both error rates equal to errorRate. The log likelihood ratio of the played games is
+ * updated after each game, the test decides as soon as it leaves the bounds of Wald.
+ *
+ * @author evolutionsoft
+ */
+public class WinRatioSprt {
+
+  public enum Decision {
+    ACCEPT,
+    REJECT,
+    CONTINUE
+  }
+
+  private final double winLogLikelihoodRatio;
+
+  private final double lossLogLikelihoodRatio;
+
+  private final double lowerBound;
+
+  private final double upperBound;
+
+  private double logLikelihoodRatio;
+
+  private int numberOfGames;
+
+  /**
+   * @param threshold the win ratio the new model needs to be accepted
+   * @param margin the distance of both hypotheses from threshold, > 0
+   * @param errorRate the probability of a wrong decision for each hypothesis, between 0 and 0.5
+   */
+  public WinRatioSprt(double threshold, double margin, double errorRate) {
+
+    if (margin <= 0 || errorRate <= 0 || errorRate >= 0.5) {
+
+      throw new IllegalArgumentException(
+          "SPRT needs margin > 0 and 0 < errorRate < 0.5, margin = " + margin + ", errorRate = " + errorRate);
+    }
+
+    double rejectScore = clampScore(threshold - margin);
+    double acceptScore = clampScore(threshold + margin);
+
+    this.winLogLikelihoodRatio = Math.log(acceptScore / rejectScore);
+    this.lossLogLikelihoodRatio = Math.log((1 - acceptScore) / (1 - rejectScore));
+    this.lowerBound = Math.log(errorRate / (1 - errorRate));
+    this.upperBound = Math.log((1 - errorRate) / errorRate);
+  }
+
+  /**
+   * @return the decision after a new model win
+   */
+  public Decision addWin() {
+
+    return this.addGame(this.winLogLikelihoodRatio);
+  }
+
+  /**
+   * @return the decision after a new model loss
+   */
+  public Decision addLoss() {
+
+    return this.addGame(this.lossLogLikelihoodRatio);
+  }
+
+  /**
+   * @return the decision after a draw
+   */
+  public Decision addDraw() {
+
+    return this.addGame(DRAW_WEIGHT * this.winLogLikelihoodRatio);
+  }
+
+  Decision addGame(double gameLogLikelihoodRatio) {
+
+    this.logLikelihoodRatio += gameLogLikelihoodRatio;
+    this.numberOfGames++;
+
+    return this.getDecision();
+  }
+
+  public Decision getDecision() {
+
+    if (this.logLikelihoodRatio >= this.upperBound) {
+
+      return Decision.ACCEPT;
+
+    } else if (this.logLikelihoodRatio <= this.lowerBound) {
+
+      return Decision.REJECT;
+    }
+
+    return Decision.CONTINUE;
+  }
+
+  public double getLogLikelihoodRatio() {
+
+    return this.logLikelihoodRatio;
+  }
+
+  public int getNumberOfGames() {
+
+    return this.numberOfGames;
+  }
+
+  static double clampScore(double score) {
+
+    return Math.max(1e-6, Math.min(1 - 1e-6, score));
+  }
+}
@@ -27,11 +27,15 @@ class AdversaryLearningConfigurationTest {
         batchSize(1024).
         bestModelFileName("alphaModel.bin").
         checkPointIterationsFrequency(5).
+        numberOfCheckpointsToKeep(3).
         dirichletAlpha(0.8).
         dirichletWeight(0.4).
         fromNumberOfIterationsTemperatureZero(1000).
         fromNumberOfMovesTemperatureZero(10).
         gamesWinRatioThresholdNewNetworkUpdate(0.5).
+        numberOfArenaThreads(4).
+        arenaSprtMargin(0.1).
+        arenaSprtErrorRate(0.01).
         iterationStart(10000).
         learningRate(1e-3).
         learningRateSchedule(learningRateSchedule).
@@ -40,7 +44,18 @@ class AdversaryLearningConfigurationTest {
         numberOfIterations(1000).
         numberOfIterationsBeforePotentialUpdate(20).
         numberOfMonteCarloSimulations(100).
+        monteCarloLeafBatchSize(8).
+        neuralNetOutputCacheSize(50000).
+        numberOfSelfPlayThreads(4).
+        inferenceMaxBatchSize(32).
+        inferenceMaxWaitMicros(500).
+        useArenaTree(true).
+        numberOfSearchThreads(4).
+        searchTimeLimitMillis(250).
+        pipelinedSelfPlay(true).
+        numberOfTrainingEpochs(3).
         trainExamplesFileName("trainingExamplesHistory.obj").
+        replayBufferFileName("replayBuffer.bin").
         uctConstantFactor(1.4).
         build();
     
@@ -59,11 +74,15 @@ class AdversaryLearningConfigurationTest {
     adversaryLearningConfiguration.setBatchSize(1024);
     adversaryLearningConfiguration.setBestModelFileName("alphaModel.bin");
     adversaryLearningConfiguration.setCheckPointIterationsFrequency(5);
+    adversaryLearningConfiguration.setNumberOfCheckpointsToKeep(3);
     adversaryLearningConfiguration.setDirichletAlpha(0.8);
     adversaryLearningConfiguration.setDirichletWeight(0.4);
     adversaryLearningConfiguration.setFromNumberOfIterationsTemperatureZero(1000);
     adversaryLearningConfiguration.setFromNumberOfMovesTemperatureZero(10);
     adversaryLearningConfiguration.setGamesWinRatioThresholdNewNetworkUpdate(0.5);
+    adversaryLearningConfiguration.setNumberOfArenaThreads(4);
+    adversaryLearningConfiguration.setArenaSprtMargin(0.1);
+    adversaryLearningConfiguration.setArenaSprtErrorRate(0.01);
     adversaryLearningConfiguration.setIterationStart(10000);
     adversaryLearningConfiguration.setLearningRate(1e-3);
     adversaryLearningConfiguration.setLearningRateSchedule(learningRateSchedule);
@@ -72,7 +91,18 @@ class AdversaryLearningConfigurationTest {
     adversaryLearningConfiguration.setNumberOfIterations(1000);
     adversaryLearningConfiguration.setNumberOfIterationsBeforePotentialUpdate(20);
     adversaryLearningConfiguration.setNumberOfMonteCarloSimulations(100);
+    adversaryLearningConfiguration.setMonteCarloLeafBatchSize(8);
+    adversaryLearningConfiguration.setNeuralNetOutputCacheSize(50000);
+    adversaryLearningConfiguration.setNumberOfSelfPlayThreads(4);
+    adversaryLearningConfiguration.setInferenceMaxBatchSize(32);
+    adversaryLearningConfiguration.setInferenceMaxWaitMicros(500);
+    adversaryLearningConfiguration.setUseArenaTree(true);
+    adversaryLearningConfiguration.setNumberOfSearchThreads(4);
+    adversaryLearningConfiguration.setSearchTimeLimitMillis(250);
+    adversaryLearningConfiguration.setPipelinedSelfPlay(true);
+    adversaryLearningConfiguration.setNumberOfTrainingEpochs(3);
     adversaryLearningConfiguration.setTrainExamplesFileName("trainingExamplesHistory.obj");
+    adversaryLearningConfiguration.setReplayBufferFileName("replayBuffer.bin");
     adversaryLearningConfiguration.setUctConstantFactor(1.4);
     
     assertAllConfigurationExpectedValues(learningRateSchedule, adversaryLearningConfiguration);
@@ -88,6 +118,7 @@ class AdversaryLearningConfigurationTest {
         () -> assertEquals(1024, adversaryLearningConfiguration.getBatchSize()),
         () -> assertEquals("alphaModel.bin", adversaryLearningConfiguration.getBestModelFileName()),
         () -> assertEquals(5, adversaryLearningConfiguration.getCheckPointIterationsFrequency()),
+        () -> assertEquals(3, adversaryLearningConfiguration.getNumberOfCheckpointsToKeep()),
         () -> assertEquals(1.0, adversaryLearningConfiguration.getCurrentTemperature(0, 9)),
         () -> assertEquals(0.0, adversaryLearningConfiguration.getCurrentTemperature(0, 10)),
         () -> assertEquals(1.0, adversaryLearningConfiguration.getCurrentTemperature(999, 1)),
@@ -98,6 +129,9 @@ class AdversaryLearningConfigurationTest {
         () -> assertEquals(1000, adversaryLearningConfiguration.getFromNumberOfIterationsTemperatureZero()),
         () -> assertEquals(10, adversaryLearningConfiguration.getFromNumberOfMovesTemperatureZero()),
         () -> assertEquals(0.5, adversaryLearningConfiguration.getGamesWinRatioThresholdNewNetworkUpdate()),
+        () -> assertEquals(4, adversaryLearningConfiguration.getNumberOfArenaThreads()),
+        () -> assertEquals(0.1, adversaryLearningConfiguration.getArenaSprtMargin()),
+        () -> assertEquals(0.01, adversaryLearningConfiguration.getArenaSprtErrorRate()),
         () -> assertEquals(10000, adversaryLearningConfiguration.getIterationStart()),
         () -> assertEquals(0.001, adversaryLearningConfiguration.getLearningRate()),
         () -> assertEquals(learningRateSchedule, adversaryLearningConfiguration.getLearningRateSchedule()),
@@ -106,7 +140,18 @@ class AdversaryLearningConfigurationTest {
         () -> assertEquals(1000, adversaryLearningConfiguration.getNumberOfIterations()),
         () -> assertEquals(20, adversaryLearningConfiguration.getNumberOfIterationsBeforePotentialUpdate()),
         () -> assertEquals(100, adversaryLearningConfiguration.getNumberOfMonteCarloSimulations()),
+        () -> assertEquals(8, adversaryLearningConfiguration.getMonteCarloLeafBatchSize()),
+        () -> assertEquals(50000, adversaryLearningConfiguration.getNeuralNetOutputCacheSize()),
+        () -> assertEquals(4, adversaryLearningConfiguration.getNumberOfSelfPlayThreads()),
+        () -> assertEquals(32, adversaryLearningConfiguration.getInferenceMaxBatchSize()),
+        () -> assertEquals(500, adversaryLearningConfiguration.getInferenceMaxWaitMicros()),
+        () -> assertEquals(true, adversaryLearningConfiguration.isUseArenaTree()),
+        () -> assertEquals(4, adversaryLearningConfiguration.getNumberOfSearchThreads()),
+        () -> assertEquals(250, adversaryLearningConfiguration.getSearchTimeLimitMillis()),
+        () -> assertEquals(true, adversaryLearningConfiguration.isPipelinedSelfPlay()),
+        () -> assertEquals(3, adversaryLearningConfiguration.getNumberOfTrainingEpochs()),
         () -> assertEquals("trainingExamplesHistory.obj", adversaryLearningConfiguration.getTrainExamplesFileName()),
+        () -> assertEquals("replayBuffer.bin", adversaryLearningConfiguration.getReplayBufferFileName()),
         () -> assertEquals(1.4, adversaryLearningConfiguration.getuctConstantFactor())
     );
   }
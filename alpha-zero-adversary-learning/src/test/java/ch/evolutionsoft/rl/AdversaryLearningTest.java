@@ -2,13 +2,22 @@ package ch.evolutionsoft.rl;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
@@ -27,118 +36,276 @@ public class AdversaryLearningTest {
         maxTrainExamplesHistory(3).
         trainExamplesFileName(TEST_TRAIN_EXAMPLES).
         build());
+    adversaryLearning.checkpointWriter = new CheckpointWriter(Paths.get(TEST_TRAIN_EXAMPLES).toAbsolutePath().getParent(), 0);
   }
   
   @AfterEach
   void deleteTestTrainExamples() throws IOException {
     
-    Files.delete(Paths.get(TEST_TRAIN_EXAMPLES));
+    adversaryLearning.checkpointWriter.close();
+    adversaryLearning.trainExamplesLog.clear();
+    Files.deleteIfExists(Paths.get(TEST_TRAIN_EXAMPLES));
   }
 
   @Test
   void testResizeSaveTrainExamplesHistory() throws IOException {
 
     // Use different dummy keys
-    INDArray dummyBoard1 = Nd4j.zeros(1);
-    INDArray dummyBoard2 = Nd4j.zeros(2);
-    INDArray dummyBoard3 = Nd4j.zeros(3);
-    INDArray dummyBoard4 = Nd4j.zeros(4);
+    INDArray dummyBoard1 = Nd4j.createFromArray(1f);
+    INDArray dummyBoard2 = Nd4j.createFromArray(2f);
+    INDArray dummyBoard3 = Nd4j.createFromArray(3f);
+    INDArray dummyBoard4 = Nd4j.createFromArray(4f);
     INDArray dummyAction = Nd4j.ones(1);
     
-    adversaryLearning.trainExamplesHistory.put(dummyBoard1,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard1),
         new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 1));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard2,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard2),
         new AdversaryTrainingExample(dummyBoard2, Game.MAX_PLAYER, dummyAction, 2));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard3,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard3),
         new AdversaryTrainingExample(dummyBoard3, Game.MAX_PLAYER, dummyAction, 3));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard4,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard4),
         new AdversaryTrainingExample(dummyBoard4, Game.MAX_PLAYER, dummyAction, 4));
     
     adversaryLearning.saveTrainExamplesHistory();
     
     assertEquals(3, adversaryLearning.trainExamplesHistory.size());
-    assertFalse(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard1));
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard2));
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard3));
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard4));
+    assertFalse(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard1)));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard2)));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard3)));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard4)));
   }
 
   @Test
   void testResizeSaveTrainExamplesHistoryWithSameIterations() throws IOException {
 
     // Use different dummy keys
-    INDArray dummyBoard1 = Nd4j.zeros(1);
-    INDArray dummyBoard2 = Nd4j.zeros(2);
-    INDArray dummyBoard3 = Nd4j.zeros(3);
-    INDArray dummyBoard4 = Nd4j.zeros(4);
-    INDArray dummyBoard5 = Nd4j.zeros(5);
+    INDArray dummyBoard1 = Nd4j.createFromArray(1f);
+    INDArray dummyBoard2 = Nd4j.createFromArray(2f);
+    INDArray dummyBoard3 = Nd4j.createFromArray(3f);
+    INDArray dummyBoard4 = Nd4j.createFromArray(4f);
+    INDArray dummyBoard5 = Nd4j.createFromArray(5f);
     INDArray dummyAction = Nd4j.ones(1);
     
-    adversaryLearning.trainExamplesHistory.put(dummyBoard1,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard1),
         new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 1));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard2,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard2),
         new AdversaryTrainingExample(dummyBoard2, Game.MAX_PLAYER, dummyAction, 2));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard3,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard3),
         new AdversaryTrainingExample(dummyBoard3, Game.MAX_PLAYER, dummyAction, 2));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard4,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard4),
         new AdversaryTrainingExample(dummyBoard4, Game.MAX_PLAYER, dummyAction, 3));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard5,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard5),
         new AdversaryTrainingExample(dummyBoard5, Game.MAX_PLAYER, dummyAction, 3));
     
     adversaryLearning.saveTrainExamplesHistory();
     
     assertEquals(3, adversaryLearning.trainExamplesHistory.size());
-    assertFalse(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard1));
+    assertFalse(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard1)));
     assertTrue(
-        adversaryLearning.trainExamplesHistory.containsKey(dummyBoard2) ||
-        adversaryLearning.trainExamplesHistory.containsKey(dummyBoard3)
+        adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard2)) ||
+        adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard3))
         );
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard4));
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard5));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard4)));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard5)));
+  }
+
+  @Test
+  void testReplacedExampleBecomesNewest() {
+
+    INDArray dummyBoard1 = Nd4j.createFromArray(1f);
+    INDArray dummyBoard2 = Nd4j.createFromArray(2f);
+    INDArray dummyBoard3 = Nd4j.createFromArray(3f);
+    INDArray dummyBoard4 = Nd4j.createFromArray(4f);
+    INDArray dummyAction = Nd4j.ones(1);
+    
+    adversaryLearning.replaceOldTrainingExamplesWithNewActionProbabilities(Arrays.asList(
+        new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 1),
+        new AdversaryTrainingExample(dummyBoard2, Game.MAX_PLAYER, dummyAction, 1),
+        new AdversaryTrainingExample(dummyBoard3, Game.MAX_PLAYER, dummyAction, 2)));
+    adversaryLearning.replaceOldTrainingExamplesWithNewActionProbabilities(Arrays.asList(
+        new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 3),
+        new AdversaryTrainingExample(dummyBoard4, Game.MAX_PLAYER, dummyAction, 3)));
+    
+    assertEquals(3, adversaryLearning.trainExamplesHistory.size());
+    assertFalse(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard2)));
+    assertEquals(3,
+        adversaryLearning.trainExamplesHistory.get(NeuralNetOutputCache.boardHash(dummyBoard1)).getIteration());
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard3)));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard4)));
+  }
+
+  @Test
+  void testBoardHashCollisionKeepsStoredExample() {
+
+    INDArray dummyBoard1 = Nd4j.createFromArray(1f);
+    INDArray dummyAction = Nd4j.ones(1);
+    AdversaryTrainingExample collidingExample =
+        new AdversaryTrainingExample(Nd4j.createFromArray(2f), Game.MAX_PLAYER, dummyAction, 2);
+    collidingExample.boardHash = NeuralNetOutputCache.boardHash(dummyBoard1);
+    
+    adversaryLearning.replaceOldTrainingExamplesWithNewActionProbabilities(Arrays.asList(
+        new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 1),
+        collidingExample));
+    
+    assertEquals(1, adversaryLearning.trainExamplesHistory.size());
+    assertEquals(dummyBoard1,
+        adversaryLearning.trainExamplesHistory.get(NeuralNetOutputCache.boardHash(dummyBoard1)).getBoard());
   }
 
   @Test
   void testResizeWithExactlyMaxExamplesSaveTrainExamplesHistory() throws IOException {
 
     // Use different dummy keys
-    INDArray dummyBoard1 = Nd4j.zeros(1);
-    INDArray dummyBoard2 = Nd4j.zeros(2);
-    INDArray dummyBoard3 = Nd4j.zeros(3);
+    INDArray dummyBoard1 = Nd4j.createFromArray(1f);
+    INDArray dummyBoard2 = Nd4j.createFromArray(2f);
+    INDArray dummyBoard3 = Nd4j.createFromArray(3f);
     INDArray dummyAction = Nd4j.ones(1);
     
-    adversaryLearning.trainExamplesHistory.put(dummyBoard1,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard1),
         new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 1));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard2,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard2),
         new AdversaryTrainingExample(dummyBoard2, Game.MAX_PLAYER, dummyAction, 2));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard3,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard3),
         new AdversaryTrainingExample(dummyBoard3, Game.MAX_PLAYER, dummyAction, 3));
     
     adversaryLearning.saveTrainExamplesHistory();
     
     assertEquals(3, adversaryLearning.trainExamplesHistory.size());
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard1));
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard2));
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard3));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard1)));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard2)));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard3)));
   }
 
   @Test
   void testResizeLowerMaxExamplesNotNecessarySaveTrainExamplesHistory() throws IOException {
 
     // Use different dummy keys
-    INDArray dummyBoard1 = Nd4j.zeros(1);
-    INDArray dummyBoard2 = Nd4j.zeros(2);
+    INDArray dummyBoard1 = Nd4j.createFromArray(1f);
+    INDArray dummyBoard2 = Nd4j.createFromArray(2f);
     INDArray dummyAction = Nd4j.ones(1);
     
-    adversaryLearning.trainExamplesHistory.put(dummyBoard1,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard1),
         new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 1));
-    adversaryLearning.trainExamplesHistory.put(dummyBoard2,
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard2),
         new AdversaryTrainingExample(dummyBoard2, Game.MAX_PLAYER, dummyAction, 2));
     
     adversaryLearning.saveTrainExamplesHistory();
     
     assertEquals(2, adversaryLearning.trainExamplesHistory.size());
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard1));
-    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(dummyBoard2));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard1)));
+    assertTrue(adversaryLearning.trainExamplesHistory.containsKey(NeuralNetOutputCache.boardHash(dummyBoard2)));
+  }
+
+  @Test
+  void testRestoreSavedAndLegacyTrainExamplesHistory() throws IOException {
+
+    INDArray dummyBoard1 = Nd4j.createFromArray(1f);
+    INDArray dummyBoard2 = Nd4j.createFromArray(2f);
+    INDArray dummyAction = Nd4j.ones(1);
+    
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard1),
+        new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 1));
+    adversaryLearning.saveTrainExamplesHistory();
+    adversaryLearning.checkpointWriter.awaitWrites();
+    
+    AdversaryLearning restoredLearning = new AdversaryLearning(
+        new TestGame(),
+        new TestComputationGraph(),
+        new AdversaryLearningConfiguration.Builder().build());
+    restoredLearning.restoreTrainingExamples = true;
+    restoredLearning.loadEarlierTrainingExamples(TEST_TRAIN_EXAMPLES);
+    
+    assertEquals(1, restoredLearning.trainExamplesHistory.size());
+    assertEquals(dummyBoard1,
+        restoredLearning.trainExamplesHistory.get(NeuralNetOutputCache.boardHash(dummyBoard1)).getBoard());
+    
+    Map<INDArray, AdversaryTrainingExample> legacyHistory = new HashMap<>();
+    legacyHistory.put(dummyBoard2, new AdversaryTrainingExample(dummyBoard2, Game.MIN_PLAYER, dummyAction, 2));
+    try (ObjectOutputStream legacyOutput = new ObjectOutputStream(new FileOutputStream(TEST_TRAIN_EXAMPLES))) {
+      
+      legacyOutput.writeObject(legacyHistory);
+    }
+    restoredLearning.loadEarlierTrainingExamples(TEST_TRAIN_EXAMPLES);
+    
+    assertEquals(2, restoredLearning.trainExamplesHistory.size());
+    assertEquals(Game.MIN_PLAYER,
+        restoredLearning.trainExamplesHistory.get(NeuralNetOutputCache.boardHash(dummyBoard2)).getCurrentPlayer());
   }
 
+  @Test
+  void testRestoreReplaysTrainExamplesLog() throws IOException {
+
+    INDArray dummyBoard1 = Nd4j.createFromArray(1f);
+    INDArray dummyBoard2 = Nd4j.createFromArray(2f);
+    INDArray dummyAction = Nd4j.ones(1);
+    
+    adversaryLearning.trainExamplesHistory.put(NeuralNetOutputCache.boardHash(dummyBoard1),
+        new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 1));
+    adversaryLearning.saveTrainExamplesHistory();
+    adversaryLearning.checkpointWriter.awaitWrites();
+    adversaryLearning.trainExamplesLog.append(Arrays.asList(
+        new AdversaryTrainingExample(dummyBoard1, Game.MAX_PLAYER, dummyAction, 2),
+        new AdversaryTrainingExample(dummyBoard2, Game.MIN_PLAYER, dummyAction, 2)));
+    
+    AdversaryLearning restoredLearning = new AdversaryLearning(
+        new TestGame(),
+        new TestComputationGraph(),
+        new AdversaryLearningConfiguration.Builder().build());
+    restoredLearning.restoreTrainingExamples = true;
+    restoredLearning.loadEarlierTrainingExamples(TEST_TRAIN_EXAMPLES);
+    
+    assertEquals(2, restoredLearning.trainExamplesHistory.size());
+    assertEquals(2,
+        restoredLearning.trainExamplesHistory.get(NeuralNetOutputCache.boardHash(dummyBoard1)).getIteration());
+    
+    adversaryLearning.saveTrainExamplesHistory();
+    
+    assertFalse(Files.exists(adversaryLearning.trainExamplesLog.getLogPath()));
+    adversaryLearning.checkpointWriter.awaitWrites();
+    
+    assertTrue(adversaryLearning.trainExamplesLog.replay().isEmpty());
+  }
+
+  @Test
+  void testCheckLastDurableIteration(@TempDir Path checkpointDirectory) throws IOException {
+
+    AdversaryLearning restartedLearning = new AdversaryLearning(
+        new TestGame(),
+        new TestComputationGraph(),
+        new AdversaryLearningConfiguration.Builder().
+        iterationStart(25).
+        checkPointIterationsFrequency(10).
+        build());
+
+    assertDoesNotThrow(() -> restartedLearning.checkLastDurableIteration(checkpointDirectory));
+
+    Path markerPath = checkpointDirectory.resolve(CheckpointWriter.LAST_DURABLE_ITERATION_FILE_NAME);
+    Files.write(markerPath, "20".getBytes(StandardCharsets.UTF_8));
+    assertDoesNotThrow(() -> restartedLearning.checkLastDurableIteration(checkpointDirectory));
+
+    Files.write(markerPath, "10".getBytes(StandardCharsets.UTF_8));
+    assertThrows(IllegalStateException.class, () -> restartedLearning.checkLastDurableIteration(checkpointDirectory));
+  }
+
+  @Test
+  void testCopyComputationGraphIntoPreallocatedSnapshot() {
+
+    TestComputationGraph computationGraph = new TestComputationGraph();
+    computationGraph.init();
+    computationGraph.params().assign(0.25f);
+    computationGraph.getConfiguration().setIterationCount(7);
+    
+    ComputationGraph snapshot = AdversaryLearning.copyComputationGraph(computationGraph, null);
+    assertNotSame(computationGraph, snapshot);
+    
+    computationGraph.params().assign(0.5f);
+    computationGraph.getConfiguration().setIterationCount(8);
+    
+    assertEquals(0.25f, snapshot.params().getFloat(0));
+    assertEquals(7, snapshot.getIterationCount());
+    
+    assertSame(snapshot, AdversaryLearning.copyComputationGraph(computationGraph, snapshot));
+    assertEquals(0.5f, snapshot.params().getFloat(0));
+    assertEquals(8, snapshot.getIterationCount());
+  }
 }
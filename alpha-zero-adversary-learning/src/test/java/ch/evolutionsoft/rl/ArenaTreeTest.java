@@ -0,0 +1,88 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class ArenaTreeTest {
+
+  @Test
+  void testExpandStoresChildrenContiguously() {
+
+    ArenaTree arenaTree = new ArenaTree(2);
+    int root = arenaTree.resetRoot(Game.MIN_PLAYER);
+
+    arenaTree.expand(root, new int[] {1, 4, 7, 0}, 3, new float[] {0f, 0.2f, 0f, 0f, 0.5f, 0f, 0f, 0.3f},
+        Game.MAX_PLAYER);
+
+    assertTrue(arenaTree.isExpanded(root));
+    assertEquals(4, arenaTree.size());
+    assertTrue(arenaTree.capacity() >= 4);
+    assertEquals(3, arenaTree.getChildCount(root));
+    assertEquals(1, arenaTree.getFirstChild(root));
+
+    int child = arenaTree.getChildWithMoveIndex(root, 4);
+    assertEquals(2, child);
+    assertEquals(root, arenaTree.getParent(child));
+    assertEquals(Game.MAX_PLAYER, arenaTree.getLastMoveColor(child));
+    assertEquals(0.5, arenaTree.getMoveProbability(child), 1e-6);
+    assertEquals(1 - AdversaryLearning.DRAW_VALUE, arenaTree.getQValue(child), 1e-6);
+    assertFalse(arenaTree.isExpanded(child));
+    assertEquals(ArenaTree.NO_NODE, arenaTree.getChildWithMoveIndex(root, 0));
+  }
+
+  @Test
+  void testBackupAlternatesValues() {
+
+    ArenaTree arenaTree = new ArenaTree(16);
+    int root = arenaTree.resetRoot(Game.MIN_PLAYER);
+    arenaTree.expand(root, new int[] {0, 1}, 2, new float[] {0.5f, 0.5f}, Game.MAX_PLAYER);
+    int child = arenaTree.getChildWithMoveIndex(root, 1);
+
+    arenaTree.backup(child, 1.0);
+
+    assertEquals(1, arenaTree.getTimesVisited(child));
+    assertEquals(1, arenaTree.getTimesVisited(root));
+    assertEquals(1.0, arenaTree.getQValue(child), 1e-6);
+    assertEquals(0.0, arenaTree.getQValue(root), 1e-6);
+  }
+
+  @Test
+  void testSelectChildPrefersHigherPriorAndValue() {
+
+    ArenaTree arenaTree = new ArenaTree(16);
+    int root = arenaTree.resetRoot(Game.MIN_PLAYER);
+    arenaTree.expand(root, new int[] {0, 1, 2}, 3, new float[] {0.1f, 0.8f, 0.1f},
+        Game.MAX_PLAYER);
+    arenaTree.backup(root, 0.5);
+
+    assertEquals(arenaTree.getChildWithMoveIndex(root, 1), arenaTree.selectChild(root, 1.5));
+
+    int child = arenaTree.getChildWithMoveIndex(root, 2);
+    for (int visit = 0; visit < 5; visit++) {
+
+      arenaTree.backup(child, 1.0);
+    }
+
+    assertEquals(child, arenaTree.selectChild(root, 0));
+  }
+
+  @Test
+  void testResetRootReusesArrays() {
+
+    ArenaTree arenaTree = new ArenaTree(4);
+    int root = arenaTree.resetRoot(Game.MIN_PLAYER);
+    arenaTree.expand(root, new int[] {0, 1, 2, 3, 4}, 5, new float[] {0.2f, 0.2f, 0.2f, 0.2f, 0.2f},
+        Game.MAX_PLAYER);
+    int capacity = arenaTree.capacity();
+
+    root = arenaTree.resetRoot(Game.MAX_PLAYER);
+
+    assertEquals(ArenaTree.ROOT, root);
+    assertEquals(1, arenaTree.size());
+    assertEquals(capacity, arenaTree.capacity());
+    assertFalse(arenaTree.isExpanded(root));
+    assertEquals(0, arenaTree.getTimesVisited(root));
+    assertEquals(Game.MAX_PLAYER, arenaTree.getLastMoveColor(root));
+  }
+}
@@ -0,0 +1,118 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nd4j.linalg.factory.Nd4j;
+
+class CheckpointWriterTest {
+
+  @TempDir
+  Path temporaryFolder;
+
+  @Test
+  void testWritesSnapshotsAndKeepsNewestCheckpoints() throws IOException {
+
+    ComputationGraph computationGraph = new TestComputationGraph();
+    computationGraph.init();
+    computationGraph.params().assign(0.25f);
+
+    AdversaryTrainingExample trainExample = new AdversaryTrainingExample(
+        Nd4j.createFromArray(1f), Game.MAX_PLAYER, Nd4j.ones(1), 1);
+
+    Path model1 = this.temporaryFolder.resolve("model1.bin");
+    Path model2 = this.temporaryFolder.resolve("model2.bin");
+    Path trainExamples1 = this.temporaryFolder.resolve("trainExamples1.obj");
+    Path trainExamples2 = this.temporaryFolder.resolve("trainExamples2.obj");
+
+    try (CheckpointWriter checkpointWriter = new CheckpointWriter(this.temporaryFolder, 1)) {
+
+      checkpointWriter.writeModel(computationGraph, model1);
+      computationGraph.params().assign(0.5f);
+      checkpointWriter.writeTrainExamples(Collections.singletonList(trainExample), trainExamples1);
+      checkpointWriter.completeCheckpoint(1, Arrays.asList(model1, trainExamples1));
+
+      checkpointWriter.writeModel(computationGraph, model2);
+      checkpointWriter.writeTrainExamples(Collections.singletonList(trainExample), trainExamples2);
+      checkpointWriter.completeCheckpoint(2, Arrays.asList(model2, trainExamples2));
+    }
+
+    assertFalse(Files.exists(model1));
+    assertFalse(Files.exists(trainExamples1));
+    assertEquals(0.5f, ModelSerializer.restoreComputationGraph(model2.toFile(), false).params().getFloat(0));
+    assertEquals(1, TrainExamplesFile.read(trainExamples2).size());
+    assertEquals(2, CheckpointWriter.readLastDurableIteration(this.temporaryFolder));
+  }
+
+  @Test
+  void testSnapshotIsTakenAtSubmission() throws IOException {
+
+    ComputationGraph computationGraph = new TestComputationGraph();
+    computationGraph.init();
+    computationGraph.params().assign(0.25f);
+
+    Path model = this.temporaryFolder.resolve("model.bin");
+    CheckpointWriter checkpointWriter = new CheckpointWriter(this.temporaryFolder, 0);
+    checkpointWriter.writeModel(computationGraph, model);
+    computationGraph.params().assign(0.75f);
+    checkpointWriter.close();
+
+    assertEquals(0.25f, ModelSerializer.restoreComputationGraph(model.toFile(), false).params().getFloat(0));
+    assertEquals(CheckpointWriter.NO_ITERATION, checkpointWriter.getLastDurableIteration());
+    assertEquals(CheckpointWriter.NO_ITERATION, CheckpointWriter.readLastDurableIteration(this.temporaryFolder));
+  }
+
+  @Test
+  void testCopyFileBeforeCheckpointIsCompleted() throws IOException {
+
+    Path source = this.temporaryFolder.resolve("replayBuffer.bin");
+    Path copy = this.temporaryFolder.resolve("replayBuffer.bin.0000001");
+    Files.write(source, new byte[] {1, 2, 3});
+
+    try (CheckpointWriter checkpointWriter = new CheckpointWriter(this.temporaryFolder, 0)) {
+
+      checkpointWriter.copyFile(source, copy);
+      Files.write(source, new byte[] {4});
+
+      assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(copy));
+      assertFalse(Files.exists(copy.resolveSibling(copy.getFileName() + CheckpointWriter.TEMPORARY_SUFFIX)));
+      checkpointWriter.completeCheckpoint(1, Collections.singletonList(copy));
+    }
+
+    assertEquals(1, CheckpointWriter.readLastDurableIteration(this.temporaryFolder));
+  }
+
+  @Test
+  void testPrunesCheckpointsOfEarlierRun() throws IOException {
+
+    Path model1 = Files.write(this.temporaryFolder.resolve("model0000001.bin"), new byte[] {1});
+    Path trainExamples1 = Files.write(this.temporaryFolder.resolve("trainExamples0000001.obj"), new byte[] {1});
+    Path model2 = Files.write(this.temporaryFolder.resolve("model0000002.bin"), new byte[] {2});
+    Path incompleteModel3 = Files.write(this.temporaryFolder.resolve("model0000003.bin"), new byte[] {3});
+    Path bestModel = Files.write(this.temporaryFolder.resolve("model.bin"), new byte[] {0});
+    Files.write(this.temporaryFolder.resolve(CheckpointWriter.LAST_DURABLE_ITERATION_FILE_NAME), "2".getBytes());
+
+    try (CheckpointWriter checkpointWriter = new CheckpointWriter(this.temporaryFolder, 2, Arrays.asList(
+        CheckpointWriter.checkpointFileNamePattern("model", ".bin"),
+        CheckpointWriter.checkpointFileNamePattern("trainExamples", ".obj")))) {
+
+      Files.write(incompleteModel3, new byte[] {4});
+      checkpointWriter.completeCheckpoint(3, Collections.singletonList(incompleteModel3));
+    }
+
+    assertFalse(Files.exists(model1));
+    assertFalse(Files.exists(trainExamples1));
+    assertTrue(Files.exists(model2));
+    assertArrayEquals(new byte[] {4}, Files.readAllBytes(incompleteModel3));
+    assertTrue(Files.exists(bestModel));
+  }
+}
@@ -0,0 +1,223 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+class MappedReplayBufferTest {
+
+  static final long[] BOARD_SHAPE = {2, 2};
+
+  @TempDir
+  Path temporaryFolder;
+
+  @Test
+  void testPutReplaceEvictAndReopen() throws IOException {
+
+    Path replayBufferPath = this.temporaryFolder.resolve("replayBuffer.bin");
+    MappedReplayBuffer replayBuffer = MappedReplayBuffer.open(replayBufferPath, 2, BOARD_SHAPE, 3);
+
+    AdversaryTrainingExample example1 = createExample(1f, 1);
+    AdversaryTrainingExample example2 = createExample(2f, 1);
+    replayBuffer.putAll(Arrays.asList(example1, example2));
+    replayBuffer.put(createExample(1f, 2));
+
+    assertEquals(2, replayBuffer.size());
+    assertEquals(2, replayBuffer.get(replayBuffer.getSlot(example1.getBoardHash())).getIteration());
+
+    AdversaryTrainingExample example3 = createExample(3f, 3);
+    replayBuffer.put(example3);
+
+    assertEquals(2, replayBuffer.size());
+    assertEquals(-1, replayBuffer.getSlot(example2.getBoardHash()));
+    assertEquals(example1.getBoard(), replayBuffer.get(replayBuffer.getSlot(example1.getBoardHash())).getBoard());
+    replayBuffer.close();
+
+    MappedReplayBuffer reopenedBuffer = MappedReplayBuffer.open(replayBufferPath, 2, BOARD_SHAPE, 3);
+
+    assertEquals(2, reopenedBuffer.size());
+    AdversaryTrainingExample restoredExample3 = reopenedBuffer.get(reopenedBuffer.getSlot(example3.getBoardHash()));
+    assertEquals(example3.getBoard(), restoredExample3.getBoard());
+    assertEquals(Nd4j.createFromArray(0.5f, 0.5f, 0f), restoredExample3.getActionIndexProbabilities());
+    assertEquals(1f, restoredExample3.getCurrentPlayerValue());
+    assertEquals(3, restoredExample3.getIteration());
+
+    reopenedBuffer.put(createExample(4f, 4));
+
+    assertEquals(-1, reopenedBuffer.getSlot(example1.getBoardHash()));
+    assertNotEquals(-1, reopenedBuffer.getSlot(example3.getBoardHash()));
+
+    assertThrows(IllegalArgumentException.class,
+        () -> MappedReplayBuffer.open(replayBufferPath, 3, BOARD_SHAPE, 3));
+  }
+
+  @Test
+  void testBoardHashCollisionKeepsStoredExample() throws IOException {
+
+    MappedReplayBuffer replayBuffer = MappedReplayBuffer.open(
+        this.temporaryFolder.resolve("replayBuffer.bin"), 2, BOARD_SHAPE, 3);
+
+    AdversaryTrainingExample example1 = createExample(1f, 1);
+    AdversaryTrainingExample collidingExample = createExample(2f, 2);
+    collidingExample.boardHash = example1.getBoardHash();
+
+    replayBuffer.put(example1);
+    replayBuffer.put(collidingExample);
+
+    assertNotEquals(example1, collidingExample);
+    assertEquals(1, replayBuffer.size());
+    assertEquals(example1.getBoard(), replayBuffer.get(replayBuffer.getSlot(example1.getBoardHash())).getBoard());
+
+    replayBuffer.close();
+  }
+
+  @Test
+  void testRePutExampleSurvivesCapacityMinusOneInsertions() throws IOException {
+
+    int capacity = 10;
+    MappedReplayBuffer replayBuffer =
+        MappedReplayBuffer.open(this.temporaryFolder.resolve("replayBuffer.bin"), capacity, BOARD_SHAPE, 2);
+    for (int example = 1; example <= capacity; example++) {
+
+      replayBuffer.put(createExample(example, 1));
+    }
+
+    AdversaryTrainingExample rePutExample = createExample(1f, 2);
+    replayBuffer.put(rePutExample);
+    for (int example = capacity + 1; example < 2 * capacity; example++) {
+
+      replayBuffer.put(createExample(example, 3));
+    }
+
+    assertEquals(capacity, replayBuffer.size());
+    assertEquals(2, replayBuffer.get(replayBuffer.getSlot(rePutExample.getBoardHash())).getIteration());
+    for (int example = 2; example <= capacity; example++) {
+
+      assertEquals(-1, replayBuffer.getSlot(createExample(example, 1).getBoardHash()));
+    }
+
+    replayBuffer.put(createExample(2f * capacity, 3));
+
+    assertEquals(-1, replayBuffer.getSlot(rePutExample.getBoardHash()));
+  }
+
+  @Test
+  void testKeepsNewestExamplesLikeHeapHistoryAfterReopen() throws IOException {
+
+    Path replayBufferPath = this.temporaryFolder.resolve("replayBuffer.bin");
+    int capacity = 16;
+    MappedReplayBuffer replayBuffer = MappedReplayBuffer.open(replayBufferPath, capacity, BOARD_SHAPE, 2);
+    Map<Long, Integer> expectedIterations = new LinkedHashMap<>();
+    Random random = new Random(11);
+
+    for (int iteration = 1; iteration <= 2000; iteration++) {
+
+      // Few distinct boards let most puts replace an example and force compactions
+      AdversaryTrainingExample example = createExample(random.nextInt(24), iteration);
+      replayBuffer.put(example);
+      expectedIterations.remove(example.getBoardHash());
+      expectedIterations.put(example.getBoardHash(), iteration);
+      if (capacity < expectedIterations.size()) {
+
+        expectedIterations.remove(expectedIterations.keySet().iterator().next());
+      }
+
+      if (0 == iteration % 500) {
+
+        replayBuffer.close();
+        replayBuffer = MappedReplayBuffer.open(replayBufferPath, capacity, BOARD_SHAPE, 2);
+      }
+    }
+
+    assertEquals(expectedIterations.size(), replayBuffer.size());
+    for (Map.Entry<Long, Integer> expectedIteration : expectedIterations.entrySet()) {
+
+      int slot = replayBuffer.getSlot(expectedIteration.getKey());
+      assertEquals(expectedIteration.getValue().intValue(), replayBuffer.get(slot).getIteration());
+    }
+
+    TrainExamplesIterator trainExamplesIterator = new TrainExamplesIterator(replayBuffer, capacity, new Random(1));
+    assertEquals(capacity, trainExamplesIterator.next().getFeatures(0).size(0));
+  }
+
+  @Test
+  void testIterateMiniBatches() throws IOException {
+
+    MappedReplayBuffer replayBuffer =
+        MappedReplayBuffer.open(this.temporaryFolder.resolve("replayBuffer.bin"), 10, BOARD_SHAPE, 2);
+    for (int example = 1; example <= 5; example++) {
+
+      replayBuffer.put(createExample(example, example));
+    }
+
+    TrainExamplesIterator trainExamplesIterator = new TrainExamplesIterator(replayBuffer, 2, new Random(1));
+    List<MultiDataSet> miniBatches = new ArrayList<>();
+    trainExamplesIterator.forEachRemaining(miniBatches::add);
+
+    assertEquals(3, miniBatches.size());
+    assertArrayEquals(new long[] {2, 2, 2}, miniBatches.get(0).getFeatures(0).shape());
+    assertArrayEquals(new long[] {2, 2}, miniBatches.get(0).getLabels(0).shape());
+    assertArrayEquals(new long[] {1, 1}, miniBatches.get(2).getLabels(1).shape());
+
+    double boardValueSum = 0;
+    for (MultiDataSet miniBatch : miniBatches) {
+
+      boardValueSum += miniBatch.getFeatures(0).sumNumber().doubleValue();
+      assertEquals(0.5, miniBatch.getLabels(0).getDouble(0, 1), 1e-6);
+      assertEquals(1, miniBatch.getLabels(1).getDouble(0, 0), 1e-6);
+    }
+    assertEquals(15, boardValueSum, 1e-6);
+  }
+
+  @Test
+  void testSlotIndexRemoveKeepsProbeSequences() {
+
+    MappedReplayBuffer.SlotIndex slotIndex = new MappedReplayBuffer.SlotIndex(64);
+    Map<Long, Integer> expectedSlots = new HashMap<>();
+    Random random = new Random(7);
+
+    for (int operation = 0; operation < 10000; operation++) {
+
+      // Few distinct hashes force collisions and removals inside probe sequences
+      long boardHash = random.nextInt(100);
+      if (random.nextBoolean() && expectedSlots.size() < 64) {
+
+        slotIndex.put(boardHash, operation);
+        expectedSlots.put(boardHash, operation);
+
+      } else {
+
+        slotIndex.remove(boardHash);
+        expectedSlots.remove(boardHash);
+      }
+    }
+
+    for (long boardHash = 0; boardHash < 100; boardHash++) {
+
+      assertEquals(expectedSlots.getOrDefault(boardHash, -1).intValue(), slotIndex.get(boardHash));
+    }
+  }
+
+  static AdversaryTrainingExample createExample(float boardValue, int iteration) {
+
+    AdversaryTrainingExample example = new AdversaryTrainingExample(
+        Nd4j.createFromArray(new float[][] {{boardValue, 0f}, {0f, 0f}}),
+        Game.MAX_PLAYER, Nd4j.createFromArray(0.5f, 0.5f), iteration);
+    example.setCurrentPlayerValue(1f);
+
+    return example;
+  }
+}
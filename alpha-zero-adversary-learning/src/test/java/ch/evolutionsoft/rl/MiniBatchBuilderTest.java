@@ -0,0 +1,61 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+class MiniBatchBuilderTest {
+
+  @Test
+  void testBuildFullAndPartialMiniBatches() {
+
+    MiniBatchBuilder miniBatchBuilder = new MiniBatchBuilder(new long[] {1, 2}, 3, 2);
+
+    miniBatchBuilder.add(createExample(1f, 2f, 0.25f));
+    miniBatchBuilder.add(createExample(3f, 4f, 0.75f));
+
+    assertTrue(miniBatchBuilder.isFull());
+    assertThrows(IllegalStateException.class, () -> miniBatchBuilder.add(createExample(5f, 6f, 0f)));
+
+    MultiDataSet fullBatch = miniBatchBuilder.build();
+
+    assertTrue(miniBatchBuilder.isEmpty());
+    assertEquals(Nd4j.createFromArray(new float[][][] {{{1f, 2f}}, {{3f, 4f}}}), fullBatch.getFeatures(0));
+    assertEquals(Nd4j.createFromArray(new float[][] {{0.5f, 0.5f, 0f}, {0.5f, 0.5f, 0f}}), fullBatch.getLabels(0));
+    assertEquals(Nd4j.createFromArray(new float[][] {{0.25f}, {0.75f}}), fullBatch.getLabels(1));
+
+    miniBatchBuilder.add(createExample(5f, 6f, 1f));
+    MultiDataSet partialBatch = miniBatchBuilder.build();
+
+    assertArrayEquals(new long[] {1, 1, 2}, partialBatch.getFeatures(0).shape());
+    assertEquals(Nd4j.createFromArray(new float[][] {{1f}}), partialBatch.getLabels(1));
+    assertEquals(3f, fullBatch.getFeatures(0).getFloat(1, 0, 0));
+  }
+
+  @Test
+  void testRejectMismatchingExamples() {
+
+    MiniBatchBuilder miniBatchBuilder = new MiniBatchBuilder(new long[] {1, 2}, 1, 2);
+
+    assertThrows(IllegalArgumentException.class, () -> miniBatchBuilder.add(createExample(1f, 2f, 0f)));
+
+    AdversaryTrainingExample largerBoardExample = new AdversaryTrainingExample(
+        Nd4j.zeros(2, 2), Game.MAX_PLAYER, Nd4j.createFromArray(1f), 1);
+    largerBoardExample.setCurrentPlayerValue(1f);
+
+    assertThrows(IllegalArgumentException.class, () -> miniBatchBuilder.add(largerBoardExample));
+    assertTrue(miniBatchBuilder.isEmpty());
+  }
+
+  static AdversaryTrainingExample createExample(float firstValue, float secondValue, float currentPlayerValue) {
+
+    AdversaryTrainingExample example = new AdversaryTrainingExample(
+        Nd4j.createFromArray(new float[][] {{firstValue, secondValue}}),
+        Game.MAX_PLAYER, Nd4j.createFromArray(0.5f, 0.5f), 1);
+    example.setCurrentPlayerValue(currentPlayerValue);
+
+    return example;
+  }
+}
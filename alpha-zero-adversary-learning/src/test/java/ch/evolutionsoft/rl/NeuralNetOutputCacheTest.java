@@ -0,0 +1,71 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+class NeuralNetOutputCacheTest {
+
+  @Test
+  void testBoardHashDependsOnBoardValues() {
+
+    INDArray board1 = Nd4j.zeros(3, 3, 3);
+    INDArray board2 = Nd4j.zeros(3, 3, 3);
+    board2.putScalar(1, 1, 1, AdversaryLearningConstants.ONE);
+
+    assertEquals(NeuralNetOutputCache.boardHash(board1), NeuralNetOutputCache.boardHash(board1.dup()));
+    assertNotEquals(NeuralNetOutputCache.boardHash(board1), NeuralNetOutputCache.boardHash(board2));
+  }
+
+  @Test
+  void testLeastRecentlyUsedEviction() {
+
+    NeuralNetOutputCache cache = new NeuralNetOutputCache(2);
+    INDArray actionProbabilities = Nd4j.ones(3);
+
+    cache.put(1L, actionProbabilities, 0.1);
+    cache.put(2L, actionProbabilities, 0.2);
+    assertNotNull(cache.get(1L));
+    cache.put(3L, actionProbabilities, 0.3);
+
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get(1L));
+    assertNull(cache.get(2L));
+    assertEquals(0.3, cache.get(3L).getValue());
+    assertArrayEquals(new float[] {1f, 1f, 1f}, cache.get(3L).getActionProbabilities());
+  }
+
+  @Test
+  void testHitMissCountersAndInvalidate() {
+
+    NeuralNetOutputCache cache = new NeuralNetOutputCache(10);
+    cache.put(1L, Nd4j.ones(3), 0.5);
+
+    cache.get(1L);
+    cache.get(2L);
+    cache.get(1L);
+
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(2 / 3.0, cache.getHitRatio(), 1e-9);
+
+    cache.invalidate();
+
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getHits());
+    assertEquals(0, cache.getMisses());
+    assertNull(cache.get(1L));
+  }
+
+  @Test
+  void testDisabledCache() {
+
+    NeuralNetOutputCache cache = new NeuralNetOutputCache(0);
+    cache.put(1L, Nd4j.ones(3), 0.5);
+
+    assertEquals(0, cache.size());
+    assertNull(cache.get(1L));
+  }
+}
@@ -0,0 +1,80 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.factory.Nd4j;
+
+class SelfPlayPipelineTest {
+
+  @Test
+  void testEpisodesUsePublishedModelAndIteration() throws InterruptedException {
+
+    ComputationGraph computationGraph = new TestComputationGraph();
+    computationGraph.init();
+
+    SelfPlayPipeline.EpisodeRunner episodeRunner = (iteration, graph, cache) -> {
+
+      assertNotSame(computationGraph, graph);
+      return Collections.singletonList(new AdversaryTrainingExample(
+          Nd4j.createFromArray(graph.params().getFloat(0)), Game.MAX_PLAYER, Nd4j.ones(1), iteration));
+    };
+
+    try (SelfPlayPipeline selfPlayPipeline = new SelfPlayPipeline(episodeRunner, 2, 4, 10).start(1, computationGraph)) {
+
+      assertEquals(1, selfPlayPipeline.takeEpisode().get(0).getIteration());
+
+      computationGraph.params().assign(0.25f);
+      selfPlayPipeline.publish(computationGraph);
+      selfPlayPipeline.setIteration(2);
+
+      List<AdversaryTrainingExample> episode = selfPlayPipeline.takeEpisode();
+      for (int takenEpisodes = 1; takenEpisodes < 100 && 2 != episode.get(0).getIteration(); takenEpisodes++) {
+
+        episode = selfPlayPipeline.takeEpisode();
+      }
+
+      assertEquals(2, episode.get(0).getIteration());
+      assertEquals(0.25f, episode.get(0).getBoard().getFloat(0));
+      assertEquals(2, selfPlayPipeline.getNumberOfPublishedModels());
+    }
+  }
+
+  @Test
+  void testWorkerFailureIsReported() {
+
+    ComputationGraph computationGraph = new TestComputationGraph();
+    computationGraph.init();
+
+    SelfPlayPipeline.EpisodeRunner failingRunner = (iteration, graph, cache) -> {
+      throw new IllegalArgumentException("Test failure");
+    };
+
+    try (SelfPlayPipeline selfPlayPipeline = new SelfPlayPipeline(failingRunner, 1, 1, 10).start(1, computationGraph)) {
+
+      IllegalStateException failure = assertThrows(IllegalStateException.class, selfPlayPipeline::takeEpisode);
+      assertTrue(failure.getCause() instanceof IllegalArgumentException);
+    }
+  }
+
+  @Test
+  void testWorkerErrorIsReported() {
+
+    ComputationGraph computationGraph = new TestComputationGraph();
+    computationGraph.init();
+
+    SelfPlayPipeline.EpisodeRunner failingRunner = (iteration, graph, cache) -> {
+      throw new StackOverflowError("Test error");
+    };
+
+    try (SelfPlayPipeline selfPlayPipeline = new SelfPlayPipeline(failingRunner, 2, 1, 10).start(1, computationGraph)) {
+
+      IllegalStateException failure = assertThrows(IllegalStateException.class, selfPlayPipeline::takeEpisode);
+      assertTrue(failure.getCause() instanceof StackOverflowError);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nd4j.linalg.factory.Nd4j;
+
+class TrainExamplesFileTest {
+
+  @TempDir
+  Path temporaryFolder;
+
+  @Test
+  void testWriteReadRoundTrip() throws IOException {
+
+    AdversaryTrainingExample maxExample = new AdversaryTrainingExample(
+        Nd4j.createFromArray(new float[][][] {{{1f, 0f}, {0f, 1f}}, {{0.5f, 0f}, {0f, 0f}}}),
+        Game.MAX_PLAYER, Nd4j.createFromArray(0.25f, 0.75f, 0f), 3);
+    maxExample.setCurrentPlayerValue(1f);
+    AdversaryTrainingExample minExample = new AdversaryTrainingExample(
+        Nd4j.zeros(2, 2, 2), Game.MIN_PLAYER, Nd4j.createFromArray(1f, 0f, 0f), 7);
+
+    Path trainExamplesPath = this.temporaryFolder.resolve("trainExamples.obj");
+    TrainExamplesFile.write(trainExamplesPath, Arrays.asList(maxExample, minExample));
+
+    assertTrue(TrainExamplesFile.isTrainExamplesFile(trainExamplesPath));
+
+    List<AdversaryTrainingExample> restoredExamples = TrainExamplesFile.read(trainExamplesPath);
+
+    assertEquals(2, restoredExamples.size());
+    assertEquals(maxExample.getBoard(), restoredExamples.get(0).getBoard());
+    assertEquals(maxExample.getActionIndexProbabilities(), restoredExamples.get(0).getActionIndexProbabilities());
+    assertEquals(1f, restoredExamples.get(0).getCurrentPlayerValue());
+    assertEquals(Game.MAX_PLAYER, restoredExamples.get(0).getCurrentPlayer());
+    assertEquals(3, restoredExamples.get(0).getIteration());
+    assertEquals(maxExample.getBoardHash(), restoredExamples.get(0).getBoardHash());
+
+    assertEquals(minExample.getBoard(), restoredExamples.get(1).getBoard());
+    assertNull(restoredExamples.get(1).getCurrentPlayerValue());
+    assertEquals(Game.MIN_PLAYER, restoredExamples.get(1).getCurrentPlayer());
+    assertEquals(7, restoredExamples.get(1).getIteration());
+  }
+
+  @Test
+  void testReadFileLargerThanReadBuffer() throws IOException {
+
+    List<AdversaryTrainingExample> trainExamples = new ArrayList<>();
+    for (int iteration = 0; iteration < 1000; iteration++) {
+
+      trainExamples.add(new AdversaryTrainingExample(
+          Nd4j.ones(3, 3, 3).muli(iteration), Game.MAX_PLAYER, Nd4j.ones(9).divi(9), iteration));
+    }
+
+    Path trainExamplesPath = this.temporaryFolder.resolve("trainExamples.obj");
+    TrainExamplesFile.write(trainExamplesPath, trainExamples);
+
+    assertTrue(TrainExamplesFile.READ_BUFFER_SIZE < Files.size(trainExamplesPath));
+
+    List<AdversaryTrainingExample> restoredExamples = TrainExamplesFile.read(trainExamplesPath);
+
+    assertEquals(1000, restoredExamples.size());
+    assertEquals(trainExamples.get(999).getBoard(), restoredExamples.get(999).getBoard());
+    assertEquals(999, restoredExamples.get(999).getIteration());
+  }
+
+  @Test
+  void testEmptyAndLegacyFiles() throws IOException {
+
+    Path emptyExamplesPath = this.temporaryFolder.resolve("empty.obj");
+    TrainExamplesFile.write(emptyExamplesPath, Collections.emptyList());
+
+    assertTrue(TrainExamplesFile.read(emptyExamplesPath).isEmpty());
+
+    Path legacyExamplesPath = this.temporaryFolder.resolve("legacy.obj");
+    try (ObjectOutputStream legacyOutput = new ObjectOutputStream(new FileOutputStream(legacyExamplesPath.toFile()))) {
+
+      legacyOutput.writeObject(new ArrayList<AdversaryTrainingExample>());
+    }
+
+    assertFalse(TrainExamplesFile.isTrainExamplesFile(legacyExamplesPath));
+    assertFalse(TrainExamplesFile.isTrainExamplesFile(this.temporaryFolder.resolve("missing.obj")));
+  }
+
+  @Test
+  void testUnsupportedVersion() throws IOException {
+
+    Path futureExamplesPath = this.temporaryFolder.resolve("future.obj");
+    Files.write(futureExamplesPath, ByteBuffer.allocate(8).putInt(TrainExamplesFile.MAGIC).putInt(99).array());
+
+    assertThrows(IOException.class, () -> TrainExamplesFile.read(futureExamplesPath));
+  }
+}
@@ -0,0 +1,64 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+class TrainExamplesIteratorTest {
+
+  @Test
+  void testEpochsCoverAllExamplesInNewOrder() {
+
+    List<AdversaryTrainingExample> trainExamples = new ArrayList<>();
+    for (int example = 0; example < 7; example++) {
+
+      AdversaryTrainingExample trainExample = new AdversaryTrainingExample(
+          Nd4j.createFromArray(new float[][] {{example}}), Game.MAX_PLAYER, Nd4j.createFromArray(1f), 1);
+      trainExample.setCurrentPlayerValue(0.5f);
+      trainExamples.add(trainExample);
+    }
+
+    TrainExamplesIterator trainExamplesIterator = new TrainExamplesIterator(
+        TrainExamplesIterator.of(trainExamples, new long[] {1, 1}, 2), 3, new Random(3));
+
+    assertEquals(3, trainExamplesIterator.getNumberOfBatches());
+    assertEquals(3, trainExamplesIterator.next(5).getFeatures(0).size(0));
+
+    trainExamplesIterator.reset();
+    List<Float> firstEpoch = boardValuesOfEpoch(trainExamplesIterator);
+    assertThrows(NoSuchElementException.class, trainExamplesIterator::next);
+
+    trainExamplesIterator.reset();
+    List<Float> secondEpoch = boardValuesOfEpoch(trainExamplesIterator);
+
+    assertEquals(7, firstEpoch.size());
+    assertEquals(new HashSet<>(firstEpoch), new HashSet<>(secondEpoch));
+    assertEquals(7, new HashSet<>(firstEpoch).size());
+    assertNotEquals(firstEpoch, secondEpoch);
+  }
+
+  static List<Float> boardValuesOfEpoch(TrainExamplesIterator trainExamplesIterator) {
+
+    List<Float> boardValues = new ArrayList<>();
+    while (trainExamplesIterator.hasNext()) {
+
+      MultiDataSet miniBatch = trainExamplesIterator.next();
+      assertArrayEquals(new long[] {miniBatch.getFeatures(0).size(0), 2}, miniBatch.getLabels(0).shape());
+      for (float boardValue : miniBatch.getFeatures(0).data().asFloat()) {
+
+        boardValues.add(boardValue);
+      }
+    }
+
+    return boardValues;
+  }
+}
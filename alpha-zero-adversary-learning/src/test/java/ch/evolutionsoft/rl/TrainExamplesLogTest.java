@@ -0,0 +1,105 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nd4j.linalg.factory.Nd4j;
+
+class TrainExamplesLogTest {
+
+  @TempDir
+  Path temporaryFolder;
+
+  @Test
+  void testAppendAndReplay() throws IOException {
+
+    TrainExamplesLog trainExamplesLog =
+        TrainExamplesLog.forTrainExamplesFile(this.temporaryFolder.resolve("trainExamples.obj"));
+
+    assertEquals(this.temporaryFolder.resolve("trainExamples.obj.log"), trainExamplesLog.getLogPath());
+    assertTrue(trainExamplesLog.replay().isEmpty());
+
+    trainExamplesLog.append(Arrays.asList(createExample(1f, 1), createExample(2f, 1)));
+    trainExamplesLog.append(Collections.singletonList(createExample(3f, 2)));
+
+    List<AdversaryTrainingExample> replayedExamples = trainExamplesLog.replay();
+
+    assertEquals(3, replayedExamples.size());
+    assertEquals(createExample(1f, 1).getBoard(), replayedExamples.get(0).getBoard());
+    assertEquals(createExample(3f, 2).getBoard(), replayedExamples.get(2).getBoard());
+    assertEquals(2, replayedExamples.get(2).getIteration());
+
+    trainExamplesLog.clear();
+
+    assertFalse(Files.exists(trainExamplesLog.getLogPath()));
+    assertTrue(trainExamplesLog.replay().isEmpty());
+  }
+
+  @Test
+  void testReplayDiscardsIncompleteLastBlock() throws IOException {
+
+    TrainExamplesLog trainExamplesLog = new TrainExamplesLog(this.temporaryFolder.resolve("trainExamples.log"));
+
+    trainExamplesLog.append(Collections.singletonList(createExample(1f, 1)));
+    long completeSize = Files.size(trainExamplesLog.getLogPath());
+    trainExamplesLog.append(Collections.singletonList(createExample(2f, 1)));
+
+    trainExamplesLog.truncate(Files.size(trainExamplesLog.getLogPath()) - 1);
+
+    List<AdversaryTrainingExample> replayedExamples = trainExamplesLog.replay();
+
+    assertEquals(1, replayedExamples.size());
+    assertEquals(createExample(1f, 1).getBoard(), replayedExamples.get(0).getBoard());
+    assertEquals(completeSize, Files.size(trainExamplesLog.getLogPath()));
+
+    trainExamplesLog.append(Collections.singletonList(createExample(3f, 2)));
+
+    assertEquals(2, trainExamplesLog.replay().size());
+  }
+
+  @Test
+  void testSealedLogsReplayFirstUntilDeleted() throws IOException {
+
+    TrainExamplesLog trainExamplesLog =
+        TrainExamplesLog.forTrainExamplesFile(this.temporaryFolder.resolve("trainExamples.obj"));
+
+    assertEquals(TrainExamplesLog.NO_SEALED_LOG, trainExamplesLog.seal());
+
+    trainExamplesLog.append(Collections.singletonList(createExample(1f, 1)));
+    assertEquals(1, trainExamplesLog.seal());
+    trainExamplesLog.append(Collections.singletonList(createExample(2f, 2)));
+    assertEquals(2, trainExamplesLog.seal());
+    trainExamplesLog.append(Collections.singletonList(createExample(3f, 3)));
+
+    List<AdversaryTrainingExample> replayedExamples = trainExamplesLog.replay();
+    assertEquals(3, replayedExamples.size());
+    assertEquals(1, replayedExamples.get(0).getIteration());
+    assertEquals(3, replayedExamples.get(2).getIteration());
+
+    trainExamplesLog.deleteSealed(1);
+
+    assertEquals(Arrays.asList(2, 3), Arrays.asList(
+        trainExamplesLog.replay().get(0).getIteration(), trainExamplesLog.replay().get(1).getIteration()));
+    assertEquals(3, trainExamplesLog.seal());
+
+    trainExamplesLog.clear();
+
+    assertTrue(trainExamplesLog.replay().isEmpty());
+    assertTrue(trainExamplesLog.getSealedLogPaths().isEmpty());
+  }
+
+  static AdversaryTrainingExample createExample(float boardValue, int iteration) {
+
+    return new AdversaryTrainingExample(
+        Nd4j.createFromArray(new float[][] {{boardValue, 0f}, {0f, 0f}}),
+        Game.MAX_PLAYER, Nd4j.createFromArray(0.5f, 0.5f), iteration);
+  }
+}
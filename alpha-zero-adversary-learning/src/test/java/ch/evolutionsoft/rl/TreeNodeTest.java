@@ -0,0 +1,133 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class TreeNodeTest {
+
+  @Test
+  void testBackupAlternatesValuesAndRevertsVirtualLoss() {
+
+    TreeNode root = new TreeNode(-1, Game.MIN_PLAYER, 0, 1.0, 0.5, null);
+    TreeNode child = new TreeNode(4, Game.MAX_PLAYER, 1, 0.5, 0.5, root);
+    TreeNode grandChild = new TreeNode(0, Game.MIN_PLAYER, 2, 0.5, 0.5, child);
+
+    grandChild.applyVirtualLoss();
+    grandChild.backup(1.0, true);
+    grandChild.backup(0.0, false);
+
+    assertAll(
+        () -> assertEquals(2, root.timesVisited),
+        () -> assertEquals(2, child.timesVisited),
+        () -> assertEquals(2, grandChild.timesVisited),
+        () -> assertEquals(0.5, grandChild.getQValue(), 1e-9),
+        () -> assertEquals(0.5, child.getQValue(), 1e-9),
+        () -> assertEquals(0, root.virtualLoss),
+        () -> assertEquals(0, child.virtualLoss),
+        () -> assertEquals(0, grandChild.virtualLoss)
+    );
+  }
+
+  @Test
+  void testBatchBackup() {
+
+    TreeNode root = new TreeNode(-1, Game.MIN_PLAYER, 0, 1.0, 0.5, null);
+    TreeNode child1 = new TreeNode(0, Game.MAX_PLAYER, 1, 0.5, 0.5, root);
+    TreeNode child2 = new TreeNode(1, Game.MAX_PLAYER, 1, 0.5, 0.5, root);
+
+    child1.applyVirtualLoss();
+    child2.applyVirtualLoss();
+    TreeNode.backup(Arrays.asList(child1, child2), new double[] {1.0, 0.0}, true);
+
+    assertAll(
+        () -> assertEquals(2, root.timesVisited),
+        () -> assertEquals(0.5, root.getQValue(), 1e-9),
+        () -> assertEquals(1.0, child1.getQValue(), 1e-9),
+        () -> assertEquals(0.0, child2.getQValue(), 1e-9),
+        () -> assertEquals(0, root.virtualLoss)
+    );
+  }
+
+  @Test
+  void testUnvisitedNodeUsesInitialQ() {
+
+    TreeNode root = new TreeNode(-1, Game.MIN_PLAYER, 0, 1.0, 0.7, null);
+
+    assertEquals(0.7, root.getQValue(), 1e-9);
+
+    root.applyVirtualLoss();
+    assertEquals(0, root.getVirtualLossQValue(), 1e-9);
+  }
+
+  @Test
+  void testMostVisitedChildDecided() {
+
+    TreeNode root = new TreeNode(-1, Game.MIN_PLAYER, 0, 1.0, 0.5, null);
+    TreeNode child1 = new TreeNode(0, Game.MAX_PLAYER, 1, 0.5, 0.5, root);
+    TreeNode child2 = new TreeNode(1, Game.MAX_PLAYER, 1, 0.5, 0.5, root);
+    root.childNodes = new TreeNode[] {child1, child2};
+
+    for (int visit = 0; visit < 10; visit++) {
+
+      child1.backup(0.5, false);
+    }
+    for (int visit = 0; visit < 4; visit++) {
+
+      child2.backup(0.5, false);
+    }
+
+    assertTrue(root.isMostVisitedChildDecided(5));
+    assertFalse(root.isMostVisitedChildDecided(6));
+    assertFalse(root.isMostVisitedChildDecided(Integer.MAX_VALUE + 1L));
+  }
+
+  @Test
+  void testConcurrentAtomicBackup() throws Exception {
+
+    TreeNode root = new TreeNode(-1, Game.MIN_PLAYER, 0, 1.0, 0.5, null);
+    TreeNode child = new TreeNode(0, Game.MAX_PLAYER, 1, 1.0, 0.5, root);
+
+    int numberOfThreads = 4;
+    int backupsPerThread = 10000;
+    ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+    try {
+
+      List<Future<?>> backups = new ArrayList<>();
+      for (int thread = 0; thread < numberOfThreads; thread++) {
+
+        backups.add(executor.submit(() -> {
+          for (int backup = 0; backup < backupsPerThread; backup++) {
+
+            child.applyVirtualLossAtomic();
+            child.backupAtomic(1.0, true);
+          }
+        }));
+      }
+      for (Future<?> backup : backups) {
+
+        backup.get();
+      }
+
+    } finally {
+
+      executor.shutdown();
+    }
+
+    assertAll(
+        () -> assertEquals(numberOfThreads * backupsPerThread, root.timesVisited),
+        () -> assertEquals(numberOfThreads * backupsPerThread, child.timesVisited),
+        () -> assertEquals(1.0, child.getQValue(), 1e-9),
+        () -> assertEquals(0.0, root.getQValue(), 1e-9),
+        () -> assertEquals(0, child.virtualLoss),
+        () -> assertEquals(0, root.virtualLoss)
+    );
+  }
+}
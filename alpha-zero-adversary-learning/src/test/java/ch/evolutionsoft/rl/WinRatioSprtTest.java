@@ -0,0 +1,94 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class WinRatioSprtTest {
+
+  @Test
+  void testConsecutiveWinsAccept() {
+
+    WinRatioSprt sprt = new WinRatioSprt(0.55, 0.1, 0.05);
+
+    WinRatioSprt.Decision decision = WinRatioSprt.Decision.CONTINUE;
+    while (WinRatioSprt.Decision.CONTINUE == decision) {
+
+      decision = sprt.addWin();
+    }
+
+    assertEquals(WinRatioSprt.Decision.ACCEPT, decision);
+    assertTrue(sprt.getNumberOfGames() < 36);
+  }
+
+  @Test
+  void testConsecutiveLossesReject() {
+
+    WinRatioSprt sprt = new WinRatioSprt(0.55, 0.1, 0.05);
+
+    WinRatioSprt.Decision decision = WinRatioSprt.Decision.CONTINUE;
+    while (WinRatioSprt.Decision.CONTINUE == decision) {
+
+      decision = sprt.addLoss();
+    }
+
+    assertEquals(WinRatioSprt.Decision.REJECT, decision);
+    assertTrue(sprt.getNumberOfGames() < 36);
+  }
+
+  @Test
+  void testDrawHeavyResultsDecideLikeWinDrawRatio() {
+
+    // 1 win, 1 loss, 8 draws: win/draw ratio 5 / 6, a mean score of 0.5 would be below the threshold
+    assertEquals(WinRatioSprt.Decision.ACCEPT, playUntilDecision(1, 1, 8));
+
+    // 1 win, 3 losses, 4 draws: win/draw ratio 0.5
+    assertEquals(WinRatioSprt.Decision.REJECT, playUntilDecision(1, 3, 4));
+
+    // Only draws have win/draw ratio 1
+    assertEquals(WinRatioSprt.Decision.ACCEPT, playUntilDecision(0, 0, 1));
+  }
+
+  @Test
+  void testInvalidParameters() {
+
+    assertThrows(IllegalArgumentException.class, () -> new WinRatioSprt(0.55, 0, 0.05));
+    assertThrows(IllegalArgumentException.class, () -> new WinRatioSprt(0.55, 0.1, 0.5));
+  }
+
+  /**
+   * Repeats a round of games and checks the decision against the win/draw ratio of {@link AdversaryLearning}.
+   */
+  static WinRatioSprt.Decision playUntilDecision(int winsPerRound, int lossesPerRound, int drawsPerRound) {
+
+    double threshold = 0.55;
+    WinRatioSprt sprt = new WinRatioSprt(threshold, 0.05, 0.05);
+    int wins = 0;
+    int losses = 0;
+    int draws = 0;
+
+    WinRatioSprt.Decision decision = WinRatioSprt.Decision.CONTINUE;
+    while (WinRatioSprt.Decision.CONTINUE == decision) {
+
+      for (int game = 0; game < winsPerRound && WinRatioSprt.Decision.CONTINUE == decision; game++, wins++) {
+
+        decision = sprt.addWin();
+      }
+      for (int game = 0; game < drawsPerRound && WinRatioSprt.Decision.CONTINUE == decision; game++, draws++) {
+
+        decision = sprt.addDraw();
+      }
+      for (int game = 0; game < lossesPerRound && WinRatioSprt.Decision.CONTINUE == decision; game++, losses++) {
+
+        decision = sprt.addLoss();
+      }
+      assertTrue(sprt.getNumberOfGames() < 1000);
+    }
+
+    double newModelWinDrawRatio = (wins + AdversaryLearning.DRAW_WEIGHT * draws)
+        / (wins + losses + AdversaryLearning.DRAW_WEIGHT * draws);
+    assertEquals(newModelWinDrawRatio > threshold, WinRatioSprt.Decision.ACCEPT == decision);
+
+    return decision;
+  }
+}
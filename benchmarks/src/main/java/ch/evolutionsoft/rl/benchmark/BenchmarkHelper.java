@@ -0,0 +1,51 @@
+package ch.evolutionsoft.rl.benchmark;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+
+import ch.evolutionsoft.rl.Game;
+import ch.evolutionsoft.rl.tictactoe.ConvolutionResidualNet;
+import ch.evolutionsoft.rl.tictactoe.TicTacToe;
+
+/**
+ * Shared fixtures of the benchmarks, based on the TicTacToe example implementation.
+ *
+ * @author evolutionsoft
+ */
+final class BenchmarkHelper {
+
+  private BenchmarkHelper() {
+    // Hide constructor
+  }
+
+  /**
+   * @return an initialized TicTacToe residual net with random parameters
+   */
+  static ComputationGraph createComputationGraph() {
+
+    ComputationGraph computationGraph =
+        new ComputationGraph(new ConvolutionResidualNet().createConvolutionalGraphConfiguration());
+    computationGraph.init();
+
+    return computationGraph;
+  }
+
+  /**
+   * X| |X
+   * X|O| 
+   * O| | 
+   *
+   * @return a middle game position with MIN_PLAYER to move
+   */
+  static Game createMiddlePosition() {
+
+    Game game = new TicTacToe(Game.MAX_PLAYER);
+
+    game.playMove(0, Game.MAX_PLAYER);
+    game.playMove(4, Game.MIN_PLAYER);
+    game.playMove(3, Game.MAX_PLAYER);
+    game.playMove(6, Game.MIN_PLAYER);
+    game.playMove(2, Game.MAX_PLAYER);
+
+    return game;
+  }
+}
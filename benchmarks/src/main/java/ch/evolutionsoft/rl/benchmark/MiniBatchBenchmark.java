@@ -0,0 +1,86 @@
+package ch.evolutionsoft.rl.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.evolutionsoft.rl.AdversaryLearningConstants;
+import ch.evolutionsoft.rl.AdversaryTrainingExample;
+import ch.evolutionsoft.rl.Game;
+import ch.evolutionsoft.rl.TrainExamplesIterator;
+import ch.evolutionsoft.rl.tictactoe.TicTacToe;
+
+/**
+ * Measures the mini batch assembly of one training epoch, all batches a {@link TrainExamplesIterator}
+ * creates from an in memory train examples history of historySize random TicTacToe examples.
+ *
+ * @author evolutionsoft
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MiniBatchBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  int historySize;
+
+  @Param({"512"})
+  int batchSize;
+
+  TrainExamplesIterator trainExamplesIterator;
+
+  @Setup(Level.Trial)
+  public void createTrainExamplesHistory() {
+
+    Game game = new TicTacToe(Game.MAX_PLAYER);
+    long[] boardShape = game.getInitialBoard().shape();
+    int numberOfMoves = game.getNumberOfAllAvailableMoves();
+
+    Random random = new Random(AdversaryLearningConstants.DEFAULT_SEED);
+    List<AdversaryTrainingExample> trainExamples = new ArrayList<>(this.historySize);
+    for (int example = 0; example < this.historySize; example++) {
+
+      INDArray board = Nd4j.rand(boardShape);
+      INDArray actionProbabilities = Nd4j.rand(new long[] {numberOfMoves});
+      AdversaryTrainingExample trainExample = new AdversaryTrainingExample(
+          board, 1 + example % 2, actionProbabilities.divi(actionProbabilities.sumNumber()), 1);
+      trainExample.setCurrentPlayerValue(random.nextFloat());
+      trainExamples.add(trainExample);
+    }
+
+    this.trainExamplesIterator = new TrainExamplesIterator(
+        TrainExamplesIterator.of(trainExamples, boardShape, numberOfMoves), this.batchSize, random);
+  }
+
+  @Benchmark
+  public void assembleEpoch(Blackhole blackhole) {
+
+    this.trainExamplesIterator.reset();
+    while (this.trainExamplesIterator.hasNext()) {
+
+      MultiDataSet miniBatch = this.trainExamplesIterator.next();
+      blackhole.consume(miniBatch);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package ch.evolutionsoft.rl.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.evolutionsoft.rl.AdversaryLearningConfiguration;
+import ch.evolutionsoft.rl.AdversaryLearningConstants;
+import ch.evolutionsoft.rl.Game;
+import ch.evolutionsoft.rl.MonteCarloTreeSearch;
+import ch.evolutionsoft.rl.tictactoe.TicTacToe;
+
+/**
+ * Measures complete {@link MonteCarloTreeSearch} getActionValues searches from the empty TicTacToe board.
+ * Each search starts with a new tree and output cache, temperature 1 disables the early stop.
+ * The simulations counter reports playouts per second.
+ *
+ * @author evolutionsoft
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MonteCarloTreeSearchBenchmark {
+
+  @Param({"30", "100", "400"})
+  int numberOfSimulations;
+
+  @Param({"1", "8"})
+  int leafBatchSize;
+
+  AdversaryLearningConfiguration configuration;
+
+  ComputationGraph computationGraph;
+
+  Game initialGame;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class SimulationCounter {
+
+    public long simulations;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+
+      this.simulations = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void createSearchSetup() {
+
+    this.configuration = new AdversaryLearningConfiguration.Builder().
+        numberOfMonteCarloSimulations(this.numberOfSimulations).
+        monteCarloLeafBatchSize(this.leafBatchSize).
+        build();
+    this.computationGraph = BenchmarkHelper.createComputationGraph();
+    this.initialGame = new TicTacToe(Game.MAX_PLAYER);
+  }
+
+  @Benchmark
+  public INDArray getActionValues(SimulationCounter simulationCounter) {
+
+    MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(this.computationGraph, this.configuration);
+    INDArray actionValues = mcts.getActionValues(this.initialGame.createNewInstance(), AdversaryLearningConstants.ONE);
+    simulationCounter.simulations += this.numberOfSimulations;
+
+    return actionValues;
+  }
+}
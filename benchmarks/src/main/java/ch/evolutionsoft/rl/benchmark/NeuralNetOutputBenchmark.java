@@ -0,0 +1,84 @@
+package ch.evolutionsoft.rl.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.evolutionsoft.rl.Game;
+import ch.evolutionsoft.rl.tictactoe.TicTacToe;
+
+/**
+ * Compares the latency of evaluating numberOfBoards boards with one {@link ComputationGraph} output call
+ * each against one output call for all boards together, as done by batched leaf evaluation
+ * and the BatchInferenceServer.
+ *
+ * @author evolutionsoft
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NeuralNetOutputBenchmark {
+
+  @Param({"1", "8", "32", "128"})
+  int numberOfBoards;
+
+  ComputationGraph computationGraph;
+
+  List<INDArray> singleBoards;
+
+  INDArray boardBatch;
+
+  @Setup(Level.Trial)
+  public void createBoards() {
+
+    this.computationGraph = BenchmarkHelper.createComputationGraph();
+
+    Game game = new TicTacToe(Game.MAX_PLAYER);
+    long[] boardShape = game.getInitialBoard().shape();
+
+    List<INDArray> boards = new ArrayList<>(this.numberOfBoards);
+    this.singleBoards = new ArrayList<>(this.numberOfBoards);
+    for (int board = 0; board < this.numberOfBoards; board++) {
+
+      INDArray randomBoard = Nd4j.rand(boardShape);
+      boards.add(randomBoard);
+      this.singleBoards.add(Nd4j.pile(randomBoard));
+    }
+    this.boardBatch = Nd4j.pile(boards);
+  }
+
+  @Benchmark
+  public void singleOutputs(Blackhole blackhole) {
+
+    for (INDArray singleBoard : this.singleBoards) {
+
+      blackhole.consume(this.computationGraph.output(singleBoard));
+    }
+  }
+
+  @Benchmark
+  public INDArray[] batchedOutput() {
+
+    return this.computationGraph.output(this.boardBatch);
+  }
+}
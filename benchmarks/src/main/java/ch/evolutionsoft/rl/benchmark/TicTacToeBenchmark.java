@@ -0,0 +1,101 @@
+package ch.evolutionsoft.rl.benchmark;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.evolutionsoft.rl.AdversaryTrainingExample;
+import ch.evolutionsoft.rl.Game;
+
+/**
+ * Measures the TicTacToe rule operations used on every search step from a middle game position.
+ * Benchmarks changing the position undo their move again, makeMoveUnmakeMove includes the board copy
+ * makeMove returns, playMoveUnmakeMove only the incremental state update.
+ *
+ * @author evolutionsoft
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TicTacToeBenchmark {
+
+  static final int FREE_MOVE_INDEX = 8;
+
+  Game game;
+
+  int[] validMoveIndices;
+
+  INDArray board;
+
+  INDArray actionProbabilities;
+
+  @Setup(Level.Trial)
+  public void createPosition() {
+
+    this.game = BenchmarkHelper.createMiddlePosition();
+    this.validMoveIndices = new int[this.game.getNumberOfAllAvailableMoves()];
+    this.board = this.game.getCurrentBoard();
+    this.actionProbabilities = Nd4j.ones(this.game.getNumberOfAllAvailableMoves()).
+        divi(this.game.getNumberOfAllAvailableMoves());
+  }
+
+  @Benchmark
+  public INDArray makeMoveUnmakeMove() {
+
+    INDArray newBoard = this.game.makeMove(FREE_MOVE_INDEX, this.game.getCurrentPlayer());
+    this.game.unmakeMove();
+
+    return newBoard;
+  }
+
+  @Benchmark
+  public long playMoveUnmakeMove() {
+
+    this.game.playMove(FREE_MOVE_INDEX, this.game.getCurrentPlayer());
+    long positionHash = this.game.getPositionHash();
+    this.game.unmakeMove();
+
+    return positionHash;
+  }
+
+  @Benchmark
+  public Set<Integer> getValidMoveIndices() {
+
+    return this.game.getValidMoveIndices();
+  }
+
+  @Benchmark
+  public int fillValidMoveIndices() {
+
+    return this.game.fillValidMoveIndices(this.validMoveIndices);
+  }
+
+  @Benchmark
+  public boolean gameEnded() {
+
+    return this.game.gameEnded();
+  }
+
+  @Benchmark
+  public List<AdversaryTrainingExample> getSymmetries() {
+
+    return this.game.getSymmetries(this.board, this.actionProbabilities, Game.MIN_PLAYER, 1);
+  }
+}
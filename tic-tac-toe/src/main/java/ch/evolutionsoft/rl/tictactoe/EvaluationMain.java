@@ -17,6 +17,7 @@ import ch.evolutionsoft.rl.AdversaryLearning;
 import ch.evolutionsoft.rl.AdversaryLearningConfiguration;
 import ch.evolutionsoft.rl.AdversaryTrainingExample;
 import ch.evolutionsoft.rl.Game;
+import ch.evolutionsoft.rl.NeuralNetOutputCache;
 
 public class EvaluationMain {
 
@@ -30,9 +31,10 @@ public class EvaluationMain {
         new TicTacToe(Game.MAX_PLAYER),
         computationGraph1,
         new AdversaryLearningConfiguration.Builder().build());
-    Map<INDArray, AdversaryTrainingExample> examples = al.loadEarlierTrainingExamples("trainExamples.obj");
+    Map<Long, AdversaryTrainingExample> examples = al.loadEarlierTrainingExamples("trainExamples.obj");
  
-    log.info("Empty field probabilities {}", examples.get(TicTacToeConstants.EMPTY_CONVOLUTIONAL_PLAYGROUND));
+    log.info("Empty field probabilities {}",
+        examples.get(NeuralNetOutputCache.boardHash(TicTacToeConstants.EMPTY_CONVOLUTIONAL_PLAYGROUND)));
     
     evaluateNetwork(computationGraph1);
   }
@@ -5,6 +5,7 @@ import static ch.evolutionsoft.rl.tictactoe.TicTacToeConstants.*;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.deeplearning4j.nn.graph.ComputationGraph;
@@ -37,26 +38,122 @@ import ch.evolutionsoft.rl.Game;
  *  ]
  * ]
  * 
+ * The game state itself is kept in two 9 bit masks with the stones of each player,
+ * bit index corresponding to the move index. The board INDArray is only created
+ * when getCurrentBoard() is called. Moves played on an instance can be taken back with unmakeMove().
+ * 
  * @author evolutionsoft
  */
 public class TicTacToe extends Game {
 
   private static final Logger log = LoggerFactory.getLogger(TicTacToe.class);
   
+  static final int ALL_FIELDS = (1 << COLUMN_COUNT) - 1;
+  
+  static final int UNDO_ENTRY_SIZE = 3;
+  
+  /**
+   * Zobrist keys of the max stones by field index followed by the min stones.
+   */
+  static final long[] ZOBRIST_STONE_KEYS = new long[2 * COLUMN_COUNT];
+  
+  /**
+   * Zobrist key of the current player channel after a max move.
+   */
+  static final long ZOBRIST_MAX_MOVED_KEY;
+  
+  static {
+    
+    Random zobristRandom = new Random(42);
+    for (int index = 0; index < ZOBRIST_STONE_KEYS.length; index++) {
+      
+      ZOBRIST_STONE_KEYS[index] = zobristRandom.nextLong();
+    }
+    ZOBRIST_MAX_MOVED_KEY = zobristRandom.nextLong();
+  }
+  
+  /**
+   * Field masks of the three rows, three columns and two diagonals.
+   */
+  static final int[] WIN_LINES = {
+      0b000_000_111, 0b000_111_000, 0b111_000_000,
+      0b001_001_001, 0b010_010_010, 0b100_100_100,
+      0b100_010_001, 0b001_010_100
+  };
+  
+  int maxStones;
+  
+  int minStones;
+  
+  /**
+   * The player channel of the last move, determines the current player channel of the board.
+   */
+  int lastMovePlayer = MIN_PLAYER_CHANNEL;
+  
+  /**
+   * Per played move the move index, the previous lastMovePlayer and the previous currentPlayer.
+   * Created with the first move, at most COLUMN_COUNT moves fit on the board.
+   */
+  int[] undoStack;
+  
+  /**
+   * Zobrist hash of all stones, updated incrementally in playMove and unmakeMove.
+   */
+  long stonesHash;
+  
+  int numberOfUndoMoves;
+  
   public TicTacToe(int currentPlayer) {
 
-    super(currentPlayer);
+    super(currentPlayer, false);
   }
 
   @Override
   public Game createNewInstance() {
 
-    TicTacToe ticTacToe = new TicTacToe(currentPlayer); 
-    ticTacToe.currentBoard = this.currentBoard.dup();
+    TicTacToe ticTacToe = new TicTacToe(currentPlayer);
+    ticTacToe.maxStones = this.maxStones;
+    ticTacToe.minStones = this.minStones;
+    ticTacToe.lastMovePlayer = this.lastMovePlayer;
+    ticTacToe.stonesHash = this.stonesHash;
+    // A created board is never modified, getCurrentBoard() returns copies
+    ticTacToe.currentBoard = this.currentBoard;
     
     return ticTacToe;
   }
   
+  @Override
+  public INDArray getCurrentBoard() {
+    
+    return this.getMaterializedBoard().dup();
+  }
+  
+  INDArray getMaterializedBoard() {
+    
+    if (null == this.currentBoard) {
+      
+      float[] boardValues = new float[IMAGE_CHANNELS * IMAGE_POINTS];
+      float currentPlayerValue = MIN_PLAYER_CHANNEL == this.lastMovePlayer ? 1f : -1f;
+      
+      for (int field = 0; field < IMAGE_POINTS; field++) {
+        
+        boardValues[field] = currentPlayerValue;
+        if (0 != (this.maxStones & (1 << field))) {
+          
+          boardValues[MAX_PLAYER_CHANNEL * IMAGE_POINTS + field] = (float) OCCUPIED_IMAGE_POINT;
+        
+        } else if (0 != (this.minStones & (1 << field))) {
+          
+          boardValues[MIN_PLAYER_CHANNEL * IMAGE_POINTS + field] = (float) OCCUPIED_IMAGE_POINT;
+        }
+      }
+      
+      this.currentBoard = Nd4j.create(boardValues, new long[] {IMAGE_CHANNELS, IMAGE_SIZE, IMAGE_SIZE}, 'c');
+    }
+    
+    return this.currentBoard;
+  }
+  
   @Override
   public int getNumberOfAllAvailableMoves() {
 
@@ -139,12 +236,10 @@ public class TicTacToe extends Game {
   @Override
   public INDArray doFirstMove(int moveIndex) {
     
-    INDArray newBoard = makeMove(moveIndex, TicTacToeConstants.MAX_PLAYER_CHANNEL);
-
-    this.currentBoard = newBoard.dup();
+    this.playMove(moveIndex, TicTacToeConstants.MAX_PLAYER_CHANNEL);
     this.currentPlayer = Game.MIN_PLAYER;
     
-    return newBoard;
+    return this.getCurrentBoard();
   }
 
   /**
@@ -153,30 +248,22 @@ public class TicTacToe extends Game {
   @Override
   public boolean gameEnded() {
 
-    return getValidMoveIndices().isEmpty() ||
-        getEndResult(-1) != 0.5;
+    return ALL_FIELDS == (this.maxStones | this.minStones) ||
+        hasWinLine(this.maxStones) ||
+        hasWinLine(this.minStones);
   }
 
   @Override
   public double getEndResult(int lastPlayer) {
 
-    boolean maxWin = horizontalWin(this.currentBoard, Game.MAX_PLAYER) || 
-        verticalWin(this.currentBoard, Game.MAX_PLAYER) || 
-        diagonalWin(this.currentBoard, Game.MAX_PLAYER);
-    
-    if (maxWin) {
+    if (hasWinLine(this.maxStones)) {
       
       return 1.0;
     }
     
-    boolean minWin = horizontalWin(this.currentBoard, Game.MIN_PLAYER) || 
-        verticalWin(this.currentBoard, Game.MIN_PLAYER) || 
-        diagonalWin(this.currentBoard, Game.MIN_PLAYER);
-    
-    if (minWin) {
+    if (hasWinLine(this.minStones)) {
       
       return 0.0;
-    
     }
     
     return 0.5;
@@ -185,23 +272,79 @@ public class TicTacToe extends Game {
   @Override
   public INDArray makeMove(int moveIndex, int player) {
 
-    int row = moveIndex / IMAGE_SIZE;
-    int column = moveIndex % IMAGE_SIZE;
+    this.playMove(moveIndex, player);
+    
+    return this.getCurrentBoard();
+  }
+  
+  @Override
+  public void playMove(int moveIndex, int player) {
+
+    if (null == this.undoStack) {
+      
+      this.undoStack = new int[UNDO_ENTRY_SIZE * COLUMN_COUNT];
+    }
+    int undoEntry = UNDO_ENTRY_SIZE * this.numberOfUndoMoves++;
+    this.undoStack[undoEntry] = moveIndex;
+    this.undoStack[undoEntry + 1] = this.lastMovePlayer;
+    this.undoStack[undoEntry + 2] = this.currentPlayer;
     
-    INDArray newBoard = this.currentBoard.dup();
+    this.stonesHash ^= zobristStoneKey(moveIndex, player);
+
     if (MIN_PLAYER_CHANNEL == player) {
 
-      newBoard.putRow(CURRENT_PLAYER_CHANNEL, ONES_PLAYGROUND_IMAGE); 
+      this.minStones |= 1 << moveIndex;
     } else {
 
-      newBoard.putRow(CURRENT_PLAYER_CHANNEL, MINUS_ONES_PLAYGROUND_IMAGE);
+      this.maxStones |= 1 << moveIndex;
     }
-    newBoard.putScalar(player, row, column, OCCUPIED_IMAGE_POINT);
-
-    this.currentBoard = newBoard;
+    
+    this.lastMovePlayer = player;
+    this.currentBoard = null;
     this.currentPlayer = getOtherPlayer(this.currentPlayer);
+  }
+
+  /**
+   * Zobrist hash of the stones and the current player channel, equal positions reached by
+   * different move orders have the same hash.
+   */
+  @Override
+  public long getPositionHash() {
+    
+    return MAX_PLAYER_CHANNEL == this.lastMovePlayer ?
+        this.stonesHash ^ ZOBRIST_MAX_MOVED_KEY :
+        this.stonesHash;
+  }
+  
+  static long zobristStoneKey(int moveIndex, int player) {
+    
+    return ZOBRIST_STONE_KEYS[MIN_PLAYER_CHANNEL == player ? COLUMN_COUNT + moveIndex : moveIndex];
+  }
+
+  @Override
+  public boolean supportsUnmakeMove() {
+    
+    return true;
+  }
+
+  @Override
+  public void unmakeMove() {
+    
+    if (0 == this.numberOfUndoMoves) {
+      
+      throw new IllegalStateException("No move to unmake");
+    }
     
-    return newBoard.dup();
+    int undoEntry = UNDO_ENTRY_SIZE * --this.numberOfUndoMoves;
+    int moveIndex = this.undoStack[undoEntry];
+    int moveMask = ~(1 << moveIndex);
+    this.stonesHash ^= zobristStoneKey(moveIndex,
+        0 != (this.minStones & ~moveMask) ? MIN_PLAYER_CHANNEL : MAX_PLAYER_CHANNEL);
+    this.maxStones &= moveMask;
+    this.minStones &= moveMask;
+    this.lastMovePlayer = this.undoStack[undoEntry + 1];
+    this.currentPlayer = this.undoStack[undoEntry + 2];
+    this.currentBoard = null;
   }
 
   /**
@@ -212,15 +355,11 @@ public class TicTacToe extends Game {
     
     Set<Integer> emptyFieldsIndices = new HashSet<>(SMALL_CAPACITY);
     
-    for (int row = 0; row < IMAGE_SIZE; row++) {
-      for (int column = 0; column < IMAGE_SIZE; column++) {
-  
-        if (AdversaryLearningConstants.ZERO == this.currentBoard.getDouble(MAX_PLAYER_CHANNEL, row, column) &&
-            AdversaryLearningConstants.ZERO == this.currentBoard.getDouble(MIN_PLAYER_CHANNEL, row, column)) {
-  
-          emptyFieldsIndices.add(IMAGE_SIZE * row + column);
-        }
-      }
+    int emptyFields = this.getEmptyFields();
+    while (0 != emptyFields) {
+      
+      emptyFieldsIndices.add(Integer.numberOfTrailingZeros(emptyFields));
+      emptyFields &= emptyFields - 1;
     }
     
     return emptyFieldsIndices;
@@ -231,18 +370,56 @@ public class TicTacToe extends Game {
     
     INDArray validMoves = Nd4j.zeros(COLUMN_COUNT);
     
-    for (int row = 0; row < IMAGE_SIZE; row++) {
-      for (int column = 0; column < IMAGE_SIZE; column++) {
+    int emptyFields = this.getEmptyFields();
+    while (0 != emptyFields) {
+      
+      validMoves.putScalar(Integer.numberOfTrailingZeros(emptyFields), AdversaryLearningConstants.ONE);
+      emptyFields &= emptyFields - 1;
+    }
+    
+    return validMoves;
+  }
   
-        if (AdversaryLearningConstants.ZERO == this.currentBoard.getDouble(MAX_PLAYER_CHANNEL, row, column) &&
-            AdversaryLearningConstants.ZERO == this.currentBoard.getDouble(MIN_PLAYER_CHANNEL, row, column)) {
-          
-          validMoves.putScalar(IMAGE_SIZE * (long) row + column, AdversaryLearningConstants.ONE);
-        }
+  @Override
+  public int fillValidMoveIndices(int[] validMoveIndices) {
+    
+    int numberOfValidMoves = 0;
+    int emptyFields = this.getEmptyFields();
+    while (0 != emptyFields) {
+      
+      validMoveIndices[numberOfValidMoves++] = Integer.numberOfTrailingZeros(emptyFields);
+      emptyFields &= emptyFields - 1;
+    }
+    
+    return numberOfValidMoves;
+  }
+
+  @Override
+  public void fillValidMoves(float[] validMovesMask) {
+    
+    int emptyFields = this.getEmptyFields();
+    for (int moveIndex = 0; moveIndex < COLUMN_COUNT; moveIndex++) {
+      
+      validMovesMask[moveIndex] = 0 != (emptyFields & (1 << moveIndex)) ? 1f : 0f;
+    }
+  }
+  
+  int getEmptyFields() {
+    
+    return ALL_FIELDS & ~(this.maxStones | this.minStones);
+  }
+
+  static boolean hasWinLine(int stones) {
+    
+    for (int winLine : WIN_LINES) {
+      
+      if (winLine == (stones & winLine)) {
+        
+        return true;
       }
     }
     
-    return validMoves;
+    return false;
   }
 
   /**
@@ -328,43 +505,7 @@ public class TicTacToe extends Game {
 
   public String toString() {
     
-    return "player: " + this.currentPlayer + System.lineSeparator() + this.currentBoard;
-  }
-
-  static boolean horizontalWin(INDArray board, int player) {
-
-    return (board.getDouble(player, 0, 0) == OCCUPIED_IMAGE_POINT &&
-        board.getDouble(player, 0, 1) == OCCUPIED_IMAGE_POINT &&
-            board.getDouble(player, 0, 2) == OCCUPIED_IMAGE_POINT) ||
-           (board.getDouble(player, 1, 0) == OCCUPIED_IMAGE_POINT &&
-               board.getDouble(player, 1, 1) == OCCUPIED_IMAGE_POINT &&
-                   board.getDouble(player, 1, 2) == OCCUPIED_IMAGE_POINT) ||
-           (board.getDouble(player, 2, 0) == OCCUPIED_IMAGE_POINT &&
-               board.getDouble(player, 2, 1) == OCCUPIED_IMAGE_POINT &&
-                   board.getDouble(player, 2, 2) == OCCUPIED_IMAGE_POINT);
-  }
-
-  static boolean diagonalWin(INDArray board, int player) {
-
-    return (board.getDouble(player, 0, 0) == OCCUPIED_IMAGE_POINT &&
-        board.getDouble(player, 1, 1) == OCCUPIED_IMAGE_POINT &&
-            board.getDouble(player, 2, 2) == OCCUPIED_IMAGE_POINT) ||
-           (board.getDouble(player, 0, 2) == OCCUPIED_IMAGE_POINT &&
-               board.getDouble(player, 1, 1) == OCCUPIED_IMAGE_POINT &&
-                   board.getDouble(player, 2, 0) == OCCUPIED_IMAGE_POINT);
-  }
-
-  static boolean verticalWin(INDArray board, int player) {
-
-    return (board.getDouble(player, 0, 0) == OCCUPIED_IMAGE_POINT &&
-        board.getDouble(player, 1, 0) == OCCUPIED_IMAGE_POINT &&
-            board.getDouble(player, 2, 0) == OCCUPIED_IMAGE_POINT) ||
-           (board.getDouble(player, 0, 1) == OCCUPIED_IMAGE_POINT &&
-               board.getDouble(player, 1, 1) == OCCUPIED_IMAGE_POINT &&
-                   board.getDouble(player, 2, 1) == OCCUPIED_IMAGE_POINT) ||
-           (board.getDouble(player, 0, 2) == OCCUPIED_IMAGE_POINT &&
-               board.getDouble(player, 1, 2) == OCCUPIED_IMAGE_POINT &&
-                   board.getDouble(player, 2, 2) == OCCUPIED_IMAGE_POINT);
+    return "player: " + this.currentPlayer + System.lineSeparator() + this.getMaterializedBoard();
   }
 
   static INDArray mirrorBoardHorizontally(INDArray playgroundRotation) {
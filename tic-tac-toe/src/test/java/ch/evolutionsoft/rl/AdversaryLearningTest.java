@@ -17,6 +17,7 @@ public class AdversaryLearningTest {
   
   public static final String TEST_MODEL_BIN = "testModel.bin";
   public static final String TEST_TRAIN_EXAMPLES = "testTrainExamples.obj";
+  public static final String TEST_REPLAY_BUFFER = "testReplayBuffer.bin";
   
   AdversaryLearningConfiguration configuration;
 
@@ -71,6 +72,85 @@ public class AdversaryLearningTest {
     assertTrue(1 < computationGraph.getIterationCount());
   }
 
+  @Test
+  void testParallelSelfPlayEpisodes() throws IOException {
+    
+    configuration =
+        new AdversaryLearningConfiguration.Builder().
+        alwaysUpdateNeuralNetwork(true).
+        numberOfIterations(1).
+        numberOfIterationsBeforePotentialUpdate(4).
+        numberOfSelfPlayThreads(2).
+        bestModelFileName(TEST_MODEL_BIN).
+        trainExamplesFileName(TEST_TRAIN_EXAMPLES).
+        build();
+ 
+    ComputationGraph computationGraph =
+        new ComputationGraph(new ConvolutionResidualNet().createConvolutionalGraphConfiguration());
+    computationGraph.init();
+    
+    AdversaryLearning learning = new AdversaryLearning(new TicTacToe(Game.MAX_PLAYER), computationGraph, configuration);
+    
+    learning.performLearning();
+    
+    assertEquals(1, computationGraph.getIterationCount());
+    assertFalse(learning.trainExamplesHistory.isEmpty());
+  }
+
+  @Test
+  void testPipelinedSelfPlay() throws IOException {
+    
+    configuration =
+        new AdversaryLearningConfiguration.Builder().
+        alwaysUpdateNeuralNetwork(true).
+        numberOfIterations(2).
+        numberOfIterationsBeforePotentialUpdate(2).
+        numberOfSelfPlayThreads(2).
+        pipelinedSelfPlay(true).
+        bestModelFileName(TEST_MODEL_BIN).
+        trainExamplesFileName(TEST_TRAIN_EXAMPLES).
+        build();
+ 
+    ComputationGraph computationGraph =
+        new ComputationGraph(new ConvolutionResidualNet().createConvolutionalGraphConfiguration());
+    computationGraph.init();
+    
+    AdversaryLearning learning = new AdversaryLearning(new TicTacToe(Game.MAX_PLAYER), computationGraph, configuration);
+    
+    learning.performLearning();
+    
+    assertEquals(2, computationGraph.getIterationCount());
+    assertFalse(learning.trainExamplesHistory.isEmpty());
+  }
+
+  @Test
+  void testReplayBufferTrainExamplesHistory() throws IOException {
+    
+    configuration =
+        new AdversaryLearningConfiguration.Builder().
+        alwaysUpdateNeuralNetwork(true).
+        numberOfIterations(1).
+        numberOfIterationsBeforePotentialUpdate(2).
+        bestModelFileName(TEST_MODEL_BIN).
+        trainExamplesFileName(TEST_TRAIN_EXAMPLES).
+        replayBufferFileName(TEST_REPLAY_BUFFER).
+        build();
+ 
+    ComputationGraph computationGraph =
+        new ComputationGraph(new ConvolutionResidualNet().createConvolutionalGraphConfiguration());
+    computationGraph.init();
+    
+    AdversaryLearning learning = new AdversaryLearning(new TicTacToe(Game.MAX_PLAYER), computationGraph, configuration);
+    
+    learning.performLearning();
+    
+    assertEquals(1, computationGraph.getIterationCount());
+    assertTrue(learning.trainExamplesHistory.isEmpty());
+    assertTrue(0 < learning.replayBuffer.size());
+
+    Files.delete(Paths.get(configuration.getAbsoluteModelPathFrom(TEST_REPLAY_BUFFER)));
+  }
+
   @Test
   void testChallengeGames() throws IOException {
     
@@ -97,14 +177,14 @@ public class AdversaryLearningTest {
     
     assertEquals(1, computationGraph.getIterationCount());
 
-    Files.delete(Paths.get(configuration.getAbsoluteModelPathFrom("tempmodel.bin")));
+    assertFalse(Files.exists(Paths.get(configuration.getAbsoluteModelPathFrom("tempmodel.bin"))));
   }
 
   @AfterEach
   void deleteTempModel() throws IOException {
 
     Files.delete(Paths.get(configuration.getAbsoluteModelPathFrom(TEST_MODEL_BIN)));
-    Files.delete(Paths.get(configuration.getAbsoluteModelPathFrom(TEST_TRAIN_EXAMPLES)));
+    Files.deleteIfExists(Paths.get(configuration.getAbsoluteModelPathFrom(TEST_TRAIN_EXAMPLES)));
   }
   
 }
@@ -0,0 +1,67 @@
+package ch.evolutionsoft.rl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class BatchInferenceServerTest {
+
+  @Test
+  void checkBatchedOutputsMatchSingleOutputs() {
+
+    ComputationGraph computationGraph = TestHelper.createConvolutionalConfiguration();
+    Game game = TestHelper.createMiddlePositionBoardWithThreat();
+
+    List<INDArray> boards = new ArrayList<>();
+    boards.add(game.getCurrentBoard());
+    for (int moveIndex : game.getValidMoveIndices()) {
+
+      Game nextGame = game.createNewInstance();
+      nextGame.makeMove(moveIndex, game.getCurrentPlayer());
+      boards.add(nextGame.getCurrentBoard());
+    }
+
+    try (BatchInferenceServer inferenceServer = new BatchInferenceServer(computationGraph, 4, 10000).start()) {
+
+      List<CompletableFuture<INDArray[]>> pendingOutputs = new ArrayList<>();
+      for (INDArray board : boards) {
+
+        pendingOutputs.add(inferenceServer.submit(board));
+      }
+
+      for (int index = 0; index < boards.size(); index++) {
+
+        INDArray[] batchedOutput = pendingOutputs.get(index).join();
+        INDArray[] singleOutput = computationGraph.output(Nd4j.pile(boards.get(index)));
+
+        assertArrayEquals(singleOutput[0].getRow(0).toFloatVector(), batchedOutput[0].toFloatVector(), 1e-5f);
+        assertEquals(singleOutput[1].getDouble(0), batchedOutput[1].getDouble(0), 1e-5);
+      }
+
+      assertEquals(boards.size(), inferenceServer.getNumberOfRequests());
+      assertTrue(inferenceServer.getNumberOfBatches() < boards.size());
+      assertTrue(inferenceServer.getAverageBatchFillRatio() > 0.25);
+    }
+  }
+
+  @Test
+  void checkSubmitAfterCloseFailsInsteadOfHanging() {
+
+    ComputationGraph computationGraph = TestHelper.createConvolutionalConfiguration();
+    Game game = TestHelper.createMiddlePositionBoardWithThreat();
+
+    BatchInferenceServer inferenceServer = new BatchInferenceServer(computationGraph, 4, 10000).start();
+    inferenceServer.close();
+
+    CompletableFuture<INDArray[]> output = inferenceServer.submit(game.getCurrentBoard());
+
+    assertTrue(output.isCompletedExceptionally());
+  }
+}
@@ -2,6 +2,8 @@ package ch.evolutionsoft.rl;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.concurrent.ExecutorService;
+
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -46,4 +48,203 @@ public class MonteCarloTreeSearchTest {
     
     assertEquals(expectedVisitedCountsChildren, visitedCountsChildren);
   }
+
+  @Test
+  void checkBatchedMonteCarloMoveValidityAndTreeVisitCounts() {
+    
+    ComputationGraph computationGraph = TestHelper.createConvolutionalConfiguration();
+    AdversaryLearningConfiguration adversaryLearningConfiguration =
+        new AdversaryLearningConfiguration.Builder().
+        numberOfMonteCarloSimulations(1000).
+        monteCarloLeafBatchSize(8).
+        build();
+    MonteCarloTreeSearch batchedMcts = new MonteCarloTreeSearch(computationGraph, adversaryLearningConfiguration);
+
+    Game game = TestHelper.createMiddlePositionBoardWithThreat();
+    
+    INDArray actionProbabilities = batchedMcts.getActionValues(game, AdversaryLearningConstants.ONE);
+    
+    INDArray zeroProbabilityIndices = actionProbabilities.lte(0);
+
+    assertEquals(Nd4j.createFromArray(
+        new boolean[] {true, false, true, true, true, false, true, false, false}), zeroProbabilityIndices);
+    
+    int visitedCountsChildren = 0;
+    for (TreeNode rootChildEntry : batchedMcts.rootNode.children.values()) {
+      
+      visitedCountsChildren += rootChildEntry.timesVisited;
+      assertEquals(0, rootChildEntry.virtualLoss);
+    }
+    
+    assertEquals(1000 - 1, visitedCountsChildren);
+    assertEquals(0, batchedMcts.rootNode.virtualLoss);
+  }
+
+  @Test
+  void checkArenaTreeMonteCarloMoveValidityAndTreeVisitCounts() {
+    
+    ComputationGraph computationGraph = TestHelper.createConvolutionalConfiguration();
+    AdversaryLearningConfiguration adversaryLearningConfiguration =
+        new AdversaryLearningConfiguration.Builder().
+        numberOfMonteCarloSimulations(1000).
+        useArenaTree(true).
+        build();
+    MonteCarloTreeSearch arenaMcts = new MonteCarloTreeSearch(computationGraph, adversaryLearningConfiguration);
+
+    Game game = TestHelper.createMiddlePositionBoardWithThreat();
+    
+    INDArray actionProbabilities = arenaMcts.getActionValues(game, AdversaryLearningConstants.ONE);
+    
+    INDArray zeroProbabilityIndices = actionProbabilities.lte(0);
+
+    assertEquals(Nd4j.createFromArray(
+        new boolean[] {true, false, true, true, true, false, true, false, false}), zeroProbabilityIndices);
+    
+    ArenaTree arenaTree = arenaMcts.arenaTree;
+    int visitedCountsChildren = 0;
+    int firstChild = arenaTree.getFirstChild(ArenaTree.ROOT);
+    for (int child = firstChild; child < firstChild + arenaTree.getChildCount(ArenaTree.ROOT); child++) {
+      
+      visitedCountsChildren += arenaTree.getTimesVisited(child);
+    }
+    
+    assertEquals(1000, arenaTree.getTimesVisited(ArenaTree.ROOT));
+    assertEquals(1000 - 1, visitedCountsChildren);
+  }
+
+  @Test
+  void checkTreeParallelMonteCarloMoveValidityAndTreeVisitCounts() {
+    
+    ComputationGraph computationGraph = TestHelper.createConvolutionalConfiguration();
+    AdversaryLearningConfiguration adversaryLearningConfiguration =
+        new AdversaryLearningConfiguration.Builder().
+        numberOfMonteCarloSimulations(1000).
+        numberOfSearchThreads(4).
+        build();
+    MonteCarloTreeSearch parallelMcts = new MonteCarloTreeSearch(computationGraph, adversaryLearningConfiguration);
+
+    Game game = TestHelper.createMiddlePositionBoardWithThreat();
+    
+    INDArray actionProbabilities = parallelMcts.getActionValues(game, AdversaryLearningConstants.ONE);
+    
+    INDArray zeroProbabilityIndices = actionProbabilities.lte(0);
+
+    assertEquals(Nd4j.createFromArray(
+        new boolean[] {true, false, true, true, true, false, true, false, false}), zeroProbabilityIndices);
+    
+    int visitedCountsChildren = 0;
+    for (TreeNode rootChildEntry : parallelMcts.rootNode.children.values()) {
+      
+      visitedCountsChildren += rootChildEntry.timesVisited;
+      assertEquals(0, rootChildEntry.virtualLoss);
+    }
+    
+    assertEquals(1000, parallelMcts.rootNode.timesVisited);
+    assertEquals(1000 - 1, visitedCountsChildren);
+    assertEquals(0, parallelMcts.rootNode.virtualLoss);
+    
+    parallelMcts.close();
+  }
+
+  @Test
+  void checkTreeParallelSearchesReuseThreads() {
+    
+    ComputationGraph computationGraph = TestHelper.createConvolutionalConfiguration();
+    AdversaryLearningConfiguration adversaryLearningConfiguration =
+        new AdversaryLearningConfiguration.Builder().
+        numberOfMonteCarloSimulations(100).
+        numberOfSearchThreads(2).
+        build();
+    
+    ExecutorService searchExecutor;
+    try (MonteCarloTreeSearch parallelMcts =
+        new MonteCarloTreeSearch(computationGraph, adversaryLearningConfiguration)) {
+      
+      parallelMcts.getActionValues(TestHelper.createMiddlePositionBoardWithThreat(), 0);
+      searchExecutor = parallelMcts.searchExecutor;
+      BatchInferenceServer searchInferenceServer = parallelMcts.searchInferenceServer;
+      
+      parallelMcts.getActionValues(TestHelper.createMiddlePositionBoardWithThreat(), 0);
+      
+      assertSame(searchExecutor, parallelMcts.searchExecutor);
+      assertSame(searchInferenceServer, parallelMcts.searchInferenceServer);
+    }
+    
+    assertTrue(searchExecutor.isShutdown());
+  }
+
+  @Test
+  void checkTreeParallelSearchTimeLimit() {
+    
+    ComputationGraph computationGraph = TestHelper.createConvolutionalConfiguration();
+    AdversaryLearningConfiguration adversaryLearningConfiguration =
+        new AdversaryLearningConfiguration.Builder().
+        numberOfMonteCarloSimulations(Integer.MAX_VALUE).
+        numberOfSearchThreads(2).
+        searchTimeLimitMillis(300).
+        build();
+    MonteCarloTreeSearch parallelMcts = new MonteCarloTreeSearch(computationGraph, adversaryLearningConfiguration);
+
+    long startMillis = System.currentTimeMillis();
+    parallelMcts.getActionValues(TestHelper.createMiddlePositionBoardWithThreat(), 0);
+    long searchMillis = System.currentTimeMillis() - startMillis;
+    
+    assertTrue(searchMillis < 5000, "Search took " + searchMillis + " ms");
+    assertTrue(parallelMcts.rootNode.timesVisited > 0);
+    
+    parallelMcts.close();
+  }
+
+  @Test
+  void checkForcedMoveSkipsSearch() {
+    
+    Game game = TestHelper.createForcedMovePositionBoard();
+    
+    INDArray actionProbabilities = mcts.getActionValues(game, AdversaryLearningConstants.ONE);
+    
+    assertEquals(8, actionProbabilities.argMax(0).getInt(0));
+    assertEquals(1.0, actionProbabilities.sumNumber().doubleValue(), 1e-6);
+    assertEquals(0, mcts.rootNode.timesVisited);
+    assertNotNull(mcts.updateWithMove(8));
+  }
+
+  @Test
+  void checkSearchTimeLimitAndSimulationBudget() {
+    
+    Game game = TestHelper.createMiddlePositionBoardWithThreat();
+
+    mcts.getActionValues(game, AdversaryLearningConstants.ONE, 50, 0);
+    assertEquals(50, mcts.rootNode.timesVisited);
+
+    long startMillis = System.currentTimeMillis();
+    mcts.getActionValues(game, AdversaryLearningConstants.ONE, Integer.MAX_VALUE, 200);
+    long searchMillis = System.currentTimeMillis() - startMillis;
+    
+    assertTrue(searchMillis < 5000, "Search took " + searchMillis + " ms");
+    assertTrue(mcts.rootNode.timesVisited > 0);
+  }
+
+  @Test
+  void checkSubtreeReuseAfterUpdateWithMove() {
+    
+    Game game = TestHelper.createMiddlePositionBoardWithThreat();
+    mcts.getActionValues(game, AdversaryLearningConstants.ONE);
+    
+    TreeNode blockingMoveNode = mcts.rootNode.getChildWithMoveIndex(1);
+    assertTrue(blockingMoveNode.timesVisited > 0);
+    assertSame(blockingMoveNode, mcts.updateWithMove(1));
+    assertNull(blockingMoveNode.parent);
+    
+    game.makeMove(1, Game.MIN_PLAYER);
+    mcts.getActionValues(game, AdversaryLearningConstants.ONE);
+    
+    assertSame(blockingMoveNode, mcts.rootNode);
+    assertEquals(1000, blockingMoveNode.timesVisited);
+    
+    assertNull(mcts.updateWithMove(-1));
+    mcts.getActionValues(game, AdversaryLearningConstants.ONE);
+    
+    assertNotSame(blockingMoveNode, mcts.rootNode);
+    assertEquals(1000, mcts.rootNode.timesVisited);
+  }
 }
@@ -43,6 +43,30 @@ public class TestHelper {
     return game;
   }
   
+  /**
+   * 
+   * X|O|X
+   * X|O|O
+   * O|X| 
+   * 
+   * @return
+   */
+  public static Game createForcedMovePositionBoard() {
+
+    Game game = new TicTacToe(Game.MAX_PLAYER);
+
+    game.makeMove(0, Game.MAX_PLAYER);
+    game.makeMove(1, Game.MIN_PLAYER);
+    game.makeMove(2, Game.MAX_PLAYER);
+    game.makeMove(4, Game.MIN_PLAYER);
+    game.makeMove(3, Game.MAX_PLAYER);
+    game.makeMove(5, Game.MIN_PLAYER);
+    game.makeMove(7, Game.MAX_PLAYER);
+    game.makeMove(6, Game.MIN_PLAYER);
+
+    return game;
+  }
+  
   private TestHelper() {
     // Hide constructor
   }
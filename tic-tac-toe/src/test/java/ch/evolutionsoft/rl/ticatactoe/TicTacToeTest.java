@@ -2,6 +2,7 @@ package ch.evolutionsoft.rl.ticatactoe;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -175,4 +176,146 @@ public class TicTacToeTest {
     assertTrue(uniqueSymmetries.contains(
         new AdversaryTrainingExample(symmetry7, Game.MAX_PLAYER, Nd4j.zeros(TicTacToeConstants.COLUMN_COUNT), 0)));
   }
+
+  @Test
+  public void testBoardCreatedFromMoves() {
+    
+    TicTacToe game = new TicTacToe(Game.MAX_PLAYER);
+    
+    assertEquals(TicTacToeConstants.EMPTY_CONVOLUTIONAL_PLAYGROUND, game.getCurrentBoard());
+    
+    game.makeMove(4, Game.MAX_PLAYER);
+    INDArray board = game.makeMove(0, Game.MIN_PLAYER);
+    
+    INDArray expectedBoard = TicTacToeConstants.EMPTY_CONVOLUTIONAL_PLAYGROUND.dup();
+    expectedBoard.putScalar(TicTacToeConstants.MAX_PLAYER_CHANNEL, 1, 1, AdversaryLearningConstants.ONE);
+    expectedBoard.putScalar(TicTacToeConstants.MIN_PLAYER_CHANNEL, 0, 0, AdversaryLearningConstants.ONE);
+    
+    assertEquals(expectedBoard, board);
+    assertEquals(expectedBoard, game.createNewInstance().getCurrentBoard());
+    assertEquals(Game.MAX_PLAYER, game.getCurrentPlayer());
+    
+    game.playMove(8, Game.MAX_PLAYER);
+    expectedBoard.putRow(TicTacToeConstants.CURRENT_PLAYER_CHANNEL, TicTacToeConstants.MINUS_ONES_PLAYGROUND_IMAGE);
+    expectedBoard.putScalar(TicTacToeConstants.MAX_PLAYER_CHANNEL, 2, 2, AdversaryLearningConstants.ONE);
+    
+    assertEquals(expectedBoard, game.getCurrentBoard());
+  }
+  
+  @Test
+  public void testValidMovesAndGameEnd() {
+    
+    TicTacToe game = new TicTacToe(Game.MAX_PLAYER);
+    game.playMove(0, Game.MAX_PLAYER);
+    game.playMove(3, Game.MIN_PLAYER);
+    game.playMove(1, Game.MAX_PLAYER);
+    game.playMove(4, Game.MIN_PLAYER);
+    
+    assertEquals(new HashSet<>(Arrays.asList(2, 5, 6, 7, 8)), game.getValidMoveIndices());
+    assertEquals(Nd4j.createFromArray(0f, 0f, 1f, 0f, 0f, 1f, 1f, 1f, 1f), game.getValidMoves());
+    assertFalse(game.gameEnded());
+    assertEquals(0.5, game.getEndResult(Game.MIN_PLAYER));
+    
+    TicTacToe minWinGame = (TicTacToe) game.createNewInstance();
+    minWinGame.playMove(8, Game.MAX_PLAYER);
+    minWinGame.playMove(5, Game.MIN_PLAYER);
+    
+    assertTrue(minWinGame.gameEnded());
+    assertEquals(0.0, minWinGame.getEndResult(Game.MIN_PLAYER));
+    
+    game.playMove(2, Game.MAX_PLAYER);
+    
+    assertTrue(game.gameEnded());
+    assertEquals(1.0, game.getEndResult(Game.MAX_PLAYER));
+  }
+  
+  @Test
+  public void testFillValidMoves() {
+    
+    TicTacToe game = new TicTacToe(Game.MAX_PLAYER);
+    game.playMove(4, Game.MAX_PLAYER);
+    game.playMove(0, Game.MIN_PLAYER);
+    game.playMove(8, Game.MAX_PLAYER);
+    
+    int[] validMoveIndices = new int[game.getNumberOfAllAvailableMoves()];
+    int numberOfValidMoves = game.fillValidMoveIndices(validMoveIndices);
+    
+    assertEquals(6, numberOfValidMoves);
+    assertArrayEquals(new int[] {1, 2, 3, 5, 6, 7}, Arrays.copyOf(validMoveIndices, numberOfValidMoves));
+    
+    float[] validMovesMask = new float[] {1f, 1f, 1f, 1f, 1f, 1f, 1f, 1f, 1f};
+    game.fillValidMoves(validMovesMask);
+    
+    assertArrayEquals(game.getValidMoves().toFloatVector(), validMovesMask);
+  }
+  
+  @Test
+  public void testUnmakeMoveRestoresState() {
+    
+    TicTacToe game = new TicTacToe(Game.MAX_PLAYER);
+    game.playMove(4, Game.MAX_PLAYER);
+    
+    TicTacToe playedGame = (TicTacToe) game.createNewInstance();
+    INDArray boardBeforeMoves = playedGame.getCurrentBoard();
+    
+    assertTrue(playedGame.supportsUnmakeMove());
+    assertThrows(IllegalStateException.class, playedGame::unmakeMove);
+    
+    playedGame.playMove(0, Game.MIN_PLAYER);
+    playedGame.playMove(1, Game.MAX_PLAYER);
+    playedGame.playMove(8, Game.MIN_PLAYER);
+    playedGame.playMove(7, Game.MAX_PLAYER);
+    
+    assertTrue(playedGame.gameEnded());
+    
+    playedGame.unmakeMove();
+    
+    assertFalse(playedGame.gameEnded());
+    assertEquals(Game.MAX_PLAYER, playedGame.getCurrentPlayer());
+    
+    playedGame.unmakeMove();
+    playedGame.unmakeMove();
+    playedGame.unmakeMove();
+    
+    assertEquals(boardBeforeMoves, playedGame.getCurrentBoard());
+    assertEquals(game.getCurrentPlayer(), playedGame.getCurrentPlayer());
+    assertEquals(game.getValidMoveIndices(), playedGame.getValidMoveIndices());
+  }
+  
+  @Test
+  public void testPositionHashOfTranspositions() {
+    
+    TicTacToe game = new TicTacToe(Game.MAX_PLAYER);
+    long emptyBoardHash = game.getPositionHash();
+    game.playMove(0, Game.MAX_PLAYER);
+    game.playMove(4, Game.MIN_PLAYER);
+    game.playMove(8, Game.MAX_PLAYER);
+    
+    TicTacToe transposedGame = new TicTacToe(Game.MAX_PLAYER);
+    transposedGame.playMove(8, Game.MAX_PLAYER);
+    transposedGame.playMove(4, Game.MIN_PLAYER);
+    transposedGame.playMove(0, Game.MAX_PLAYER);
+    
+    assertEquals(game.getPositionHash(), transposedGame.getPositionHash());
+    assertEquals(game.getPositionHash(), game.createNewInstance().getPositionHash());
+    
+    TicTacToe swappedStonesGame = new TicTacToe(Game.MAX_PLAYER);
+    swappedStonesGame.playMove(4, Game.MAX_PLAYER);
+    swappedStonesGame.playMove(0, Game.MIN_PLAYER);
+    swappedStonesGame.playMove(8, Game.MAX_PLAYER);
+    
+    assertNotEquals(game.getPositionHash(), swappedStonesGame.getPositionHash());
+    
+    long hashAfterMaxMove = game.getPositionHash();
+    game.playMove(2, Game.MIN_PLAYER);
+    game.unmakeMove();
+    
+    assertEquals(hashAfterMaxMove, game.getPositionHash());
+    
+    game.unmakeMove();
+    game.unmakeMove();
+    game.unmakeMove();
+    
+    assertEquals(emptyBoardHash, game.getPositionHash());
+  }
 }